@@ -0,0 +1,38 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.snomed.snap2snomed.config;
+
+import org.hibernate.boot.MetadataBuilder;
+import org.hibernate.boot.spi.MetadataBuilderContributor;
+import org.hibernate.dialect.function.SQLFunctionTemplate;
+import org.hibernate.type.StandardBasicTypes;
+
+/**
+ * Registers the display_match HQL function, a boolean mode MySQL full text MATCH against one of the ngram display
+ * indexes, returning a positive relevance for rows that match.
+ */
+public class DisplaySearchFunctionContributor implements MetadataBuilderContributor {
+
+  public static final String DISPLAY_MATCH = "display_match";
+
+  @Override
+  public void contribute(MetadataBuilder metadataBuilder) {
+    metadataBuilder.applySqlFunction(DISPLAY_MATCH,
+        new SQLFunctionTemplate(StandardBasicTypes.DOUBLE, "match (?1) against (?2 in boolean mode)"));
+  }
+}
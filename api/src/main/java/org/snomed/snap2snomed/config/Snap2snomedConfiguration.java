@@ -17,6 +17,8 @@
 package org.snomed.snap2snomed.config;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 import lombok.Getter;
@@ -51,6 +53,59 @@ public class Snap2snomedConfiguration {
   int maximumImportedCodeSetRows = 200000;
   int importBatchSize = 10000;
 
+  /**
+   * Load imported codes with LOAD DATA LOCAL INFILE rather than batched inserts, see CodeSetImportService.
+   * Needs allowLoadLocalInfile=true on the datasource url and local_infile enabled on the server, imports
+   * fall back to batched inserts where the server refuses it.
+   */
+  boolean importLocalInfile = false;
+
+  /** Number of import jobs run at once, see ImportJobService */
+  int importJobThreads = 2;
+
+  /** Number of import jobs that can wait for a thread before further jobs are refused */
+  int importJobQueueSize = 20;
+
+  /** Minutes a finished import job can be polled for its result */
+  int importJobRetentionMinutes = 60;
+
+  /** Directory uploads are saved to until their import job has run, a new temporary directory if not set */
+  String importJobDirectory;
+
+  /** Maximum number of map view total counts cached, see MapViewCountService */
+  int mapViewCountCacheSize = 1000;
+
+  /** Maximum number of map view pages cached, see MapViewPageCache */
+  int mapViewPageCacheSize = 200;
+
+  /** Maximum number of map view rows held by all cached pages together, larger pages are not cached */
+  int mapViewPageCacheRows = 20000;
+
+  /** Number of export jobs run at once, see MapExportJobService */
+  int exportJobThreads = 2;
+
+  /** Number of export jobs that can wait for a thread before further jobs are refused */
+  int exportJobQueueSize = 20;
+
+  /** Minutes the file of a finished export job is kept for download */
+  int exportJobRetentionMinutes = 60;
+
+  /** Directory export job files are written to, a new temporary directory if not set */
+  String exportJobDirectory;
+
+  /** Number of exports and map view streams written straight to responses at once, see ExportStreamLimiter */
+  int exportStreamLimit = 4;
+
+  /** Deflate level of gzip compressed exports, see ExportCompression */
+  @Min(1)
+  @Max(9)
+  int exportGzipLevel = 6;
+
+  /** Level of zstd compressed exports, see ExportCompression */
+  @Min(1)
+  @Max(22)
+  int exportZstdLevel = 3;
+
   @URL
   String userRegistrationUrl = "http://snomed.org/account-apply";
 
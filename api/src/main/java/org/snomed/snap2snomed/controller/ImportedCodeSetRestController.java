@@ -21,17 +21,26 @@ import org.snomed.snap2snomed.model.ImportedCodeSet;
 import org.snomed.snap2snomed.problem.auth.NoSuchUserProblem;
 import org.snomed.snap2snomed.security.WebSecurity;
 import org.snomed.snap2snomed.service.CodeSetImportService;
+import org.snomed.snap2snomed.service.ImportJob;
+import org.snomed.snap2snomed.service.ImportJob.ImportType;
+import org.snomed.snap2snomed.service.ImportJobService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.HttpMediaTypeNotAcceptableException;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.enums.ParameterIn;
 import io.swagger.v3.oas.annotations.media.Content;
 
 @Validated
@@ -41,6 +50,9 @@ public class ImportedCodeSetRestController {
   @Autowired
   private CodeSetImportService importService;
 
+  @Autowired
+  private ImportJobService importJobService;
+
   @Autowired
   WebSecurity webSecurity;  
 
@@ -62,4 +74,50 @@ public class ImportedCodeSetRestController {
     return importService.importCodeSet(importDetails, file);
   }
 
+  @Operation(description = "Starts an import of a code set in the background, responding once the file is saved with "
+      + "a job to poll with /importedCodeSets/$import/{jobId}. The job has the id of the code set once it has completed.")
+  @PostMapping(value = "/importedCodeSets/$import", consumes = {MediaType.MULTIPART_FORM_DATA_VALUE},
+      produces = {MediaType.APPLICATION_JSON_VALUE})
+  ResponseEntity<ImportJob> createImportCodeSetJob(
+      @Parameter(description = "Details of the file being imported", content = @Content(mediaType = "application/json"))
+          @RequestPart(name = "importDetails",
+          required = true) @Validated ImportDetails importDetails,
+      @Parameter(description = "The file to be imported",content = {@Content(mediaType = "text/tsv"), @Content(mediaType = "text/csv")})
+          @RequestPart(name = "file",
+          required = true) MultipartFile file) throws HttpMediaTypeNotAcceptableException {
+
+    if (!webSecurity.isValidUser()) {
+      throw new NoSuchUserProblem();
+    }
+
+    final ImportJob job = importJobService.createCodeSetJob(importDetails, file);
+    return ResponseEntity.accepted()
+        .location(ServletUriComponentsBuilder.fromCurrentContextPath().path("/importedCodeSets/$import/{jobId}").buildAndExpand(job.getId()).toUri())
+        .body(job);
+  }
+
+  @Operation(description = "Returns the status of a code set import job started by /importedCodeSets/$import, "
+      + "including the number of records read and rows inserted so far.")
+  @Parameter(name = "jobId", in = ParameterIn.PATH, required = true, allowEmptyValue = false,
+      description = "Id of the import job")
+  @GetMapping(value = "/importedCodeSets/$import/{jobId}", produces = {MediaType.APPLICATION_JSON_VALUE})
+  ImportJob getImportCodeSetJob(@PathVariable("jobId") String jobId) {
+    if (!webSecurity.isValidUser()) {
+      throw new NoSuchUserProblem();
+    }
+    return importJobService.getJob(jobId, ImportType.CODE_SET);
+  }
+
+  @Operation(description = "Cancels a code set import job, a running import stops at its next batch and is rolled back. "
+      + "Responds with 409 Conflict if the job has already finished.")
+  @Parameter(name = "jobId", in = ParameterIn.PATH, required = true, allowEmptyValue = false,
+      description = "Id of the import job")
+  @DeleteMapping(value = "/importedCodeSets/$import/{jobId}", produces = {MediaType.APPLICATION_JSON_VALUE})
+  ImportJob cancelImportCodeSetJob(@PathVariable("jobId") String jobId) {
+    if (!webSecurity.isValidUser()) {
+      throw new NoSuchUserProblem();
+    }
+    return importJobService.cancelJob(jobId, ImportType.CODE_SET);
+  }
+
 }
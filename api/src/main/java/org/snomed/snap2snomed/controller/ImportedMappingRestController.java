@@ -23,18 +23,27 @@ import org.snomed.snap2snomed.problem.auth.NotAuthorisedProblem;
 import org.snomed.snap2snomed.security.AuthenticationFacade;
 import org.snomed.snap2snomed.security.WebSecurity;
 import org.snomed.snap2snomed.service.CodeSetImportService;
+import org.snomed.snap2snomed.service.ImportJob;
+import org.snomed.snap2snomed.service.ImportJob.ImportType;
+import org.snomed.snap2snomed.service.ImportJobService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.HttpMediaTypeNotAcceptableException;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.enums.ParameterIn;
 import io.swagger.v3.oas.annotations.media.Content;
 
 @Validated
@@ -44,6 +53,12 @@ public class ImportedMappingRestController {
   @Autowired
   private CodeSetImportService importService;
 
+  @Autowired
+  private ImportJobService importJobService;
+
+  @Autowired
+  WebSecurity webSecurity;
+
 
   @Operation
   @PostMapping(value = "/importedMappings/import", consumes = {MediaType.MULTIPART_FORM_DATA_VALUE},
@@ -59,4 +74,51 @@ public class ImportedMappingRestController {
     return importService.importMappings(importDetails, file);
   }
 
+  @Operation(description = "Starts an import of a mapping file in the background, responding once the file is saved with "
+      + "a job to poll with /importedMappings/$import/{jobId}. The job has the import's results once it has completed, "
+      + "including the validation of the imported targets.")
+  @PostMapping(value = "/importedMappings/$import", consumes = {MediaType.MULTIPART_FORM_DATA_VALUE},
+      produces = {MediaType.APPLICATION_JSON_VALUE})
+  ResponseEntity<ImportJob> createImportMappingFileJob(
+      @Parameter(description = "Details of the file being imported", content = @Content(mediaType = "application/json"))
+          @RequestPart(name = "importDetails",
+          required = true) @Validated ImportMappingFileDetails importDetails,
+      @Parameter(description = "The file to be imported",content = {@Content(mediaType = "text/tsv"), @Content(mediaType = "text/csv")})
+          @RequestPart(name = "file",
+          required = true) MultipartFile file) throws HttpMediaTypeNotAcceptableException {
+
+    if (!webSecurity.isValidUser()) {
+      throw new NoSuchUserProblem();
+    }
+
+    final ImportJob job = importJobService.createMappingJob(importDetails, file);
+    return ResponseEntity.accepted()
+        .location(ServletUriComponentsBuilder.fromCurrentContextPath().path("/importedMappings/$import/{jobId}").buildAndExpand(job.getId()).toUri())
+        .body(job);
+  }
+
+  @Operation(description = "Returns the status of a mapping file import job started by /importedMappings/$import, "
+      + "including the number of records read and rows inserted so far and whether targets are being validated.")
+  @Parameter(name = "jobId", in = ParameterIn.PATH, required = true, allowEmptyValue = false,
+      description = "Id of the import job")
+  @GetMapping(value = "/importedMappings/$import/{jobId}", produces = {MediaType.APPLICATION_JSON_VALUE})
+  ImportJob getImportMappingFileJob(@PathVariable("jobId") String jobId) {
+    if (!webSecurity.isValidUser()) {
+      throw new NoSuchUserProblem();
+    }
+    return importJobService.getJob(jobId, ImportType.MAPPING);
+  }
+
+  @Operation(description = "Cancels a mapping file import job, a running import stops at its next batch and is rolled "
+      + "back, leaving the map as it was. Responds with 409 Conflict if the job has already finished.")
+  @Parameter(name = "jobId", in = ParameterIn.PATH, required = true, allowEmptyValue = false,
+      description = "Id of the import job")
+  @DeleteMapping(value = "/importedMappings/$import/{jobId}", produces = {MediaType.APPLICATION_JSON_VALUE})
+  ImportJob cancelImportMappingFileJob(@PathVariable("jobId") String jobId) {
+    if (!webSecurity.isValidUser()) {
+      throw new NoSuchUserProblem();
+    }
+    return importJobService.cancelJob(jobId, ImportType.MAPPING);
+  }
+
 }
@@ -16,63 +16,57 @@
 
 package org.snomed.snap2snomed.controller;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.Map;
 
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVPrinter;
-import org.apache.poi.xssf.streaming.SXSSFCell;
-import org.apache.poi.xssf.streaming.SXSSFRow;
-import org.apache.poi.xssf.streaming.SXSSFSheet;
-import org.apache.poi.xssf.streaming.SXSSFWorkbook;
-import org.hl7.fhir.r4.model.ConceptMap;
-import org.hl7.fhir.r4.model.ConceptMap.ConceptMapGroupComponent;
-import org.hl7.fhir.r4.model.ConceptMap.SourceElementComponent;
-import org.hl7.fhir.r4.model.ConceptMap.TargetElementComponent;
-import org.hl7.fhir.r4.model.Enumerations.ConceptMapEquivalence;
-import org.hl7.fhir.r4.model.Enumerations.PublicationStatus;
-import org.hl7.fhir.r4.model.UriType;
+import org.snomed.snap2snomed.controller.dto.MapViewColumnarPage;
 import org.snomed.snap2snomed.controller.dto.Snap2SnomedPagedModel;
-import org.snomed.snap2snomed.model.ImportedCodeSet;
-import org.snomed.snap2snomed.model.AdditionalCodeValue;
 import org.snomed.snap2snomed.model.MapView;
-import org.snomed.snap2snomed.model.Project;
 import org.snomed.snap2snomed.model.enumeration.MapStatus;
 import org.snomed.snap2snomed.model.enumeration.MappingRelationship;
 import org.snomed.snap2snomed.problem.auth.NoSuchUserProblem;
 import org.snomed.snap2snomed.problem.auth.NotAuthorisedProblem;
 import org.snomed.snap2snomed.repository.MapRepository;
 import org.snomed.snap2snomed.security.WebSecurity;
-import org.snomed.snap2snomed.service.FhirService;
+import org.snomed.snap2snomed.service.ExportCompression;
+import org.snomed.snap2snomed.service.ExportStreamLimiter;
+import org.snomed.snap2snomed.service.MapExportJob;
+import org.snomed.snap2snomed.service.MapExportJobService;
+import org.snomed.snap2snomed.service.MapExportWriter;
 import org.snomed.snap2snomed.service.MapViewService;
 import org.snomed.snap2snomed.service.MapViewService.MapViewFilter;
-import org.snomed.snap2snomed.service.TerminologyProvider;
+import org.snomed.snap2snomed.service.Rf2RefsetWriter;
+import org.snomed.snap2snomed.service.Rf2RefsetWriter.RefsetType;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.web.PagedResourcesAssembler;
 import org.springframework.hateoas.EntityModel;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import org.zalando.problem.Problem;
 import org.zalando.problem.Status;
 
-import ca.uhn.fhir.parser.IParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.enums.ParameterIn;
@@ -93,16 +87,37 @@ public class MapViewRestController {
 
   public static final String FHIR_JSON = "application/fhir+json";
 
+  public static final String COLUMNAR_JSON = "application/vnd.snap2snomed.columnar+json";
+
+  public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+  public static final String RF2_ZIP = "application/zip";
+
   @Autowired
   MapViewService mapViewService;
 
+  @Autowired
+  MapExportWriter mapExportWriter;
+
+  @Autowired
+  MapExportJobService mapExportJobService;
+
+  @Autowired
+  ExportCompression exportCompression;
+
+  @Autowired
+  ExportStreamLimiter exportStreamLimiter;
+
   @Autowired
   WebSecurity webSecurity;
 
   @Autowired
-  TerminologyProvider terminology;
+  ObjectMapper objectMapper;
 
-  @Operation(description = "Returns a flattened view of the MapRows and MapRowTargets for the specified mapId.")
+  @Operation(description = "Returns a flattened view of the MapRows and MapRowTargets for the specified mapId. "
+      + "Responses carry an ETag, a request with a matching If-None-Match header is answered with 304 Not Modified. "
+      + "Requesting " + COLUMNAR_JSON + " returns the page in a compact form with an array per field and users, "
+      + "statuses and relationships listed once and referred to by index, suited to large pages.")
   @Parameter(name = "mapId", in = ParameterIn.PATH, required = true, allowEmptyValue = false,
       description = "Id of the map the view is to be generated for")
   @Parameter(name = "sourceCode", in = ParameterIn.QUERY, required = false, allowEmptyValue = true,
@@ -139,6 +154,12 @@ public class MapViewRestController {
       description = "Filters the results to those that are flagged or not flagged.")
   @Parameter(name = "additionalColumns", in = ParameterIn.QUERY, required = false, allowEmptyValue = true,
       description = "Filters the results to those with an additional column matching one of the specified values.")
+  @Parameter(name = "after", in = ParameterIn.QUERY, required = false, allowEmptyValue = true,
+      description = "Switches to keyset paging. Pass an empty value for the first page, then the 'after' token returned "
+          + "with each page to read the next one. The 'page' parameter is ignored in this mode.")
+  @Parameter(name = "deferCount", in = ParameterIn.QUERY, required = false, allowEmptyValue = true,
+      description = "Returns the page without waiting for the total count if it isn't already cached. The response is then "
+          + "flagged with totalDeferred and the exact count is available from the $count endpoint.")
   @Parameter(name = "page", in = ParameterIn.QUERY, required = false, allowEmptyValue = false,
       description = "Zero-based page index (0..N)")
   @Parameter(name = "size", in = ParameterIn.QUERY, required = false, allowEmptyValue = false,
@@ -146,8 +167,8 @@ public class MapViewRestController {
   @Parameter(name = "sort", in = ParameterIn.QUERY, required = false, allowEmptyValue = false,
       description = "Sorting criteria in the format: property(,asc|desc). Default sort order is ascending. Multiple sort criteria are supported.",
       array = @ArraySchema(schema = @Schema(type = "string")))
-  @GetMapping(path = "/{mapId}", produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<Snap2SnomedPagedModel<EntityModel<MapView>>> getMapView(
+  @GetMapping(path = "/{mapId}", produces = {MediaType.APPLICATION_JSON_VALUE, COLUMNAR_JSON})
+  public ResponseEntity<?> getMapView(@RequestHeader(name = "Accept", required = false) String accept,
       @PathVariable("mapId") Long mapId,
       @RequestParam(required = false) List<String> sourceCode,
       @RequestParam(required = false) List<String> sourceDisplay,
@@ -165,8 +186,11 @@ public class MapViewRestController {
       @RequestParam(required = false) Boolean targetOutOfScope,
       @RequestParam(required = false) Boolean flagged,
       @RequestParam(required = false) List<String> additionalColumns,
+      @RequestParam(required = false) String after,
+      @RequestParam(required = false) Boolean deferCount,
       @Parameter(hidden = true) Pageable pageable,
-      @Parameter(hidden = true) PagedResourcesAssembler<MapView> assembler) {
+      @Parameter(hidden = true) PagedResourcesAssembler<MapView> assembler,
+      @Parameter(hidden = true) WebRequest webRequest) {
 
     if (!webSecurity.isValidUser()) {
       throw new NoSuchUserProblem();
@@ -179,10 +203,103 @@ public class MapViewRestController {
         status, lastAuthor, lastReviewer, lastAuthorReviewer, assignedAuthor, assignedReviewer, assignedReconciler, 
         targetOutOfScope, flagged, additionalColumns);
 
-    return ResponseEntity.ok(mapViewService.getMapResults(mapId, pageable, assembler, filter));
+    final boolean columnar = accept != null && MediaType.parseMediaTypes(accept).stream()
+        .anyMatch(MediaType.valueOf(COLUMNAR_JSON)::equalsTypeAndSubtype);
+    // the two formats are different representations, so they must not share a tag
+    final String eTag = columnar ? mapViewService.getMapViewETag(mapId, "columnar") : mapViewService.getMapViewETag(mapId);
+    if (webRequest.checkNotModified(eTag)) {
+      return null;
+    }
+    final Snap2SnomedPagedModel<EntityModel<MapView>> results =
+        mapViewService.getMapResults(mapId, pageable, assembler, filter, after, Boolean.TRUE.equals(deferCount));
+    if (columnar) {
+      return ResponseEntity.ok().eTag(eTag).varyBy(HttpHeaders.ACCEPT)
+          .contentType(MediaType.valueOf(COLUMNAR_JSON))
+          .body(new MapViewColumnarPage(results));
+    }
+    return ResponseEntity.ok().eTag(eTag).varyBy(HttpHeaders.ACCEPT).body(results);
+  }
+
+  @Operation(description = "Streams every row of the flattened view of the MapRows and MapRowTargets for the specified mapId "
+      + "as newline delimited JSON, one MapView per line. Accepts the same filter and sort parameters as the paged view, "
+      + "but the rows are read from a single database cursor as they are written rather than a page at a time, and no "
+      + "total is counted. The response is compressed with zstd or gzip if the Accept-Encoding header allows.")
+  @Parameter(name = "mapId", in = ParameterIn.PATH, required = true, allowEmptyValue = false,
+      description = "Id of the map the view is to be generated for")
+  @Parameter(name = "sort", in = ParameterIn.QUERY, required = false, allowEmptyValue = false,
+      description = "Sorting criteria in the format: property(,asc|desc). Default sort order is source order. Multiple sort criteria are supported.",
+      array = @ArraySchema(schema = @Schema(type = "string")))
+  @GetMapping(path = "/{mapId}", produces = APPLICATION_NDJSON)
+  public ResponseEntity<StreamingResponseBody> getMapViewStream(
+      @PathVariable("mapId") Long mapId,
+      @RequestParam(required = false) List<String> sourceCode,
+      @RequestParam(required = false) List<String> sourceDisplay,
+      @RequestParam(required = false) Boolean noMap,
+      @RequestParam(required = false) List<String> targetCode,
+      @RequestParam(required = false) List<String> targetDisplay,
+      @RequestParam(required = false) List<MappingRelationship> relationship,
+      @RequestParam(required = false) List<MapStatus> status,
+      @RequestParam(required = false) List<String> lastAuthor,
+      @RequestParam(required = false) List<String> lastReviewer,
+      @RequestParam(required = false) List<String> lastAuthorReviewer,
+      @RequestParam(required = false) List<String> assignedAuthor,
+      @RequestParam(required = false) List<String> assignedReviewer,
+      @RequestParam(required = false) List<String> assignedReconciler,
+      @RequestParam(required = false) Boolean targetOutOfScope,
+      @RequestParam(required = false) Boolean flagged,
+      @RequestParam(required = false) List<String> additionalColumns,
+      @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+      @Parameter(hidden = true) Sort sort) {
+
+    if (!webSecurity.isValidUser()) {
+      throw new NoSuchUserProblem();
+    }
+    if (!webSecurity.isAdminUser() && !webSecurity.hasAnyProjectRoleForMapId(mapId)) {
+      throw new NotAuthorisedProblem("Not authorised to view map if the user is not admin or member of an associated project!");
+    }
+    if (!mapRepo.existsById(mapId)) {
+      throw Problem.valueOf(Status.NOT_FOUND, "No Map found with id " + mapId);
+    }
+
+    final MapViewFilter filter = mapViewService.new MapViewFilter(sourceCode, sourceDisplay, noMap, targetCode, targetDisplay, relationship,
+        status, lastAuthor, lastReviewer, lastAuthorReviewer, assignedAuthor, assignedReviewer, assignedReconciler,
+        targetOutOfScope, flagged, additionalColumns);
+
+    final ObjectWriter writer = objectMapper.writerFor(MapView.class);
+    final String encoding = exportCompression.negotiate(acceptEncoding);
+    // taken before the response is started so a refusal can still be reported, released once the stream is written
+    final ExportStreamLimiter.Permit permit = exportStreamLimiter.acquire();
+    final StreamingResponseBody body = outputStream -> {
+      try (permit) {
+        final OutputStream out = new BufferedOutputStream(
+            encoding == null ? outputStream : exportCompression.compress(outputStream, encoding));
+        try {
+          mapViewService.streamMapResults(mapId, filter, sort, mapView -> {
+            try {
+              out.write(writer.writeValueAsBytes(mapView));
+              out.write('\n');
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        }
+        // finishes the compressed stream
+        out.close();
+      }
+    };
+    final ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+        .contentType(MediaType.valueOf(APPLICATION_NDJSON))
+        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    if (encoding != null) {
+      response.header(HttpHeaders.CONTENT_ENCODING, encoding);
+    }
+    return response.body(body);
   }
 
-  @Operation(description = "Returns a flattened view of the MapRows and MapRowTargets for the specified taskId.")
+  @Operation(description = "Returns a flattened view of the MapRows and MapRowTargets for the specified taskId. "
+      + "Responses carry an ETag, a request with a matching If-None-Match header is answered with 304 Not Modified.")
   @Parameter(name = "taskId", in = ParameterIn.PATH, required = true, allowEmptyValue = false,
       description = "Id of the task the view is to be generated for, tasks are related to a map so the map id is implicitly specified.")
   @Parameter(name = "sourceCode", in = ParameterIn.QUERY, required = false, allowEmptyValue = true,
@@ -219,6 +336,12 @@ public class MapViewRestController {
       description = "Filters the results to those that are flagged or not flagged.")
   @Parameter(name = "additionalColumns", in = ParameterIn.QUERY, required = false, allowEmptyValue = true,
       description = "Filters the results to those with an additional column matching one of the specified values.")
+  @Parameter(name = "after", in = ParameterIn.QUERY, required = false, allowEmptyValue = true,
+      description = "Switches to keyset paging. Pass an empty value for the first page, then the 'after' token returned "
+          + "with each page to read the next one. The 'page' parameter is ignored in this mode.")
+  @Parameter(name = "deferCount", in = ParameterIn.QUERY, required = false, allowEmptyValue = true,
+      description = "Returns the page without waiting for the total count if it isn't already cached. The response is then "
+          + "flagged with totalDeferred and the exact count is available from the $count endpoint.")
   @Parameter(name = "page", in = ParameterIn.QUERY, required = false, allowEmptyValue = false,
       description = "Zero-based page index (0..N)")
   @Parameter(name = "size", in = ParameterIn.QUERY, required = false, allowEmptyValue = false,
@@ -245,8 +368,11 @@ public class MapViewRestController {
       @RequestParam(required = false) Boolean targetOutOfScope,      
       @RequestParam(required = false) Boolean flagged,
       @RequestParam(required = false) List<String> additionalColumns,
+      @RequestParam(required = false) String after,
+      @RequestParam(required = false) Boolean deferCount,
       @Parameter(hidden = true) Pageable pageable,
-      @Parameter(hidden = true) PagedResourcesAssembler<MapView> assembler) {
+      @Parameter(hidden = true) PagedResourcesAssembler<MapView> assembler,
+      @Parameter(hidden = true) WebRequest webRequest) {
 
     final MapViewFilter filter = mapViewService.new MapViewFilter(sourceCode, sourceDisplay, noMap, targetCode, targetDisplay, relationship,
         status, lastAuthor, lastReviewer, lastAuthorReviewer, assignedAuthor, assignedReviewer, assignedReconciler, targetOutOfScope, flagged, additionalColumns);
@@ -255,10 +381,185 @@ public class MapViewRestController {
       throw new NoSuchUserProblem();
     }
     // Associated Project role checking happens in the service
-    return ResponseEntity.ok(mapViewService.getMapResultsByTask(taskId, pageable, assembler, filter));
+    final String eTag = mapViewService.getTaskViewETag(taskId);
+    if (webRequest.checkNotModified(eTag)) {
+      return null;
+    }
+    return ResponseEntity.ok().eTag(eTag)
+        .body(mapViewService.getMapResultsByTask(taskId, pageable, assembler, filter, after, Boolean.TRUE.equals(deferCount)));
   }
 
-  @Operation(description = "Returns a flattened view of the MapRows and MapRowTargets for the specified mapId.")
+  @Operation(description = "Returns the number of rows in the flattened view of the MapRows and MapRowTargets for the specified mapId. "
+      + "Accepts the same filter parameters as /mapView/{mapId}, counts are cached until the map's rows change.")
+  @Parameter(name = "mapId", in = ParameterIn.PATH, required = true, allowEmptyValue = false,
+      description = "Id of the map the view is to be counted for")
+  @GetMapping(path = "/{mapId}/$count", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<Long> getMapViewCount(
+      @PathVariable("mapId") Long mapId,
+      @RequestParam(required = false) List<String> sourceCode,
+      @RequestParam(required = false) List<String> sourceDisplay,
+      @RequestParam(required = false) Boolean noMap,
+      @RequestParam(required = false) List<String> targetCode,
+      @RequestParam(required = false) List<String> targetDisplay,
+      @RequestParam(required = false) List<MappingRelationship> relationship,
+      @RequestParam(required = false) List<MapStatus> status,
+      @RequestParam(required = false) List<String> lastAuthor,
+      @RequestParam(required = false) List<String> lastReviewer,
+      @RequestParam(required = false) List<String> lastAuthorReviewer,
+      @RequestParam(required = false) List<String> assignedAuthor,
+      @RequestParam(required = false) List<String> assignedReviewer,
+      @RequestParam(required = false) List<String> assignedReconciler,
+      @RequestParam(required = false) Boolean targetOutOfScope,
+      @RequestParam(required = false) Boolean flagged,
+      @RequestParam(required = false) List<String> additionalColumns) {
+
+    if (!webSecurity.isValidUser()) {
+      throw new NoSuchUserProblem();
+    }
+    if (!webSecurity.isAdminUser() && !webSecurity.hasAnyProjectRoleForMapId(mapId)) {
+      throw new NotAuthorisedProblem("Not authorised to view map if the user is not admin or member of an associated project!");
+    }
+
+    final MapViewFilter filter = mapViewService.new MapViewFilter(sourceCode, sourceDisplay, noMap, targetCode, targetDisplay, relationship,
+        status, lastAuthor, lastReviewer, lastAuthorReviewer, assignedAuthor, assignedReviewer, assignedReconciler,
+        targetOutOfScope, flagged, additionalColumns);
+
+    return ResponseEntity.ok(mapViewService.getMapResultsCount(mapId, filter));
+  }
+
+  @Operation(description = "Starts a background export of the flattened view of the MapRows and MapRowTargets for the specified mapId "
+      + "as one of the download formats of /mapView/{mapId}. Accepts the same filter parameters as /mapView/{mapId}. "
+      + "Responds with 202 Accepted and the export job, whose progress can be polled at the Location of the response.")
+  @Parameter(name = "mapId", in = ParameterIn.PATH, required = true, allowEmptyValue = false,
+      description = "Id of the map to be exported")
+  @Parameter(name = "format", in = ParameterIn.QUERY, required = true, allowEmptyValue = false,
+      description = "Content type of the export, one of " + TEXT_CSV + ", " + TEXT_TSV + ", " + APPLICATION_XSLX + ", " + FHIR_JSON + " or " + RF2_ZIP)
+  @Parameter(name="extraColumns", in = ParameterIn.QUERY, required = false, allowEmptyValue = false,
+      description = "Additional columns to include. Options are ( notes | lastAuthor | lastReviewer | assignedAuthor | assignedReviewer ).")
+  @Parameter(name = "refsetType", in = ParameterIn.QUERY, required = false, allowEmptyValue = false,
+      description = "For " + RF2_ZIP + ", whether to write a SIMPLE (default) or EXTENDED map refset")
+  @Parameter(name = "refsetId", in = ParameterIn.QUERY, required = false, allowEmptyValue = false,
+      description = "For " + RF2_ZIP + ", SCTID of the map refset")
+  @Parameter(name = "moduleId", in = ParameterIn.QUERY, required = false, allowEmptyValue = false,
+      description = "For " + RF2_ZIP + ", SCTID of the module the refset members belong to")
+  @Parameter(name = "effectiveTime", in = ParameterIn.QUERY, required = false, allowEmptyValue = false,
+      description = "For " + RF2_ZIP + ", effective time of the refset members as yyyyMMdd, defaults to the date the map was last modified")
+  @PostMapping(path = "/{mapId}/$export", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<MapExportJob> createMapExportJob(
+      @PathVariable("mapId") Long mapId,
+      @RequestParam String format,
+      @RequestParam(required = false) List<String> extraColumns,
+      @RequestParam(required = false) RefsetType refsetType,
+      @RequestParam(required = false) String refsetId,
+      @RequestParam(required = false) String moduleId,
+      @RequestParam(required = false) String effectiveTime,
+      @RequestParam(required = false) List<String> sourceCode,
+      @RequestParam(required = false) List<String> sourceDisplay,
+      @RequestParam(required = false) Boolean noMap,
+      @RequestParam(required = false) List<String> targetCode,
+      @RequestParam(required = false) List<String> targetDisplay,
+      @RequestParam(required = false) List<MappingRelationship> relationship,
+      @RequestParam(required = false) List<MapStatus> status,
+      @RequestParam(required = false) List<String> lastAuthor,
+      @RequestParam(required = false) List<String> lastReviewer,
+      @RequestParam(required = false) List<String> lastAuthorReviewer,
+      @RequestParam(required = false) List<String> assignedAuthor,
+      @RequestParam(required = false) List<String> assignedReviewer,
+      @RequestParam(required = false) List<String> assignedReconciler,
+      @RequestParam(required = false) Boolean targetOutOfScope,
+      @RequestParam(required = false) Boolean flagged,
+      @RequestParam(required = false) List<String> additionalColumns) {
+
+    if (!webSecurity.isValidUser()) {
+      throw new NoSuchUserProblem();
+    }
+    if (!webSecurity.isAdminUser() && !webSecurity.hasAnyProjectRoleForMapId(mapId)) {
+      throw new NotAuthorisedProblem("Not authorised to view map if the user is not admin or member of an associated project!");
+    }
+
+    final MapViewFilter filter = mapViewService.new MapViewFilter(sourceCode, sourceDisplay, noMap, targetCode, targetDisplay, relationship,
+        status, lastAuthor, lastReviewer, lastAuthorReviewer, assignedAuthor, assignedReviewer, assignedReconciler,
+        targetOutOfScope, flagged, additionalColumns);
+
+    final Rf2RefsetWriter.Options rf2Options = RF2_ZIP.equals(format)
+        ? mapExportWriter.getRf2Options(mapId, refsetType, refsetId, moduleId, effectiveTime)
+        : null;
+    final MapExportJob job = mapExportJobService.createJob(mapId, format, extraColumns, rf2Options, filter);
+    return ResponseEntity.accepted()
+        .location(ServletUriComponentsBuilder.fromCurrentContextPath().path("/mapView/$export/{jobId}").buildAndExpand(job.getId()).toUri())
+        .body(job);
+  }
+
+  @Operation(description = "Returns the status of an export job started by /mapView/{mapId}/$export, "
+      + "including the number of rows written so far and the number of rows expected.")
+  @Parameter(name = "jobId", in = ParameterIn.PATH, required = true, allowEmptyValue = false,
+      description = "Id of the export job")
+  @GetMapping(path = "/$export/{jobId}", produces = MediaType.APPLICATION_JSON_VALUE)
+  public MapExportJob getMapExportJob(@PathVariable("jobId") String jobId) {
+    if (!webSecurity.isValidUser()) {
+      throw new NoSuchUserProblem();
+    }
+    return mapExportJobService.getJob(jobId);
+  }
+
+  @Operation(description = "Downloads the file of a completed export job. Range requests are supported so an interrupted "
+      + "download can be resumed, responds with 409 Conflict if the job hasn't completed.")
+  @Parameter(name = "jobId", in = ParameterIn.PATH, required = true, allowEmptyValue = false,
+      description = "Id of the export job")
+  @GetMapping(path = "/$export/{jobId}/file")
+  public ResponseEntity<Resource> getMapExportJobFile(@PathVariable("jobId") String jobId) {
+    if (!webSecurity.isValidUser()) {
+      throw new NoSuchUserProblem();
+    }
+    final MapExportJob job = mapExportJobService.getCompletedJob(jobId);
+
+    // the file never changes once written, so the job id is a strong validator for If-Range
+    return ResponseEntity.ok()
+        .contentType(MediaType.valueOf(job.getContentType()))
+        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + job.getFileName() + "\"")
+        .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+        .eTag("\"" + job.getId() + "\"")
+        .lastModified(job.getFinished())
+        .body(new FileSystemResource(job.getFile()));
+  }
+
+  @Operation(description = "Returns the number of rows in the flattened view of the MapRows and MapRowTargets for the specified taskId. "
+      + "Accepts the same filter parameters as /mapView/task/{taskId}, counts are cached until the map's rows change.")
+  @Parameter(name = "taskId", in = ParameterIn.PATH, required = true, allowEmptyValue = false,
+      description = "Id of the task the view is to be counted for")
+  @GetMapping(path = "/task/{taskId}/$count", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<Long> getTaskViewCount(
+      @PathVariable("taskId") Long taskId,
+      @RequestParam(required = false) List<String> sourceCode,
+      @RequestParam(required = false) List<String> sourceDisplay,
+      @RequestParam(required = false) Boolean noMap,
+      @RequestParam(required = false) List<String> targetCode,
+      @RequestParam(required = false) List<String> targetDisplay,
+      @RequestParam(required = false) List<MappingRelationship> relationship,
+      @RequestParam(required = false) List<MapStatus> status,
+      @RequestParam(required = false) List<String> lastAuthor,
+      @RequestParam(required = false) List<String> lastReviewer,
+      @RequestParam(required = false) List<String> lastAuthorReviewer,
+      @RequestParam(required = false) List<String> assignedAuthor,
+      @RequestParam(required = false) List<String> assignedReviewer,
+      @RequestParam(required = false) List<String> assignedReconciler,
+      @RequestParam(required = false) Boolean targetOutOfScope,
+      @RequestParam(required = false) Boolean flagged,
+      @RequestParam(required = false) List<String> additionalColumns) {
+
+    if (!webSecurity.isValidUser()) {
+      throw new NoSuchUserProblem();
+    }
+
+    final MapViewFilter filter = mapViewService.new MapViewFilter(sourceCode, sourceDisplay, noMap, targetCode, targetDisplay, relationship,
+        status, lastAuthor, lastReviewer, lastAuthorReviewer, assignedAuthor, assignedReviewer, assignedReconciler, targetOutOfScope, flagged, additionalColumns);
+
+    // Associated Project role checking happens in the service
+    return ResponseEntity.ok(mapViewService.getMapResultsCountByTask(taskId, filter));
+  }
+
+  @Operation(description = "Returns a flattened view of the MapRows and MapRowTargets for the specified mapId. "
+      + "The response is compressed with zstd or gzip if the Accept-Encoding header allows.")
   @Parameter(name = "page", in = ParameterIn.QUERY, required = false, allowEmptyValue = false, description = "Zero-based page index (0..N)")
   @Parameter(name = "size", in = ParameterIn.QUERY, required = false, allowEmptyValue = false,
       description = "The size of the page to be returned")
@@ -269,6 +570,7 @@ public class MapViewRestController {
       description = "Additional columns to include. Options are ( notes | lastAuthor | lastReviewer | assignedAuthor | assignedReviewer ).")
   @GetMapping(path = "/{mapId}", produces = {TEXT_CSV, TEXT_TSV})
   public void getMapViewCsv(HttpServletResponse response, @RequestHeader(name = "Accept", required = false) String contentType,
+      @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
       @PathVariable("mapId") Long mapId,
       @RequestParam(required = false) List<String> extraColumns) {
 
@@ -279,16 +581,10 @@ public class MapViewRestController {
       throw new NotAuthorisedProblem("Not authorised to view map if the user is not admin or member of an associated project!");
     }
 
-    CSVFormat format;
     switch (contentType) {
       case TEXT_CSV:
-        format = CSVFormat.DEFAULT;
-        response.setContentType(TEXT_CSV);
-        break;
-
       case TEXT_TSV:
-        format = CSVFormat.TDF;
-        response.setContentType(TEXT_TSV);
+        response.setContentType(contentType);
         break;
 
       default:
@@ -301,64 +597,15 @@ public class MapViewRestController {
         "attachment; filename=\"" + mapViewService.getFileNameForMapExport(mapId, contentType)
             + "\"");
 
-    try (BufferedWriter writer = new BufferedWriter(
-        new OutputStreamWriter(response.getOutputStream()));
-
-        CSVPrinter csvPrinter = new CSVPrinter(writer,
-            format.builder().setHeader(mapViewService.getExportHeader(mapId, extraColumns)).build());) {
-      
-      for (final MapView mapView : mapViewService.getAllMapViewForMap(mapId)) {
-
-        ArrayList<Object> printRow = new ArrayList<Object>(Arrays.asList(mapView.getSourceCode(), mapView.getSourceDisplay()));
-
-        // additional source columns
-        if (mapView.getAdditionalColumns() != null) {
-            if (mapView.getAdditionalColumns().size() > 0) {
-                for (int i = 0; i < mapView.getAdditionalColumns().size(); i++) {
-                    final AdditionalCodeValue additionalColumn = mapView.getAdditionalColumns().get(i);
-                    printRow.add(additionalColumn.getValue());
-                }
-            }
-        }
-
-        printRow.addAll(Arrays.asList(mapView.getTargetCode(), mapView.getTargetDisplay(),
-            mapView.getRelationship(), mapView.getRelationship() == null ? "" : mapView.getRelationship().getLabel(),
-            mapView.getNoMap() == null ? "" : mapView.getNoMap(),
-            mapView.getStatus()));
-
-        if (extraColumns != null && extraColumns.size() > 0) {
-            for (String extraColumn : extraColumns) {
-                switch (extraColumn.toUpperCase()) {
-                    case "NOTES":
-                        printRow.add(mapView.getAppendedNotes());
-                        break;
-                    case "ASSIGNEDAUTHOR":
-                        printRow.add(mapView.getAssignedAuthor() == null ? "" : mapView.getAssignedAuthor()
-                            .stream()
-                            .map(author -> author.getFullName())
-                            .collect(Collectors.joining(",")));
-                        break;
-                    case "ASSIGNEDREVIEWER":
-                        printRow.add(mapView.getAssignedReviewer() == null ? "" : mapView.getAssignedReviewer().getFullName());
-                        break;
-                    case "LASTAUTHOR":
-                        printRow.add(mapView.getLastAuthor() == null ? "" : mapView.getLastAuthor().getFullName());
-                        break;
-                    case "LASTREVIEWER":
-                        printRow.add(mapView.getLastReviewer() == null ? "" : mapView.getLastReviewer().getFullName());
-                        break;
-                }
-            }
-        }
-        csvPrinter.printRecord(printRow);
-      }
-      csvPrinter.flush();
-      writer.flush();
+    try (ExportStreamLimiter.Permit permit = exportStreamLimiter.acquire();
+        OutputStream out = exportCompression.getOutputStream(response, acceptEncoding)) {
+      mapExportWriter.write(mapId, contentType, extraColumns, null, null, out, null);
     } catch (final IOException e) {
       throw Problem.builder().withDetail("IO error exporting").build();
     }
   }
 
+
   @Operation(description = "Returns a flattened view of the MapRows and MapRowTargets for the specified mapId.")
   @Parameter(name = "page", in = ParameterIn.QUERY, required = false, allowEmptyValue = false, description = "Zero-based page index (0..N)")
   @Parameter(name = "size", in = ParameterIn.QUERY, required = false, allowEmptyValue = false,
@@ -383,103 +630,13 @@ public class MapViewRestController {
     response.setHeader("Content-Disposition",
         "attachment; filename=\"" + mapViewService.getFileNameForMapExport(mapId, APPLICATION_XSLX) + "\"");
 
-    final List<MapView> mapViewResult = mapViewService.getAllMapViewForMap(mapId);
-
-    try (SXSSFWorkbook wb = new SXSSFWorkbook(10000)) {
-
-      final SXSSFSheet sh = wb.createSheet();
-      final SXSSFRow header = sh.createRow(0);
-
-      final String[] exportHeader = mapViewService.getExportHeader(mapId, extraColumns);
-
-      for (int cellNum = 0; cellNum < exportHeader.length; cellNum++) {
-        final SXSSFCell cell = header.createCell(cellNum);
-        cell.setCellValue(exportHeader[cellNum]);
-      }
-
-      for (int rownum = 1; rownum <= mapViewResult.size(); rownum++) {
-        final MapView mapView = mapViewResult.get(rownum - 1);
-
-        final SXSSFRow row = sh.createRow(rownum);
-
-        SXSSFCell cell = row.createCell(0);
-        cell.setCellValue(mapView.getSourceCode());
-
-        cell = row.createCell(1);
-        cell.setCellValue(mapView.getSourceDisplay());
-
-        int cellCount = 2;
-        // additional source columns
-        if (mapView.getAdditionalColumns() != null) {
-            for (int i = 0; i < mapView.getAdditionalColumns().size(); i++) {
-                cell = row.createCell(cellCount);
-                final AdditionalCodeValue additionalColumn = mapView.getAdditionalColumns().get(i);
-                cell.setCellValue(additionalColumn.getValue());
-                cellCount++;
-            }
-        }
-
-        cell = row.createCell(cellCount);
-        cell.setCellValue(mapView.getTargetCode());
-        cellCount++;
-
-        cell = row.createCell(cellCount);
-        cell.setCellValue(mapView.getTargetDisplay());
-        cellCount++;
-
-        cell = row.createCell(cellCount);
-        cell.setCellValue(mapView.getRelationship() == null ? "" : mapView.getRelationship().toString());
-        cellCount++;
-
-        cell = row.createCell(cellCount);
-        cell.setCellValue(mapView.getRelationship() == null ? "" : mapView.getRelationship().getLabel());
-        cellCount++;
-
-        cell = row.createCell(cellCount);
-        if (mapView.getNoMap() != null) {
-          cell.setCellValue(mapView.getNoMap());
-        }
-        cellCount++;
-
-        cell = row.createCell(cellCount);
-        cell.setCellValue(mapView.getStatus() == null ? "" : mapView.getStatus().toString());
-        cellCount++;
-
-        if (extraColumns != null && extraColumns.size() > 0) {
-            for (String extraColumn : extraColumns) {
-                cell = row.createCell(cellCount);
-                switch (extraColumn.toUpperCase()) {
-                    case "NOTES":
-                        cell.setCellValue(mapView.getAppendedNotes());
-                        break;
-                    case "ASSIGNEDAUTHOR":
-                        cell.setCellValue(mapView.getAssignedAuthor() == null ? "" : mapView.getAssignedAuthor()
-                            .stream()
-                            .map(author -> author.getFullName())
-                            .collect(Collectors.joining(",")));
-                        break;
-                    case "ASSIGNEDREVIEWER":
-                        cell.setCellValue(mapView.getAssignedReviewer() == null ? "" : mapView.getAssignedReviewer().getFullName());
-                        break;
-                    case "LASTAUTHOR":
-                        cell.setCellValue(mapView.getLastAuthor() == null ? "" : mapView.getLastAuthor().getFullName());
-                        break;
-                    case "LASTREVIEWER":
-                        cell.setCellValue(mapView.getLastReviewer() == null ? "" : mapView.getLastReviewer().getFullName());
-                        break;
-                }
-                cellCount++;
-            }
-        }
-
-      }
-      wb.write(response.getOutputStream());
-
-      wb.dispose();
+    try (ExportStreamLimiter.Permit permit = exportStreamLimiter.acquire()) {
+      mapExportWriter.write(mapId, APPLICATION_XSLX, extraColumns, null, null, response.getOutputStream(), null);
     }
   }
 
-  @Operation(description = "Returns a flattened view of the MapRows and MapRowTargets for the specified mapId.")
+  @Operation(description = "Returns a flattened view of the MapRows and MapRowTargets for the specified mapId. "
+      + "The response is compressed with zstd or gzip if the Accept-Encoding header allows.")
   @Parameter(name = "page", in = ParameterIn.QUERY, required = false, allowEmptyValue = false, description = "Zero-based page index (0..N)")
   @Parameter(name = "size", in = ParameterIn.QUERY, required = false, allowEmptyValue = false,
       description = "The size of the page to be returned")
@@ -488,6 +645,7 @@ public class MapViewRestController {
       array = @ArraySchema(schema = @Schema(type = "string")))
   @GetMapping(path = "/{mapId}", produces = {FHIR_JSON})
   public void getMapViewConceptMapJson(HttpServletResponse response, @RequestHeader(name = "Accept", required = false) String contentType,
+          @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
           @PathVariable("mapId") Long mapId) {
 
       if (!webSecurity.isValidUser()) {
@@ -503,99 +661,55 @@ public class MapViewRestController {
               + "\"");
 
 
-      final ConceptMap cm = convertToConceptMap(mapId);
-
-      try (final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream()))) {
-          final IParser parser = terminology.getFhirContext().newJsonParser();
-          parser.encodeResourceToWriter(cm, writer);
-          writer.flush();
+      try (ExportStreamLimiter.Permit permit = exportStreamLimiter.acquire();
+          OutputStream out = exportCompression.getOutputStream(response, acceptEncoding)) {
+          mapExportWriter.write(mapId, FHIR_JSON, null, null, null, out, null);
       } catch (final IOException e) {
           throw Problem.builder().withDetail("IO error exporting").build();
       }
   }
 
-  @Autowired
-  private MapRepository mapRepo;
+  @Operation(description = "Returns the MapRows and MapRowTargets for the specified mapId as an RF2 map refset snapshot in a zip. "
+      + "Each mapped row becomes a member referring to the target concept with the source code as its map target, "
+      + "in refset order. Only rows that are MAPPED, INREVIEW or ACCEPTED are exported, rows without a target are left out.")
+  @Parameter(name = "mapId", in = ParameterIn.PATH, required = true, allowEmptyValue = false,
+      description = "Id of the map to be exported")
+  @Parameter(name = "refsetType", in = ParameterIn.QUERY, required = false, allowEmptyValue = false,
+      description = "Whether to write a SIMPLE (default) or EXTENDED map refset")
+  @Parameter(name = "refsetId", in = ParameterIn.QUERY, required = true, allowEmptyValue = false,
+      description = "SCTID of the map refset")
+  @Parameter(name = "moduleId", in = ParameterIn.QUERY, required = true, allowEmptyValue = false,
+      description = "SCTID of the module the refset members belong to")
+  @Parameter(name = "effectiveTime", in = ParameterIn.QUERY, required = false, allowEmptyValue = false,
+      description = "Effective time of the refset members as yyyyMMdd, defaults to the date the map was last modified")
+  @GetMapping(path = "/{mapId}", produces = RF2_ZIP)
+  public void getMapViewRf2(HttpServletResponse response,
+      @PathVariable("mapId") Long mapId,
+      @RequestParam(required = false) RefsetType refsetType,
+      @RequestParam String refsetId,
+      @RequestParam String moduleId,
+      @RequestParam(required = false) String effectiveTime) throws IOException {
+    if (!webSecurity.isValidUser()) {
+      throw new NoSuchUserProblem();
+    }
+    if (!webSecurity.isAdminUser() && !webSecurity.hasAnyProjectRoleForMapId(mapId)) {
+      throw new NotAuthorisedProblem("Not authorised to view map if the user is not admin or member of an associated project!");
+    }
 
-  private ConceptMap convertToConceptMap(Long mapId) {
-      final Map<Long, SourceElementComponent> mapEntry = new HashMap<>();
-      final ConceptMap cm = new ConceptMap();
-      final ConceptMapGroupComponent group = cm.addGroup();
-
-      mapRepo.findById(mapId).ifPresent(map -> {
-          final Project project = map.getProject();
-          final String title = project.getTitle();
-          cm.setStatus(PublicationStatus.UNKNOWN);
-          cm.setDate(Date.from(map.getModified()));
-          cm.setTitle(title);
-          cm.setName(title.replaceAll("[^\\w\\d]", "_"));
-          cm.setDescription(project.getDescription());
-          cm.setVersion(map.getMapVersion());
-
-          final ImportedCodeSet source = map.getSource();
-          String valuesetUri = source.getValuesetUri();
-          if (null != valuesetUri) {
-              cm.setSource(new UriType(valuesetUri));
-          }
-
-          final String ecl = map.getToScope();
-          cm.setTarget(new UriType(FhirService.DEFAULT_CODE_SYSTEM + "?fhir_vs=ecl/" + ecl));
-
-          String systemUri = source.getSystemUri();
-          if (null != systemUri) {
-              group.setSource(systemUri);
-          }
-          group.setSourceVersion(source.getVersion());
-          group.setTarget(FhirService.DEFAULT_CODE_SYSTEM);
-          group.setTargetVersion(map.getToVersion());
-      });
-
-
-      for (final MapView mapView : mapViewService.getAllMapViewForMap(mapId)) {
-          final Long key = mapView.getSourceIndex();
-          final SourceElementComponent src;
-          if (!mapEntry.containsKey(key)) {
-              src = group.addElement();
-              src.setCode(mapView.getSourceCode());
-              src.setDisplay(mapView.getSourceDisplay());
-
-              mapEntry.put(key, src);
-          } else {
-              src = mapEntry.get(key);
-          }
-
-          final TargetElementComponent tgt = src.addTarget();
-          if (null != mapView.getNoMap() && mapView.getNoMap()) {
-              tgt.setEquivalence(ConceptMapEquivalence.UNMATCHED);
-          } else {
-              tgt.setCode(mapView.getTargetCode());
-              tgt.setDisplay(mapView.getTargetDisplay());
-              if (null != mapView.getRelationship()) {
-                  switch (mapView.getRelationship()) {
-                  case TARGET_EQUIVALENT:
-                      tgt.setEquivalence(ConceptMapEquivalence.EQUIVALENT);
-                      break;
-                  case TARGET_BROADER:
-                      tgt.setEquivalence(ConceptMapEquivalence.WIDER);
-                      break;
-                  case TARGET_NARROWER:
-                      tgt.setEquivalence(ConceptMapEquivalence.NARROWER);
-                      break;
-                  case TARGET_INEXACT:
-                      tgt.setEquivalence(ConceptMapEquivalence.RELATEDTO);
-                      break;
-                  }
-              }
-
-              if (mapView.getNoMap()) {
-                  tgt.setEquivalence(ConceptMapEquivalence.UNMATCHED);
-              }
-
-          }
-      }
-      return cm;
+    final Rf2RefsetWriter.Options options = mapExportWriter.getRf2Options(mapId, refsetType, refsetId, moduleId, effectiveTime);
+
+    response.setContentType(RF2_ZIP);
+    response.setHeader("Content-Disposition",
+        "attachment; filename=\"" + mapViewService.getFileNameForMapExport(mapId, RF2_ZIP) + "\"");
+
+    try (ExportStreamLimiter.Permit permit = exportStreamLimiter.acquire()) {
+      mapExportWriter.write(mapId, RF2_ZIP, null, options, null, response.getOutputStream(), null);
+    }
   }
 
+  @Autowired
+  private MapRepository mapRepo;
+
   @Operation(description = "Returns a flattened view of the MapRow and MapRowTargets for sibling of the specified mapRow.")
   @Parameter(name = "mapId", in = ParameterIn.PATH, required = true, allowEmptyValue = false,
   description = "Id of the map the view is to be generated for")
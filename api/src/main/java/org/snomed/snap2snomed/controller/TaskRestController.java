@@ -37,6 +37,8 @@ import org.snomed.snap2snomed.repository.MapRowRepository;
 import org.snomed.snap2snomed.repository.TaskRepository;
 import org.snomed.snap2snomed.security.AuthenticationFacade;
 import org.snomed.snap2snomed.security.WebSecurity;
+import org.snomed.snap2snomed.service.MapChangeTracker;
+import org.snomed.snap2snomed.service.MapViewMaterializer;
 import org.snomed.snap2snomed.util.EntityUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -68,6 +70,12 @@ public class TaskRestController {
   @Autowired
   WebSecurity webSecurity;    
 
+  @Autowired
+  private MapChangeTracker mapChangeTracker;
+
+  @Autowired
+  private MapViewMaterializer mapViewMaterializer;
+
   @Operation(description = "Returns flattened set of MapRow id, sourceDisplay pairs for automapping")
   @GetMapping(path = "/task/{id}/automapRows", produces = MediaType.APPLICATION_JSON_VALUE)
   public ResponseEntity<Collection<AutomapRowDto>> getMapView(@PathVariable(required = true) Long id) {
@@ -110,6 +118,8 @@ public class TaskRestController {
     } else if (task.getType().equals(TaskType.RECONCILE)) {
       mapRowRepository.setReconcileTaskToNull(task, modified, principalSubject);
     }    
+    mapChangeTracker.mapChanged(task.getMap().getId());
+    mapViewMaterializer.mapChanged(task.getMap().getId());
     taskRepository.delete(task);
   }
 
@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.snomed.snap2snomed.controller.dto;
+
+import java.util.List;
+
+import org.snomed.snap2snomed.model.enumeration.MapStatus;
+import org.snomed.snap2snomed.model.enumeration.MappingRelationship;
+
+import lombok.Data;
+
+/**
+ * A row of a map export. Unlike MapView users are held as their full names and notes already appended, so exports can
+ * be written from plain query results.
+ */
+@Data
+public class MapExportRow {
+
+  private Long rowId;
+
+  private Long sourceIndex;
+
+  private String sourceCode;
+
+  private String sourceDisplay;
+
+  private List<String> additionalColumns;
+
+  private String targetCode;
+
+  private String targetDisplay;
+
+  private MappingRelationship relationship;
+
+  private Boolean noMap;
+
+  private MapStatus status;
+
+  private String appendedNotes;
+
+  private String assignedAuthor;
+
+  private String assignedReviewer;
+
+  private String lastAuthor;
+
+  private String lastReviewer;
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.snomed.snap2snomed.controller.dto;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.snomed.snap2snomed.model.AdditionalCodeColumn;
+import org.snomed.snap2snomed.model.AdditionalCodeValue;
+import org.snomed.snap2snomed.model.MapView;
+import org.snomed.snap2snomed.model.User;
+import org.snomed.snap2snomed.model.enumeration.MapStatus;
+import org.snomed.snap2snomed.model.enumeration.MappingRelationship;
+import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.PagedModel.PageMetadata;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+import lombok.Data;
+
+/**
+ * Compact form of a map view page. Rather than an object per row, each MapView field is an array with a value per
+ * row, users, statuses and relationships are listed once and referred to by their index in those lists, and there are
+ * no per row links. sourceDetails is left out as it repeats the rowId, sourceIndex and targetId columns, and the
+ * additionalColumns of each MapView are the additionalColumnValues columns.
+ */
+@Data
+public class MapViewColumnarPage {
+
+  private PageMetadata page;
+  private String after;
+  private boolean totalDeferred;
+  private List<AdditionalCodeColumn> additionalColumns;
+
+  private List<User> users = new ArrayList<>();
+  private List<MapStatus> statuses = List.of(MapStatus.values());
+  private List<MappingRelationship> relationships = List.of(MappingRelationship.values());
+
+  private List<Long> rowId = new ArrayList<>();
+  private List<Long> sourceId = new ArrayList<>();
+  private List<Long> sourceIndex = new ArrayList<>();
+  private List<String> sourceCode = new ArrayList<>();
+  private List<String> sourceDisplay = new ArrayList<>();
+  private List<Boolean> noMap = new ArrayList<>();
+  private List<Long> targetId = new ArrayList<>();
+  private List<String> targetCode = new ArrayList<>();
+  private List<String> targetDisplay = new ArrayList<>();
+  /** Index into relationships */
+  private List<Integer> relationship = new ArrayList<>();
+  /** Index into statuses */
+  private List<Integer> status = new ArrayList<>();
+  @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss.SSXXX", timezone = "UTC")
+  private List<Instant> latestNote = new ArrayList<>();
+  private List<String> appendedNotes = new ArrayList<>();
+  /** Indexes into users */
+  private List<List<Integer>> assignedAuthor = new ArrayList<>();
+  private List<Integer> assignedReviewer = new ArrayList<>();
+  private List<Integer> assignedReconciler = new ArrayList<>();
+  private List<Integer> lastAuthor = new ArrayList<>();
+  private List<Integer> lastReviewer = new ArrayList<>();
+  private List<Boolean> flagged = new ArrayList<>();
+  private List<Set<String>> targetTags = new ArrayList<>();
+  /** A column per additional column of the map's source, each with a value per row */
+  private List<List<String>> additionalColumnValues = new ArrayList<>();
+
+  public MapViewColumnarPage(Snap2SnomedPagedModel<EntityModel<MapView>> pagedModel) {
+    this.page = pagedModel.getPage();
+    this.after = pagedModel.getAfter();
+    this.totalDeferred = pagedModel.isTotalDeferred();
+    this.additionalColumns = pagedModel.getAdditionalColumns();
+    final int additionalColumnCount = additionalColumns == null ? 0 : additionalColumns.size();
+    for (int i = 0; i < additionalColumnCount; i++) {
+      additionalColumnValues.add(new ArrayList<>());
+    }
+
+    final LinkedHashMap<String, Integer> userIndexes = new LinkedHashMap<>();
+    for (final EntityModel<MapView> model : pagedModel.getContent()) {
+      final MapView view = model.getContent();
+      rowId.add(view.getRowId());
+      sourceId.add(view.getSourceId());
+      sourceIndex.add(view.getSourceIndex());
+      sourceCode.add(view.getSourceCode());
+      sourceDisplay.add(view.getSourceDisplay());
+      noMap.add(view.getNoMap());
+      targetId.add(view.getTargetId());
+      targetCode.add(view.getTargetCode());
+      targetDisplay.add(view.getTargetDisplay());
+      relationship.add(view.getRelationship() == null ? null : view.getRelationship().ordinal());
+      status.add(view.getStatus() == null ? null : view.getStatus().ordinal());
+      latestNote.add(view.getLatestNote());
+      appendedNotes.add(view.getAppendedNotes());
+      assignedAuthor.add(view.getAssignedAuthor() == null ? null
+          : view.getAssignedAuthor().stream().map(user -> getUserIndex(user, userIndexes)).collect(Collectors.toList()));
+      assignedReviewer.add(getUserIndex(view.getAssignedReviewer(), userIndexes));
+      assignedReconciler.add(getUserIndex(view.getAssignedReconciler(), userIndexes));
+      lastAuthor.add(getUserIndex(view.getLastAuthor(), userIndexes));
+      lastReviewer.add(getUserIndex(view.getLastReviewer(), userIndexes));
+      flagged.add(view.isFlagged());
+      targetTags.add(view.getTargetTags() == null || view.getTargetTags().isEmpty() ? null : view.getTargetTags());
+
+      final List<AdditionalCodeValue> values = view.getAdditionalColumns();
+      for (int i = 0; i < additionalColumnCount; i++) {
+        additionalColumnValues.get(i).add(values != null && i < values.size() ? values.get(i).getValue() : null);
+      }
+    }
+  }
+
+  private Integer getUserIndex(User user, LinkedHashMap<String, Integer> userIndexes) {
+    if (user == null) {
+      return null;
+    }
+    return userIndexes.computeIfAbsent(user.getId(), id -> {
+      users.add(user);
+      return users.size() - 1;
+    });
+  }
+}
@@ -34,6 +34,10 @@ public class Snap2SnomedPagedModel<T> {
   private Collection<T> content;
   private PageMetadata page;
   private List<AdditionalCodeColumn> additionalColumns;
+  /** Keyset paging token for the page following this one, null when not keyset paging or on the last page */
+  private String after;
+  /** True if the count was deferred, page.totalElements is then only a lower bound */
+  private boolean totalDeferred;
 
   public Snap2SnomedPagedModel(PagedModel<T> pagedModel, List<MappedRowDetailsDto> sourceDetails, List<AdditionalCodeColumn> additionalColumns) {
     this.page = pagedModel.getMetadata();
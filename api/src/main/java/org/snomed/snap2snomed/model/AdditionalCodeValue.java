@@ -16,23 +16,69 @@
 
 package org.snomed.snap2snomed.model;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.persistence.Column;
 import javax.persistence.Embeddable;
 import javax.validation.constraints.NotNull;
 
 import org.springframework.data.annotation.ReadOnlyProperty;
 
-import lombok.AllArgsConstructor;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
 @Embeddable
-@AllArgsConstructor
 @NoArgsConstructor
 @Data
 public class AdditionalCodeValue {
 
+    /** Leading whitespace and the longest number at the start of a value, which is what MySQL reads as its number */
+    private static final Pattern NUMBER_PREFIX = Pattern.compile("\\s*([-+]?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?)");
+
     @NotNull
     @ReadOnlyProperty
     private String value;
 
+    /**
+     * The value as a number, stored with it so NUMBER columns can be sorted without casting each row's value.
+     */
+    @Column(name = "number_value")
+    @JsonIgnore
+    @ReadOnlyProperty
+    private Double numberValue;
+
+    public AdditionalCodeValue(String value) {
+        setValue(value);
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+        this.numberValue = toNumber(value);
+    }
+
+    /**
+     * Numeric value of a column value, read as MySQL reads a string as a number when it is CAST, which is how NUMBER
+     * columns used to be sorted. The number at the start of the value is taken and the rest ignored, so "12 mg" is 12
+     * and "1,000" is 1, and values not starting with a number are 0. The migration that populated number_value for
+     * existing values uses the same rule.
+     */
+    public static Double toNumber(String value) {
+        if (value == null) {
+            return null;
+        }
+        final Matcher matcher = NUMBER_PREFIX.matcher(value);
+        if (!matcher.lookingAt()) {
+            return 0d;
+        }
+        final double number = Double.parseDouble(matcher.group(1));
+        // MySQL caps values out of range at the largest double
+        if (Double.isInfinite(number)) {
+            return number > 0 ? Double.MAX_VALUE : -Double.MAX_VALUE;
+        }
+        return number;
+    }
+
 }
\ No newline at end of file
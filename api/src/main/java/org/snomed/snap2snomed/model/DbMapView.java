@@ -6,11 +6,7 @@ import org.snomed.snap2snomed.model.enumeration.MapStatus;
 import javax.persistence.Column;
 import javax.persistence.ColumnResult;
 import javax.persistence.Entity;
-import javax.persistence.EntityResult;
 import javax.persistence.FetchType;
-import javax.persistence.FieldResult;
-import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.OneToOne;
@@ -21,44 +17,29 @@ import java.time.Instant;
 
 @Entity
 @Immutable
-@Table(name = "map_view")
+@Table(name = "map_view_materialized")
 @SqlResultSetMapping(
   name="DualMapViewResult",
-        entities = {
-          @EntityResult(
-                entityClass = MapRow.class,
-                fields = {
-                    @FieldResult(name = "id", column = "col_0_0_"),
-                  }),
-          @EntityResult(
-                entityClass = MapRowTarget.class,
-                fields = {
-                    @FieldResult(name = "id", column = "col_1_0_")
-                  }),
-          @EntityResult(
-                entityClass = Task.class,
-                fields = {
-                    @FieldResult(name = "id", column = "col_4_0_")
-                  }),
-        },
         columns = {
+          @ColumnResult(name = "col_0_0_", type = Long.class), // map row id
+          @ColumnResult(name = "col_1_0_", type = Long.class), // map row target id
           @ColumnResult(name = "col_2_0_", type = Instant.class), // latest note
-          @ColumnResult(name = "col_3_0_", type = Integer.class) // map_view.status  .. needs to be converted to an enum
+          @ColumnResult(name = "col_3_0_", type = Integer.class), // map_view.status  .. needs to be converted to an enum
+          @ColumnResult(name = "col_4_0_", type = Long.class) // sibling row author task id
         } 
 )
 
 public class DbMapView implements Serializable {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
-    private Long id;
-
-    @Column
-    private String mapRowId;
+    private Long mapRowId;
 
     @Column 
     private Long mapId;
 
+    @Column
+    private Long sourceCodeId;
+
     @Column
     private MapStatus status;
 
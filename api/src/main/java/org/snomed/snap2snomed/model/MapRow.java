@@ -47,13 +47,16 @@ import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 import lombok.ToString.Exclude;
 import org.hibernate.envers.Audited;
+import org.hibernate.envers.NotAudited;
 import org.snomed.snap2snomed.model.enumeration.MapStatus;
 import org.snomed.snap2snomed.model.enumeration.NoteCategory;
 import org.snomed.snap2snomed.problem.mapping.InvalidStateTransitionProblem;
+import org.snomed.snap2snomed.repository.handler.MapChangeListener;
 import org.springframework.data.annotation.CreatedBy;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.LastModifiedBy;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.annotation.ReadOnlyProperty;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 import org.springframework.data.rest.core.config.Projection;
 
@@ -63,7 +66,7 @@ import org.springframework.data.rest.core.config.Projection;
 @AllArgsConstructor
 @NoArgsConstructor
 @Audited
-@EntityListeners(AuditingEntityListener.class)
+@EntityListeners({AuditingEntityListener.class, MapChangeListener.class})
 //TODO get this working + unique
 // @Table(name = "map_row", uniqueConstraints = {
 //     @UniqueConstraint(name = "UniqueIdAndMasterMapRowId", columnNames = {"map_id", "master_map_row_id"})})
@@ -142,6 +145,15 @@ public class MapRow implements Snap2SnomedEntity, Serializable {
   @NotNull
   private Boolean blindMapFlag;
 
+  /**
+   * Modified time of the row's latest non deleted user note, saving a note subquery per row in the map view. Only
+   * written by MapRowRepository.updateLatestUserNote.
+   */
+  @Column(name = "latest_user_note_at", insertable = false, updatable = false)
+  @NotAudited
+  @ReadOnlyProperty
+  private Instant latestUserNoteAt;
+
   @Projection(name = "withLatestNote", types = {MapRow.class})
   public interface MapRowWithLatestNote {
 
@@ -40,6 +40,7 @@ import lombok.NoArgsConstructor;
 import org.hibernate.envers.Audited;
 import org.snomed.snap2snomed.model.enumeration.MappingRelationship;
 import org.snomed.snap2snomed.model.enumeration.TaskType;
+import org.snomed.snap2snomed.repository.handler.MapChangeListener;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.annotation.CreatedBy;
 import org.springframework.data.annotation.CreatedDate;
@@ -54,7 +55,7 @@ import org.springframework.data.rest.core.config.Projection;
 @AllArgsConstructor
 @NoArgsConstructor
 @Audited
-@EntityListeners(AuditingEntityListener.class)
+@EntityListeners({AuditingEntityListener.class, MapChangeListener.class})
 @Table(name = "map_row_target")
 public class MapRowTarget implements Snap2SnomedEntity, java.lang.Comparable<MapRowTarget> {
     @Column(name = "created", nullable = false, updatable = false)
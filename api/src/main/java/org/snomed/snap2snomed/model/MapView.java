@@ -43,6 +43,22 @@ import lombok.AllArgsConstructor;
  @NoArgsConstructor
  public class MapView {
  
+  /**
+   * Constructor for the flat projection read by the map view page queries, the remaining fields are filled in by
+   * MapViewPageLoader
+   */
+  public MapView(Long rowId, Long targetId, Instant latestNote) {
+    this.rowId = rowId;
+    this.targetId = targetId;
+    this.latestNote = latestNote;
+  }
+
+  /** Flat projection constructor for the dual map view, status is the blended status of the dual map rows */
+  public MapView(Long rowId, Long targetId, Instant latestNote, MapStatus status) {
+    this(rowId, targetId, latestNote);
+    this.status = status;
+  }
+
   /** Constructor for single map mode */
   public MapView(MapRow row, MapRowTarget target, Instant latestNote) {
     this.rowId = row.getId();
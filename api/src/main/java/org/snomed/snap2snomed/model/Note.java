@@ -35,6 +35,7 @@ import lombok.NoArgsConstructor;
 import org.apache.commons.lang3.builder.CompareToBuilder;
 import org.hibernate.envers.Audited;
 import org.snomed.snap2snomed.model.enumeration.NoteCategory;
+import org.snomed.snap2snomed.repository.handler.MapChangeListener;
 import org.springframework.data.annotation.CreatedBy;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.LastModifiedBy;
@@ -51,7 +52,7 @@ import com.fasterxml.jackson.annotation.JsonFormat;
 @AllArgsConstructor
 @NoArgsConstructor
 @Audited
-@EntityListeners(AuditingEntityListener.class)
+@EntityListeners({AuditingEntityListener.class, MapChangeListener.class})
 @Table(name = "note")
 public class Note implements Comparable<Note>, Snap2SnomedEntity {
     @Column(name = "created", nullable = false, updatable = false)
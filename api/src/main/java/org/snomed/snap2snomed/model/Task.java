@@ -37,6 +37,7 @@ import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.hibernate.envers.Audited;
 import org.snomed.snap2snomed.model.enumeration.TaskType;
+import org.snomed.snap2snomed.repository.handler.MapChangeListener;
 import org.snomed.snap2snomed.util.SourceRowSpecificationUtils;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.annotation.CreatedBy;
@@ -53,7 +54,7 @@ import org.springframework.data.rest.core.config.Projection;
 @Data
 @Builder
 @Audited
-@EntityListeners(AuditingEntityListener.class)
+@EntityListeners({AuditingEntityListener.class, MapChangeListener.class})
 @Table(name = "task")
 @Slf4j
 public class Task implements Snap2SnomedEntity {
@@ -1,12 +1,53 @@
 package org.snomed.snap2snomed.repository;
 
 import org.snomed.snap2snomed.model.DbMapView;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.rest.core.annotation.RestResource;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
 @Repository
 @Transactional
-public interface DbMapViewRepository extends PagingAndSortingRepository<DbMapView, String> {
+public interface DbMapViewRepository extends PagingAndSortingRepository<DbMapView, Long> {
 
-}
\ No newline at end of file
+  /*
+   * The insert queries below are the two halves of the original map_view view - non blind rows carry their own status,
+   * the first row of each blind pair carries the blended status of both rows and the author task of its sibling.
+   * Rows are only materialized for maps in dual map mode projects.
+   */
+  String MATERIALIZE_COLUMNS = "insert ignore into map_view_materialized "
+      + "(map_row_id, map_id, source_code_id, status, blind_map_flag, sibling_row_author_task_id) ";
+
+  String MATERIALIZE_NON_BLIND = "select mr.id, mr.map_id, mr.source_code_id, mr.status, mr.blind_map_flag, null "
+      + "from map_row mr join map m on m.id = mr.map_id join project p on p.id = m.project_id "
+      + "where mr.map_id = :mapId and mr.blind_map_flag = false and p.dual_map_mode = 1 ";
+
+  String MATERIALIZE_BLIND = "select mr1.id, mr1.map_id, mr1.source_code_id, "
+      + "(case when mr1.status != mr2.status then 1 else mr1.status end), mr1.blind_map_flag, mr2.author_task_id "
+      + "from map_row mr1 join map_row mr2 on mr1.map_id = mr2.map_id and mr1.source_code_id = mr2.source_code_id and mr1.id < mr2.id "
+      + "join map m on m.id = mr1.map_id join project p on p.id = m.project_id "
+      + "where mr1.map_id = :mapId and mr1.blind_map_flag = true and p.dual_map_mode = 1 ";
+
+  @Query(value = "delete from map_view_materialized where map_id = :mapId", nativeQuery = true)
+  @Modifying
+  @RestResource(exported = false)
+  int deleteByMapId(Long mapId);
+
+  @Query(value = MATERIALIZE_COLUMNS + MATERIALIZE_NON_BLIND + "union all " + MATERIALIZE_BLIND, nativeQuery = true)
+  @Modifying
+  @RestResource(exported = false)
+  int materializeMap(Long mapId);
+
+  @Query(value = "delete from map_view_materialized where map_id = :mapId and source_code_id = :sourceCodeId", nativeQuery = true)
+  @Modifying
+  @RestResource(exported = false)
+  int deleteBySourceCode(Long mapId, Long sourceCodeId);
+
+  @Query(value = MATERIALIZE_COLUMNS + MATERIALIZE_NON_BLIND + "and mr.source_code_id = :sourceCodeId union all "
+      + MATERIALIZE_BLIND + "and mr1.source_code_id = :sourceCodeId", nativeQuery = true)
+  @Modifying
+  @RestResource(exported = false)
+  int materializeSourceCode(Long mapId, Long sourceCodeId);
+}
@@ -201,6 +201,17 @@ public interface MapRowRepository
   @RestResource(exported = false)
   void setReconcileTaskToNull(Task task, Instant date, String user);
 
+  /**
+   * Recalculates map_row.latest_user_note_at from the row's notes, to be called whenever a note is created, edited,
+   * deleted or moved to another row. Category 0 is NoteCategory.USER.
+   */
+  @Query(value = "update map_row set latest_user_note_at = "
+      + " (select max(n.modified) from note n where n.maprow_id = :rowId and n.category = 0 and n.deleted = false) "
+      + " where id = :rowId", nativeQuery = true)
+  @Modifying(flushAutomatically = true)
+  @RestResource(exported = false)
+  void updateLatestUserNote(Long rowId);
+
   @Query("select distinct mr.sourceCode.index from MapRow mr "
       + "where mr.reconcileTask = :task or mr.reviewTask = :task or mr.authorTask = :task order by mr.sourceCode.index asc")
   @RestResource(exported = false)
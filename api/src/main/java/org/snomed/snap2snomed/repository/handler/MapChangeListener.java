@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.snomed.snap2snomed.repository.handler;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+import org.snomed.snap2snomed.model.Map;
+import org.snomed.snap2snomed.model.MapRow;
+import org.snomed.snap2snomed.model.MapRowTarget;
+import org.snomed.snap2snomed.model.Note;
+import org.snomed.snap2snomed.model.Task;
+import org.snomed.snap2snomed.model.User;
+import org.snomed.snap2snomed.service.MapChangeTracker;
+import org.snomed.snap2snomed.service.MapViewMaterializer;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * JPA entity listener reporting changes to map rows, map row targets, notes, tasks and users to the
+ * {@link MapChangeTracker}, and changes to map rows to the {@link MapViewMaterializer}.
+ *
+ * Bulk updates made with @Modifying queries bypass entity listeners, so the code issuing those reports the change
+ * to the tracker and materializer itself.
+ */
+public class MapChangeListener {
+
+  @Autowired
+  MapChangeTracker mapChangeTracker;
+
+  @Autowired
+  MapViewMaterializer mapViewMaterializer;
+
+  @PostPersist
+  @PostUpdate
+  @PostRemove
+  public void entityChanged(Object entity) {
+    if (mapChangeTracker == null) {
+      return;
+    }
+    if (entity instanceof User) {
+      mapChangeTracker.userChanged();
+      return;
+    }
+    mapChangeTracker.mapChanged(getMapId(entity));
+
+    if (entity instanceof MapRow) {
+      final MapRow row = (MapRow) entity;
+      mapViewMaterializer.rowChanged(getMapId(row), row.getSourceCode() == null ? null : row.getSourceCode().getId());
+    }
+  }
+
+  private Long getMapId(Object entity) {
+    Map map = null;
+    if (entity instanceof MapRow) {
+      map = ((MapRow) entity).getMap();
+    } else if (entity instanceof MapRowTarget) {
+      final MapRow row = ((MapRowTarget) entity).getRow();
+      map = row == null ? null : row.getMap();
+    } else if (entity instanceof Note) {
+      final MapRow row = ((Note) entity).getMapRow();
+      map = row == null ? null : row.getMap();
+    } else if (entity instanceof Task) {
+      map = ((Task) entity).getMap();
+    }
+    return map == null ? null : map.getId();
+  }
+}
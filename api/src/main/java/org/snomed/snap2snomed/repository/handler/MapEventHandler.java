@@ -28,6 +28,8 @@ import org.snomed.snap2snomed.repository.MapRowRepository;
 import org.snomed.snap2snomed.repository.ProjectRepository;
 import org.snomed.snap2snomed.security.AuthenticationFacade;
 import org.snomed.snap2snomed.security.WebSecurity;
+import org.snomed.snap2snomed.service.MapChangeTracker;
+import org.snomed.snap2snomed.service.MapViewMaterializer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.rest.core.annotation.HandleAfterCreate;
 import org.springframework.data.rest.core.annotation.HandleBeforeCreate;
@@ -55,6 +57,12 @@ public class MapEventHandler {
   @Autowired
   WebSecurity webSecurity;
 
+  @Autowired
+  MapChangeTracker mapChangeTracker;
+
+  @Autowired
+  MapViewMaterializer mapViewMaterializer;
+
   @HandleBeforeCreate
   public void handleMapBeforeCreate(Map map) {
     if (map.getProject() == null || map.getProject().getId() == null) {
@@ -97,6 +105,8 @@ public class MapEventHandler {
     else {
       mapRowRepository.createMapRows(map.getId(), map.getSource().getId(), Instant.now(), authenticationFacade.getPrincipalSubject(), false); 
     }
+    mapChangeTracker.mapChanged(map.getId());
+    mapViewMaterializer.mapChanged(map.getId());
 
   }
 
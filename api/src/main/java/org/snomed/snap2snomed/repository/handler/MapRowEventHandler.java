@@ -150,6 +150,7 @@ public class MapRowEventHandler {
             // }
             mapRowRepository.deleteById(siblingMapRow.getId());
             mapRowRepository.save(mapRow);
+            mapRowRepository.updateLatestUserNote(mapRow.getId());
             siblingMapRow = null;
           }
           else {
@@ -204,6 +205,7 @@ public class MapRowEventHandler {
 
           mapRowRepository.save(mapRow);
           mapRowRepository.delete(siblingMapRow);
+          mapRowRepository.updateLatestUserNote(mapRow.getId());
 
         }
         else if (originalStatus == MapStatus.RECONCILE && mapRow.getStatus() == MapStatus.RECONCILE && siblingMapRow.getStatus() == MapStatus.RECONCILE && mapRow.isNoMap()) {
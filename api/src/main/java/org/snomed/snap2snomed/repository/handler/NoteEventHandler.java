@@ -22,10 +22,13 @@ import org.snomed.snap2snomed.problem.BadRequestDataProblem;
 import org.snomed.snap2snomed.problem.auth.MissingJwtProblem;
 import org.snomed.snap2snomed.problem.auth.MissingJwtSubjectProblem;
 import org.snomed.snap2snomed.problem.auth.NotAuthorisedProblem;
+import org.snomed.snap2snomed.repository.MapRowRepository;
 import org.snomed.snap2snomed.repository.UserRepository;
 import org.snomed.snap2snomed.security.AuthenticationFacade;
 import org.snomed.snap2snomed.security.WebSecurity;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.rest.core.annotation.HandleAfterCreate;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
 import org.springframework.data.rest.core.annotation.HandleBeforeCreate;
 import org.springframework.data.rest.core.annotation.HandleBeforeLinkDelete;
 import org.springframework.data.rest.core.annotation.HandleBeforeLinkSave;
@@ -46,6 +49,9 @@ public class NoteEventHandler {
   @Autowired
   WebSecurity webSecurity;
 
+  @Autowired
+  MapRowRepository mapRowRepository;
+
   @HandleBeforeCreate
   public void handleNoteBeforeCreate(Note note)
       throws MissingJwtSubjectProblem, MissingJwtProblem {
@@ -70,6 +76,12 @@ public class NoteEventHandler {
     note.setNoteBy(authenticationFacade.getAuthenticatedUser());
   }
 
+  @HandleAfterCreate
+  @HandleAfterSave
+  public void handleNoteAfterChange(Note note) {
+    mapRowRepository.updateLatestUserNote(note.getMapRow().getId());
+  }
+
   @HandleBeforeLinkSave
   public void handleBeforeLinkSave(Note note) {
     throw new NotAuthorisedProblem("Note links cannot be modified");
@@ -49,6 +49,8 @@ import org.snomed.snap2snomed.repository.ProjectRepository;
 import org.snomed.snap2snomed.repository.TaskRepository;
 import org.snomed.snap2snomed.repository.UserRepository;
 import org.snomed.snap2snomed.security.AuthenticationFacade;
+import org.snomed.snap2snomed.service.MapChangeTracker;
+import org.snomed.snap2snomed.service.MapViewMaterializer;
 import org.snomed.snap2snomed.util.SourceRowSpecificationUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Example;
@@ -86,6 +88,12 @@ public class TaskEventHandler {
   @Autowired
   TaskRepository taskRepository;
 
+  @Autowired
+  MapChangeTracker mapChangeTracker;
+
+  @Autowired
+  MapViewMaterializer mapViewMaterializer;
+
   private QMapRow mapRow = QMapRow.mapRow;
   private QMapRowTarget mapTarget = QMapRowTarget.mapRowTarget;
 
@@ -146,6 +154,8 @@ public class TaskEventHandler {
     } else if (task.getType().equals(TaskType.RECONCILE)) {
       mapRowRepository.setReconcileTaskToNull(task, modified, principalSubject);
     }
+    mapChangeTracker.mapChanged(task.getMap().getId());
+    mapViewMaterializer.mapChanged(task.getMap().getId());
   }
 
   @HandleBeforeLinkSave
@@ -353,6 +363,8 @@ public class TaskEventHandler {
         task.getSourceRowSpecification());
 
     associateMapRows(task, rangeSet);
+    mapChangeTracker.mapChanged(task.getMap().getId());
+    mapViewMaterializer.mapChanged(task.getMap().getId());
 
     /**
      * By reassigning rows to different tasks, it is possible for a task to become "empty" i.e. have no rows associated with it. This case
@@ -53,8 +53,11 @@ public class PreAuthFilter extends GenericFilterBean {
 
             new FilterRule(HttpMethod.GET, "/importedCodeSets", groupValues -> webSecurity.isValidUser()), // result filtered by query
             new FilterRule(HttpMethod.GET, "/importedCodeSets/search/byIdForOwner", groupValues -> webSecurity.isValidUser()), // result filtered by query
+            new FilterRule(HttpMethod.GET, "/importedCodeSets/\\$import/[^\\/]+", groupValues -> webSecurity.isValidUser()), // job owner checked by ImportJobService
             new FilterRule(HttpMethod.GET, "/importedCodeSets/([^\\/]+).*", groupValues -> webSecurity.isAdminUser() || webSecurity.isAuthorisedForImportedCodeSet(asLong(groupValues[0]))),
 
+            new FilterRule(HttpMethod.GET, "/importedMappings/\\$import/[^\\/]+", groupValues -> webSecurity.isValidUser()), // job owner checked by ImportJobService
+
             new FilterRule(HttpMethod.GET, "/maps", groupValues -> webSecurity.isValidUser()), // result filtered by query
             new FilterRule(HttpMethod.GET, "/maps/([^\\/]+).*", groupValues -> webSecurity.isAdminUser() || webSecurity.hasAnyProjectRoleForMapId(asLong(groupValues[0])) ),
 
@@ -85,9 +88,12 @@ public class PreAuthFilter extends GenericFilterBean {
             // TODO these already do this validation, do we need to do it here too or just pass it on?
             new FilterRule(HttpMethod.GET, "/map/([^\\/]+)/validateTargetCodes", groupValues -> webSecurity.isProjectOwnerForMapId(asLong(groupValues[0])) || webSecurity.isAdminUser()),
             new FilterRule(HttpMethod.GET, "/mapView", groupValues -> webSecurity.isValidUser()),
+            new FilterRule(HttpMethod.GET, "/mapView/\\$export/[^\\/]+(/file)?", groupValues -> webSecurity.isValidUser()), // job owner checked by MapExportJobService
             new FilterRule(HttpMethod.GET, "/mapView/([^\\/]+)", groupValues -> webSecurity.hasAnyProjectRoleForMapId(asLong(groupValues[0])) || webSecurity.isAdminUser()),
             new FilterRule(HttpMethod.GET, "/mapView/([^\\/]+)/\\$dualMapSiblingRow", groupValues -> webSecurity.hasAnyProjectRoleForMapId(asLong(groupValues[0])) || webSecurity.isAdminUser()),
+            new FilterRule(HttpMethod.GET, "/mapView/([^\\/]+)/\\$count", groupValues -> webSecurity.hasAnyProjectRoleForMapId(asLong(groupValues[0])) || webSecurity.isAdminUser()),
             new FilterRule(HttpMethod.GET, "/mapView/task/([^\\/]+)", groupValues -> webSecurity.isTaskAssignee(asLong(groupValues[0])) || webSecurity.isAdminUser()),
+            new FilterRule(HttpMethod.GET, "/mapView/task/([^\\/]+)/\\$count", groupValues -> webSecurity.isTaskAssignee(asLong(groupValues[0])) || webSecurity.isAdminUser()),
             new FilterRule(HttpMethod.GET, "/task/([^\\/]+)/\\$countIncompleteRows", groupValues -> webSecurity.isValidUser()),
             new FilterRule(HttpMethod.GET, "/task/([^\\/]+)/.*", groupValues -> webSecurity.isTaskAssignee(asLong(groupValues[0])) || webSecurity.isAdminUser()),
 
@@ -16,10 +16,13 @@
 
 package org.snomed.snap2snomed.service;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.URI;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
@@ -31,6 +34,7 @@ import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.InputMismatchException;
@@ -38,16 +42,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.persistence.EntityManager;
 import javax.transaction.Transactional;
 import javax.validation.Validator;
 import javax.xml.bind.DatatypeConverter;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
 import org.hibernate.Session;
 import org.hibernate.exception.GenericJDBCException;
 import org.hibernate.jdbc.Work;
@@ -71,6 +76,7 @@ import org.snomed.snap2snomed.repository.MapRepository;
 import org.snomed.snap2snomed.repository.MapRowRepository;
 import org.snomed.snap2snomed.security.WebSecurity;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.HttpMediaTypeNotAcceptableException;
@@ -78,8 +84,6 @@ import org.springframework.web.multipart.MultipartFile;
 import org.zalando.problem.Problem;
 import org.zalando.problem.Status;
 
-import com.google.common.base.Utf8;
-
 import lombok.extern.slf4j.Slf4j;
 
 @Component
@@ -113,23 +117,91 @@ public class CodeSetImportService {
   @Autowired
   WebSecurity webSecurity;
 
+  @Autowired
+  private MapChangeTracker mapChangeTracker;
+
+  @Autowired
+  private MapViewMaterializer mapViewMaterializer;
+
   private static final List<String> supportedContentTypes = new ArrayList<String>(Arrays.asList("text/plain", "text/csv", "text/tsv"));
 
+  /** Reads import files into batches while the requesting thread inserts them, see ImportPipeline */
+  private ExecutorService importReaders;
+
+  /** Set once the database refuses LOAD DATA LOCAL INFILE, so later imports do not try it again */
+  private volatile boolean localInfileRefused;
+
+  @PostConstruct
+  void start() {
+    importReaders = Executors.newCachedThreadPool(new CustomizableThreadFactory("import-reader-"));
+  }
+
+  @PreDestroy
+  void stop() {
+    importReaders.shutdownNow();
+  }
+
+  /**
+   * Inserts imported codes a batch at a time, so an import holds no more than a few batches of codes however large the
+   * file is. Each execution inserts the batch last set.
+   *
+   * With localInfile a batch is written to temporary files and loaded into staging tables with LOAD DATA LOCAL INFILE,
+   * then copied into imported_code and imported_code_additional_columns with an insert-select each. This saves the
+   * round trip of generated keys the batched inserts need to link additional columns to their codes. If the server or
+   * driver refuses LOAD DATA LOCAL INFILE this and later batches are inserted instead, any other failure of the load
+   * fails the import.
+   */
   private static class InsertCodeWork implements Work {
 
-    private final List<ImportedCode> codes = new ArrayList<>();
+    /** Codes per "in" list when checking a batch against those already inserted */
+    private static final int DUPLICATE_CHECK_CHUNK_SIZE = 1000;
+
+    /** Error older servers report for LOAD DATA LOCAL INFILE when local_infile is off */
+    private static final int ER_NOT_ALLOWED_COMMAND = 1148;
+
+    /** Error MySQL 8 reports for LOAD DATA LOCAL INFILE when local_infile is off */
+    private static final int ER_CLIENT_LOCAL_FILES_DISABLED = 3948;
+
+    /** Start of the driver's message when allowLoadLocalInfile is not set, which carries no error code */
+    private static final String LOCAL_DATA_DISABLED_MESSAGE = "Loading local data is disabled";
+
+    private List<ImportedCode> codes = Collections.emptyList();
     private int importBatchSize;
+    private boolean localInfile;
+    private boolean localInfileRefused;
+    private boolean inserted;
 
-    public InsertCodeWork(int importBatchSize) {
+    public InsertCodeWork(int importBatchSize, boolean localInfile) {
       this.importBatchSize = importBatchSize;
+      this.localInfile = localInfile;
+    }
+
+    public void setBatch(List<ImportedCode> codes) {
+      this.codes = codes;
     }
 
-    public void add(ImportedCode code) {
-      codes.add(code);
+    /**
+     * @return true if LOAD DATA LOCAL INFILE was tried and refused
+     */
+    public boolean isLocalInfileRefused() {
+      return localInfileRefused;
     }
 
     @Override
     public void execute(Connection connection) throws SQLException {
+      if (codes.isEmpty()) {
+        return;
+      }
+      if (inserted) {
+        checkDuplicatesOfInsertedCodes(connection);
+      }
+      if (!localInfile || !loadBatch(connection)) {
+        insertBatch(connection);
+      }
+      inserted = true;
+    }
+
+    private void insertBatch(Connection connection) throws SQLException {
       final PreparedStatement statement = connection.prepareStatement(
           "insert into imported_code (code, display, _index, imported_codeset_id) values (?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
       for (final ImportedCode code : codes) {
@@ -141,17 +213,18 @@ public class CodeSetImportService {
       }
       statement.executeLargeBatch();
 
-      final PreparedStatement additionalColumnsStatement2 = connection.prepareStatement("insert into imported_code_additional_columns (imported_code_id, value, collection_order) values (?, ?, ?)");
+      final PreparedStatement additionalColumnsStatement2 = connection.prepareStatement("insert into imported_code_additional_columns (imported_code_id, value, number_value, collection_order) values (?, ?, ?, ?)");
       final ResultSet generatedKeys2 = statement.getGeneratedKeys();
 
       int batchCount = 0;
       for (final ImportedCode code : codes) {
         generatedKeys2.next();
         for (int i=0; i < code.getAdditionalColumns().size(); i++) {
-          final String additionalColumnVal = code.getAdditionalColumns().get(i).getValue();
+          final AdditionalCodeValue additionalColumnVal = code.getAdditionalColumns().get(i);
           additionalColumnsStatement2.setLong(1, generatedKeys2.getLong(1));
-          additionalColumnsStatement2.setString(2, additionalColumnVal);
-          additionalColumnsStatement2.setInt(3, i);
+          additionalColumnsStatement2.setString(2, additionalColumnVal.getValue());
+          additionalColumnsStatement2.setObject(3, additionalColumnVal.getNumberValue(), Types.DOUBLE);
+          additionalColumnsStatement2.setInt(4, i);
           additionalColumnsStatement2.addBatch();
           batchCount++; 
         }
@@ -164,56 +237,218 @@ public class CodeSetImportService {
       }
 
       additionalColumnsStatement2.executeLargeBatch(); // flush the last few records.
-
     }
-  }
 
-  private  class InsertMappingCodeWork implements Work {
+    /**
+     * @return false, having loaded nothing, if the batch could not be written to a file or the file could not be loaded
+     */
+    private boolean loadBatch(Connection connection) throws SQLException {
+      Path codeFile = null;
+      Path columnFile = null;
+      try (Statement statement = connection.createStatement()) {
+        try {
+          codeFile = Files.createTempFile("imported-code-", ".tsv");
+          columnFile = Files.createTempFile("imported-code-column-", ".tsv");
+          writeLoadFiles(codeFile, columnFile);
+        } catch (final IOException e) {
+          log.warn("Unable to write imported codes to a temporary file, inserting them instead", e);
+          localInfile = false;
+          return false;
+        }
+
+        // temporary tables, unlike truncate, do not commit the import's transaction
+        statement.execute("create temporary table imported_code_stage "
+            + "(code varchar(" + ImportedCode.CODE_SIZE_LIMIT + "), display varchar(" + ImportedCode.DISPLAY_SIZE_LIMIT + "), "
+            + "_index bigint not null)");
+        statement.execute("create temporary table imported_code_additional_columns_stage "
+            + "(_index bigint not null, collection_order integer not null, "
+            + "value varchar(" + ImportedCode.ADDITIONAL_COLUMN_SIZE_LIMIT + "), number_value double)");
+        try {
+          // nothing has been copied out of the staging tables yet, so a refusal of either load leaves the batch to be
+          // inserted instead
+          try {
+            statement.execute(loadDataSql(codeFile, "imported_code_stage (code, display, _index)"));
+            statement.execute(loadDataSql(columnFile,
+                "imported_code_additional_columns_stage (_index, collection_order, value, number_value)"));
+          } catch (final SQLException e) {
+            if (!isLocalInfileRefusal(e)) {
+              throw e;
+            }
+            log.warn("LOAD DATA LOCAL INFILE refused, inserting imported codes instead: {}", e.getMessage());
+            localInfile = false;
+            localInfileRefused = true;
+            return false;
+          }
 
-    private final List<MapRowTargetParams> mapRowTargetParams = new ArrayList<>();
-    private Long mapId;
+          final Long importedCodeSetId = codes.get(0).getImportedCodeSet().getId();
+          try (PreparedStatement insert = connection.prepareStatement(
+              "insert into imported_code (code, display, _index, imported_codeset_id) "
+                  + "select code, display, _index, ? from imported_code_stage")) {
+            insert.setLong(1, importedCodeSetId);
+            insert.executeUpdate();
+          }
+          // _index is unique within a code set, so joins a staged column to its code's generated id
+          try (PreparedStatement insert = connection.prepareStatement(
+              "insert into imported_code_additional_columns (imported_code_id, value, number_value, collection_order) "
+                  + "select ic.id, s.value, s.number_value, s.collection_order from imported_code_additional_columns_stage s "
+                  + "join imported_code ic on ic._index = s._index and ic.imported_codeset_id = ?")) {
+            insert.setLong(1, importedCodeSetId);
+            insert.executeUpdate();
+          }
+        } finally {
+          statement.execute("drop temporary table if exists imported_code_stage, imported_code_additional_columns_stage");
+        }
+        return true;
+      } finally {
+        deleteQuietly(codeFile);
+        deleteQuietly(columnFile);
+      }
+    }
 
     /**
-     * @param noMapFlagArg can be null
-     * @param mapStatusArg can be null
+     * @return true if the exception is the server or driver refusing LOAD DATA LOCAL INFILE, rather than the load failing
      */
-    public void add(MapRowTarget mapRowTarget, String sourceCode, Long mapId,
-      Integer noMapFlagArg, MapStatus mapStatusArg) {
+    private static boolean isLocalInfileRefusal(SQLException e) {
+      return e.getErrorCode() == ER_NOT_ALLOWED_COMMAND || e.getErrorCode() == ER_CLIENT_LOCAL_FILES_DISABLED
+          || (e.getMessage() != null && e.getMessage().startsWith(LOCAL_DATA_DISABLED_MESSAGE));
+    }
+
+    private void writeLoadFiles(Path codeFile, Path columnFile) throws IOException {
+      try (BufferedWriter codeWriter = Files.newBufferedWriter(codeFile, StandardCharsets.UTF_8);
+           BufferedWriter columnWriter = Files.newBufferedWriter(columnFile, StandardCharsets.UTF_8)) {
+        for (final ImportedCode code : codes) {
+          codeWriter.append(escapeLoadValue(code.getCode())).append('\t')
+              .append(escapeLoadValue(code.getDisplay())).append('\t')
+              .append(String.valueOf(code.getIndex())).append('\n');
+          for (int i = 0; i < code.getAdditionalColumns().size(); i++) {
+            final AdditionalCodeValue additionalColumnVal = code.getAdditionalColumns().get(i);
+            columnWriter.append(String.valueOf(code.getIndex())).append('\t')
+                .append(String.valueOf(i)).append('\t')
+                .append(escapeLoadValue(additionalColumnVal.getValue())).append('\t')
+                .append(additionalColumnVal.getNumberValue() == null ? "\\N" : additionalColumnVal.getNumberValue().toString())
+                .append('\n');
+          }
+        }
+      }
+    }
 
-      // default values if non supplied
-      Integer noMapFlag = 0;
-      Integer mapStatus = MapStatus.DRAFT.ordinal();
+    private static String loadDataSql(Path file, String table) {
+      final String fileName = file.toAbsolutePath().toString().replace("\\", "\\\\").replace("'", "\\'");
+      return "load data local infile '" + fileName + "' into table " + table + " character set utf8mb4 "
+          + "fields terminated by '\\t' escaped by '\\\\' lines terminated by '\\n'";
+    }
 
-      if (noMapFlagArg != null)  {
-        noMapFlag = noMapFlagArg;
+    /**
+     * Escapes a value for FIELDS ESCAPED BY '\\' of LOAD DATA, a null being \N
+     */
+    private static String escapeLoadValue(String value) {
+      if (value == null) {
+        return "\\N";
+      }
+      final StringBuilder escaped = new StringBuilder(value.length());
+      for (int i = 0; i < value.length(); i++) {
+        final char c = value.charAt(i);
+        switch (c) {
+          case '\\': escaped.append("\\\\"); break;
+          case '\t': escaped.append("\\t"); break;
+          case '\n': escaped.append("\\n"); break;
+          case '\r': escaped.append("\\r"); break;
+          case '\0': escaped.append("\\0"); break;
+          default: escaped.append(c);
+        }
+      }
+      return escaped.toString();
+    }
+
+    private static void deleteQuietly(Path file) {
+      if (file != null) {
+        try {
+          Files.deleteIfExists(file);
+        } catch (final IOException e) {
+          log.warn("Unable to delete temporary file {}", file, e);
+        }
       }
+    }
 
-      if (mapStatusArg != null) {
-        mapStatus = mapStatusArg.ordinal();
+    /**
+     * Duplicates within a batch are found as it is read, this finds codes of the batch that were in an earlier batch
+     */
+    private void checkDuplicatesOfInsertedCodes(Connection connection) throws SQLException {
+      final Long importedCodeSetId = codes.get(0).getImportedCodeSet().getId();
+      final Set<String> insertedCodes = new HashSet<>();
+      for (int from = 0; from < codes.size(); from += DUPLICATE_CHECK_CHUNK_SIZE) {
+        final List<ImportedCode> chunk = codes.subList(from, Math.min(from + DUPLICATE_CHECK_CHUNK_SIZE, codes.size()));
+        try (PreparedStatement statement = connection.prepareStatement(
+            "select code from imported_code where imported_codeset_id = ? and code in ("
+                + String.join(",", Collections.nCopies(chunk.size(), "?")) + ")")) {
+          statement.setLong(1, importedCodeSetId);
+          for (int i = 0; i < chunk.size(); i++) {
+            statement.setString(i + 2, chunk.get(i).getCode());
+          }
+          try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+              insertedCodes.add(resultSet.getString(1));
+            }
+          }
+        }
+      }
+      // in file order, so the first duplicate is reported as it would be had all codes been checked as they were read
+      for (final ImportedCode code : codes) {
+        if (insertedCodes.contains(code.getCode())) {
+          throw duplicateCodeProblem(code.getCode());
+        }
       }
+    }
+  }
+
+  /**
+   * Replaces a map's targets with those of a mapping file a batch at a time. The first execution clears the map, each
+   * inserts the batch last set, and source codes not in the map are collected to be reported by checkSourceCodes once
+   * all batches are written. The transaction is rolled back in that case so none of the batches are kept.
+   */
+  private class InsertMappingCodeWork implements Work {
+
+    private final Long mapId;
+    private List<MapRowTargetParams> mapRowTargetParams = Collections.emptyList();
+    private final Set<String> missing = new HashSet<>();
+    private boolean cleared;
+    private int insertCount;
 
-      mapRowTargetParams.add(new MapRowTargetParams(mapRowTarget, sourceCode, noMapFlag, mapStatus));
+    public InsertMappingCodeWork(Long mapId) {
       this.mapId = mapId;
     }
 
+    public void setBatch(List<MapRowTargetParams> mapRowTargetParams) {
+      this.mapRowTargetParams = mapRowTargetParams;
+    }
+
     @Override
     public void execute(Connection connection) throws SQLException {
-      // Delete existing mapping targets
-      // Note: We have to wrap the subquery for IN into another subquery for MySQL. MariaDB doesn't have this issue:
-      // see: https://www.xaprb.com/blog/2006/06/23/how-to-select-from-an-update-target-in-mysql
-      PreparedStatement statement = connection.prepareStatement(
-        "delete from map_row_target where row_id in (select id from (select mr.id from map_row mr " +
-        "join map_row_target mt on mr.id = mt.row_id where mr.map_id = ?) mr2)");
-      statement.setLong(1, mapId);
-      statement.executeUpdate();
-      // Set MapRows to UNMAPPED for the map and reset Authors, Reviewers and No Map flag
-      statement = connection.prepareStatement(
-        "update map_row set status = ?, last_author_id = ?, last_reviewer_id = ?, no_map = 0 where map_id = ?");
-      statement.setInt(1, MapStatus.UNMAPPED.ordinal());
-      statement.setNull(2, Types.VARCHAR);
-      statement.setNull(3, Types.VARCHAR);
-      statement.setLong(4, mapId);
-      statement.executeUpdate();
+      if (mapRowTargetParams.isEmpty()) {
+        return;
+      }
+      PreparedStatement statement;
+      if (!cleared) {
+
+        // Delete existing mapping targets
+        // Note: We have to wrap the subquery for IN into another subquery for MySQL. MariaDB doesn't have this issue:
+        // see: https://www.xaprb.com/blog/2006/06/23/how-to-select-from-an-update-target-in-mysql
+        statement = connection.prepareStatement(
+          "delete from map_row_target where row_id in (select id from (select mr.id from map_row mr " +
+          "join map_row_target mt on mr.id = mt.row_id where mr.map_id = ?) mr2)");
+        statement.setLong(1, mapId);
+        statement.executeUpdate();
+        // Set MapRows to UNMAPPED for the map and reset Authors, Reviewers and No Map flag
+        statement = connection.prepareStatement(
+          "update map_row set status = ?, last_author_id = ?, last_reviewer_id = ?, no_map = 0 where map_id = ?");
+        statement.setInt(1, MapStatus.UNMAPPED.ordinal());
+        statement.setNull(2, Types.VARCHAR);
+        statement.setNull(3, Types.VARCHAR);
+        statement.setLong(4, mapId);
+        statement.executeUpdate();
+        cleared = true;
+      }
+      insertCount += mapRowTargetParams.size();
 
 
       // Now we prepare the values for the insert into commands
@@ -227,18 +462,13 @@ public class CodeSetImportService {
       mapRowRepository.findCodesAndMapRowIdsByMapIdAndSourceCodes(mapId, sourceCodes).forEach(rs -> {
         rowIds.put((String) rs[0], (Long) rs[1]);
       });
-      final Long rowsToMapCount = mapRowTargetParams.stream()
-          .map(MapRowTargetParams::getSourceCode)
-          .distinct()
-          .count();
-      if(rowIds.size() != rowsToMapCount) {
-        Set<String> missing = mapRowTargetParams.stream()
+      mapRowTargetParams.stream()
           .map(MapRowTargetParams::getSourceCode)
           .filter(element -> !rowIds.containsKey(element))
-          .collect(Collectors.toSet());
-        throw new MappingImportProblem("invalid-data", "The imported mapping file contains source codes " +
-        " that are not in this map " + missing + ".  These codes need to be removed from the mapping file " +
-        " before attempting to import it again.");
+          .forEach(missing::add);
+      if (!missing.isEmpty()) {
+        // the import fails once all batches are read, there is no point writing any more of them
+        return;
       }
       mapRowTargetParams.forEach(param -> {
         final MapRow row = new MapRow();
@@ -288,7 +518,15 @@ public class CodeSetImportService {
     }
 
     int getInsertCount() {
-      return this.mapRowTargetParams.size();
+      return this.insertCount;
+    }
+
+    void checkSourceCodes() {
+      if (!missing.isEmpty()) {
+        throw new MappingImportProblem("invalid-data", "The imported mapping file contains source codes " +
+        " that are not in this map " + missing + ".  These codes need to be removed from the mapping file " +
+        " before attempting to import it again.");
+      }
     }
   }
 
@@ -296,100 +534,37 @@ public class CodeSetImportService {
   public ImportedCodeSet importCodeSet(
       @Validated ImportDetails importDetails,
       MultipartFile file) throws HttpMediaTypeNotAcceptableException {
+    return importCodeSet(importDetails, file, ImportProgress.NONE);
+  }
+
+  @Transactional
+  public ImportedCodeSet importCodeSet(
+      @Validated ImportDetails importDetails,
+      MultipartFile file, ImportProgress progress) throws HttpMediaTypeNotAcceptableException {
 
     final ImportedCodeSet importedCodeSet;
 
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(file.getInputStream()))) {
-      CSVFormat format = detectFileFormat(importDetails.getDelimiter(), file, reader, importDetails.getDisplayColumnIndex());
+    try (DelimitedRecordScanner scanner = new DelimitedRecordScanner(file.getInputStream(), importDetails.getDelimiter())) {
+      checkFirstLine(importDetails.getDelimiter(), file, scanner);
 
-      if (importDetails.getHasHeader()) {
-        format = CSVFormat.Builder.create(format)
-            .setHeader()
-            .setSkipHeaderRecord(true)
-            .setAllowMissingColumnNames(true)
-            .setAllowDuplicateHeaderNames(true)
-            .build();
-      }
+      final List<String> headerNames = readHeaderNames(importDetails.getHasHeader(), scanner);
 
-      final Set<String> importedCodes = new HashSet<>();
       final MessageDigest md = MessageDigest.getInstance("MD5");
 
-      final InsertCodeWork insertCodeWork = new InsertCodeWork(configuration.getImportBatchSize());
-      try (CSVParser parser = format.parse(reader)) {
-        importedCodeSet = importedCodeSetRepository.save(importDetails.toImportedCodeSetEntity(parser.getHeaderNames()));
-
-        for (final CSVRecord csvRecord : parser) {
-          if (parser.getRecordNumber() > configuration.getMaximumImportedCodeSetRows()) {
-            throw Problem.builder()
-                .withStatus(Status.BAD_REQUEST)
-                .withType(URI.create(TOO_LARGE_FILE_PROBLEM_URI))
-                .withTitle("Code set too large to import")
-                .withDetail("Code set row count " + parser.getRecordNumber() + " exceeds the maximum supported row count for import "
-                    + configuration.getMaximumImportedCodeSetRows()).build();
-          }
-          validateColumnIndexes(importDetails, csvRecord);
-          testLineForBinary(csvRecord.toString());
-
-          String code;
-          // If delimiter is null we only read lines and auto-generate ids
-          if (importDetails.getDelimiter() == null) {
-            code = DatatypeConverter.printHexBinary(md.digest(csvRecord.get(importDetails.getDisplayColumnIndex()).getBytes()))
-                .toLowerCase().trim();
-            importDetails.setDisplayColumnIndex(0);
-          } else {
-            code = csvRecord.get(importDetails.getCodeColumnIndex()).trim();
-          }
-          final String display = csvRecord.get(importDetails.getDisplayColumnIndex());
-          final long recordNumber = csvRecord.getRecordNumber();
-
-          final List<AdditionalCodeValue> additionalColumnValues = new ArrayList<>();
-
-          if (importDetails.getHasHeader() && null != importDetails.getAdditionalColumnIndexes()) {
-            final List<Integer> additionalColumnIndexes = importDetails.getAdditionalColumnIndexes();
-            final List<String> additionalColumnTypes = importDetails.getAdditionalColumnTypes();
-            if (additionalColumnIndexes.size() < additionalColumnTypes.size()) {
-              throw new CodeSetImportProblem("additional-column-mismatch",
-                      "Number of specified additional columns and their types do not match",
-                      "Additional column indexes specified were " + additionalColumnIndexes +
-                              " and additional column types were " + additionalColumnTypes +
-                              " - size of these collections must match");
-            }
-            if (additionalColumnIndexes != null && additionalColumnTypes != null) {
-              for (int i = 0; i < additionalColumnIndexes.size(); i++) {
-                final Integer index = additionalColumnIndexes.get(i);
-                if (index == null) {
-                  throw new CodeSetImportProblem("additional-column-index-null",
-                          "Null additional column index",
-                          "Additional column index " + i +
-                                  " is null");
-                }
-                if(csvRecord.size() < index) {
-                  throw new CodeSetImportProblem("additional-column-index-too-large",
-                          "Additional column index is beyond CSV size",
-                          "Additional column index " + i +
-                                  " is " + index + " which is beyond the CSV record size " + csvRecord.size());
-                }
-                if(parser.getHeaderNames().size() < index) {
-                  throw new CodeSetImportProblem("additional-column-index-no-header",
-
-                          "Additional column index is beyond header size",
-                          "Additional column index " + i +
-                                  " is " + index + " which is beyond the header size " + parser.getHeaderNames().size());
-                }
-                additionalColumnValues.add(new AdditionalCodeValue(csvRecord.get(index)));
-              }
+      final InsertCodeWork insertCodeWork = new InsertCodeWork(configuration.getImportBatchSize(),
+          configuration.isImportLocalInfile() && !localInfileRefused);
+      importedCodeSet = importedCodeSetRepository.save(importDetails.toImportedCodeSetEntity(headerNames));
+
+      ImportPipeline.run(importReaders,
+          sink -> readCodes(importDetails, scanner, headerNames, importedCodeSet, md, sink, progress),
+          batch -> {
+            insertCodeWork.setBatch(batch);
+            entityManager.unwrap(Session.class).doWork(insertCodeWork);
+            if (insertCodeWork.isLocalInfileRefused()) {
+              localInfileRefused = true;
             }
-          }
-
-          validateRecord(importedCodes, code, display, recordNumber, additionalColumnValues, importDetails);
-
-          final ImportedCode importedCode = new ImportedCode(null, code, importedCodeSet, recordNumber, display, additionalColumnValues);
-
-          importedCodes.add(code);
-          insertCodeWork.add(importedCode);
-        }
-      }
-      entityManager.unwrap(Session.class).doWork(insertCodeWork);
+            progress.rowsInserted(batch.size());
+          });
     } catch (final InputMismatchException e) {
       throw new CodeSetImportProblem("invalid-delimiter", "Invalid delimiter specfied, the first line does not contain the delimiter", e.getLocalizedMessage());
     } catch (final IndexOutOfBoundsException e) {
@@ -397,6 +572,8 @@ public class CodeSetImportService {
     } catch (final NoSuchAlgorithmException e ) {
       log.error("Unecpected error creating MD5 hash for code", e);
       throw Problem.valueOf(Status.INTERNAL_SERVER_ERROR, "Unexpected error creating MD5 hash for code");
+    } catch (final CharacterCodingException e) {
+      throw invalidCharactersProblem();
     } catch (final IOException e) {
       log.error("Failed reading code set from an import request", e);
       throw Problem.valueOf(Status.INTERNAL_SERVER_ERROR, "Unable to read the file in the request due to an I/O error");
@@ -411,42 +588,139 @@ public class CodeSetImportService {
     return importedCodeSet;
   }
 
-  private void validateColumnIndexes(ImportDetails importDetails, CSVRecord csvRecord) {
-    if (csvRecord.size() - 1 < importDetails.getCodeColumnIndex()) {
+  /**
+   * Parses and validates the records of a code set into batches for InsertCodeWork. Duplicate codes are found within
+   * a batch here, InsertCodeWork finds those in earlier batches.
+   */
+  private void readCodes(ImportDetails importDetails, DelimitedRecordScanner scanner, List<String> headerNames,
+      ImportedCodeSet importedCodeSet, MessageDigest md, ImportPipeline.BatchSink<ImportedCode> sink,
+      ImportProgress progress) throws IOException {
+    List<ImportedCode> batch = new ArrayList<>();
+    final Set<String> batchCodes = new HashSet<>();
+    try {
+      while (scanner.next()) {
+        if (scanner.getRecordNumber() > configuration.getMaximumImportedCodeSetRows()) {
+          throw Problem.builder()
+              .withStatus(Status.BAD_REQUEST)
+              .withType(URI.create(TOO_LARGE_FILE_PROBLEM_URI))
+              .withTitle("Code set too large to import")
+              .withDetail("Code set row count " + scanner.getRecordNumber() + " exceeds the maximum supported row count for import "
+                  + configuration.getMaximumImportedCodeSetRows()).build();
+        }
+        validateColumnIndexes(importDetails, scanner);
+
+        String code;
+        // If delimiter is null we only read lines and auto-generate ids
+        if (importDetails.getDelimiter() == null) {
+          code = DatatypeConverter.printHexBinary(md.digest(scanner.get(importDetails.getDisplayColumnIndex()).getBytes()))
+              .toLowerCase().trim();
+          importDetails.setDisplayColumnIndex(0);
+        } else {
+          code = scanner.get(importDetails.getCodeColumnIndex()).trim();
+        }
+        final String display = scanner.get(importDetails.getDisplayColumnIndex());
+        final long recordNumber = scanner.getRecordNumber();
+
+        final List<AdditionalCodeValue> additionalColumnValues = new ArrayList<>();
+
+        if (importDetails.getHasHeader() && null != importDetails.getAdditionalColumnIndexes()) {
+          final List<Integer> additionalColumnIndexes = importDetails.getAdditionalColumnIndexes();
+          final List<String> additionalColumnTypes = importDetails.getAdditionalColumnTypes();
+          if (additionalColumnIndexes.size() < additionalColumnTypes.size()) {
+            throw new CodeSetImportProblem("additional-column-mismatch",
+                    "Number of specified additional columns and their types do not match",
+                    "Additional column indexes specified were " + additionalColumnIndexes +
+                            " and additional column types were " + additionalColumnTypes +
+                            " - size of these collections must match");
+          }
+          if (additionalColumnIndexes != null && additionalColumnTypes != null) {
+            for (int i = 0; i < additionalColumnIndexes.size(); i++) {
+              final Integer index = additionalColumnIndexes.get(i);
+              if (index == null) {
+                throw new CodeSetImportProblem("additional-column-index-null",
+                        "Null additional column index",
+                        "Additional column index " + i +
+                                " is null");
+              }
+              if(scanner.size() < index) {
+                throw new CodeSetImportProblem("additional-column-index-too-large",
+                        "Additional column index is beyond CSV size",
+                        "Additional column index " + i +
+                                " is " + index + " which is beyond the CSV record size " + scanner.size());
+              }
+              if(headerNames.size() < index) {
+                throw new CodeSetImportProblem("additional-column-index-no-header",
+
+                        "Additional column index is beyond header size",
+                        "Additional column index " + i +
+                                " is " + index + " which is beyond the header size " + headerNames.size());
+              }
+              additionalColumnValues.add(new AdditionalCodeValue(scanner.get(index)));
+            }
+          }
+        }
+
+        validateRecord(batchCodes, code, display, recordNumber, additionalColumnValues, importDetails);
+
+        batch.add(new ImportedCode(null, code, importedCodeSet, recordNumber, display, additionalColumnValues));
+        batchCodes.add(code);
+        if (batch.size() >= configuration.getImportBatchSize()) {
+          progress.recordsRead(scanner.getRecordNumber());
+          sink.put(batch);
+          batch = new ArrayList<>();
+          batchCodes.clear();
+        }
+      }
+    } catch (final RuntimeException e) {
+      // the records before this one go to the writer first, so that a duplicate among them of a code in an earlier
+      // batch, found as the batch is written, is reported ahead of this record's problem as it comes first in the file
+      if (!batch.isEmpty()) {
+        sink.put(batch);
+      }
+      throw e;
+    }
+    progress.recordsRead(scanner.getRecordNumber());
+    if (!batch.isEmpty()) {
+      sink.put(batch);
+    }
+  }
+
+  private void validateColumnIndexes(ImportDetails importDetails, DelimitedRecordScanner scanner) {
+    if (scanner.size() - 1 < importDetails.getCodeColumnIndex()) {
       throw new CodeSetImportProblem("invalid-code-index", "Code column index is invalid", "Code column index "
-          + importDetails.getCodeColumnIndex() + " is more than the number of columns in the record " + csvRecord.size());
+          + importDetails.getCodeColumnIndex() + " is more than the number of columns in the record " + scanner.size());
     }
-    if (csvRecord.size() - 1 < importDetails.getDisplayColumnIndex()) {
+    if (scanner.size() - 1 < importDetails.getDisplayColumnIndex()) {
       throw new CodeSetImportProblem("invalid-display-index", "Display column index is invalid", "Display column index "
-          + importDetails.getCodeColumnIndex() + " is more than the number of columns in the record " + csvRecord.size());
+          + importDetails.getCodeColumnIndex() + " is more than the number of columns in the record " + scanner.size());
     }
   }
 
-  private void validateColumnIndexes(ImportMappingFileDetails importDetails, CSVRecord csvRecord) {
-    if (csvRecord.size() - 1 < importDetails.getCodeColumnIndex()) {
+  private void validateColumnIndexes(ImportMappingFileDetails importDetails, DelimitedRecordScanner scanner) {
+    if (scanner.size() - 1 < importDetails.getCodeColumnIndex()) {
       throw new CodeSetImportProblem("invalid-code-index", "Code column index is invalid", "Code column index "
-          + importDetails.getCodeColumnIndex() + " is more than the number of columns in the record " + csvRecord.size());
+          + importDetails.getCodeColumnIndex() + " is more than the number of columns in the record " + scanner.size());
     }
-    if (csvRecord.size() - 1 < importDetails.getTargetCodeColumnIndex()) {
+    if (scanner.size() - 1 < importDetails.getTargetCodeColumnIndex()) {
       throw new CodeSetImportProblem("invalid-target-code-index", "Target Code column index is invalid", "Target Code column index "
-          + importDetails.getTargetCodeColumnIndex() + " is more than the number of columns in the record " + csvRecord.size());
+          + importDetails.getTargetCodeColumnIndex() + " is more than the number of columns in the record " + scanner.size());
     }
-    if (csvRecord.size() - 1 < importDetails.getTargetDisplayColumnIndex()) {
+    if (scanner.size() - 1 < importDetails.getTargetDisplayColumnIndex()) {
       throw new CodeSetImportProblem("invalid-target-display-index", "Target Display column index is invalid", "Target Display column index "
-          + importDetails.getTargetDisplayColumnIndex() + " is more than the number of columns in the record " + csvRecord.size());
+          + importDetails.getTargetDisplayColumnIndex() + " is more than the number of columns in the record " + scanner.size());
     }
-    if (csvRecord.size() - 1 < importDetails.getRelationshipColumnIndex()) {
+    if (scanner.size() - 1 < importDetails.getRelationshipColumnIndex()) {
       throw new CodeSetImportProblem("invalid-relationship-index", "Relationship column index is invalid", "Relationship column index "
-          + importDetails.getRelationshipColumnIndex() + " is more than the number of columns in the record " + csvRecord.size());
+          + importDetails.getRelationshipColumnIndex() + " is more than the number of columns in the record " + scanner.size());
     }
     //optional fields
-    if (importDetails.getNoMapFlagColumnIndex() != null && csvRecord.size() - 1 < importDetails.getNoMapFlagColumnIndex()) {
+    if (importDetails.getNoMapFlagColumnIndex() != null && scanner.size() - 1 < importDetails.getNoMapFlagColumnIndex()) {
       throw new CodeSetImportProblem("invalid-relationship-index", "Relationship column index is invalid", "Relationship column index "
-          + importDetails.getNoMapFlagColumnIndex() + " is more than the number of columns in the record " + csvRecord.size());
+          + importDetails.getNoMapFlagColumnIndex() + " is more than the number of columns in the record " + scanner.size());
     }
-    if (importDetails.getStatusColumnIndex() != null && csvRecord.size() - 1 < importDetails.getStatusColumnIndex()) {
+    if (importDetails.getStatusColumnIndex() != null && scanner.size() - 1 < importDetails.getStatusColumnIndex()) {
       throw new CodeSetImportProblem("invalid-relationship-index", "Relationship column index is invalid", "Relationship column index "
-          + importDetails.getStatusColumnIndex() + " is more than the number of columns in the record " + csvRecord.size());
+          + importDetails.getStatusColumnIndex() + " is more than the number of columns in the record " + scanner.size());
     }
   }
   private void validateRecord(Set<String> importedCodes, String code, String targetCode,
@@ -485,8 +759,7 @@ public class CodeSetImportService {
 
     if (targetCode == null) {
       if (importedCodes.contains(sourceCode)) {
-        throw new CodeSetImportProblem("duplicate-code", "Code value is duplicated in the import file",
-            "The source code value:'" + sourceCode + "' is duplicated in the import file");
+        throw duplicateCodeProblem(sourceCode);
       }
     }
     else {
@@ -498,6 +771,11 @@ public class CodeSetImportService {
 
   }
 
+  private static CodeSetImportProblem duplicateCodeProblem(String sourceCode) {
+    return new CodeSetImportProblem("duplicate-code", "Code value is duplicated in the import file",
+        "The source code value:'" + sourceCode + "' is duplicated in the import file");
+  }
+
   private void checkDisplay(String display, long recordNumber) {
     if ((display == null || display.isBlank())) {
       throw new CodeSetImportProblem("display-blank", "Display in the import file is blank",
@@ -540,51 +818,55 @@ public class CodeSetImportService {
     }
   }
 
-  protected CSVFormat detectFileFormat(Character delimiter, MultipartFile file, BufferedReader reader, Integer columnIndex)
-            throws IOException, HttpMediaTypeNotAcceptableException {
-    final CSVFormat format = CSVFormat.DEFAULT;
-    final String contentType = file.getContentType();
-    final String line = getLineFromReader(reader);
-    testLineForBinary(line);
-    if (delimiter != null && line.indexOf(delimiter) == -1) {
+  /**
+   * Checks the first line of the file ahead of reading its records, so that a file that is empty, binary or not
+   * delimited as specified is rejected as such rather than by the first record that cannot be read.
+   */
+  private void checkFirstLine(Character delimiter, MultipartFile file, DelimitedRecordScanner scanner)
+      throws IOException, HttpMediaTypeNotAcceptableException {
+    if (!scanner.peekFirstLine()) {
+      throw new CodeSetImportProblem("empty-file", "File to import has no content");
+    }
+    if (!scanner.firstLineHasDelimiter()) {
       throw new InputMismatchException("Invalid delimiter! The first line does not contain the delimiter character: '" + delimiter + "'");
     }
 
-    if (!supportedContentTypes.contains(contentType)) {
-      throw new HttpMediaTypeNotAcceptableException("Unsupported content type: " + contentType);
-    }
+    checkContentType(file);
+  }
 
-    if (delimiter != null) {
-      return format.withDelimiter(delimiter);
+  public void checkContentType(MultipartFile file) throws HttpMediaTypeNotAcceptableException {
+    if (!supportedContentTypes.contains(file.getContentType())) {
+      throw new HttpMediaTypeNotAcceptableException("Unsupported content type: " + file.getContentType());
     }
-
-    return format.withDelimiter('\0');
   }
 
-  private String getLineFromReader(BufferedReader reader) throws IOException {
-    reader.mark(1024);
-    final String line = reader.readLine();
-    reader.reset();
-    if (line == null) {
-      throw new CodeSetImportProblem("empty-file", "File to import has no content");
+  /**
+   * @return the values of the first record if the file has a header, as CSVParser.getHeaderNames() with missing and
+   *     duplicate names allowed
+   */
+  private static List<String> readHeaderNames(boolean hasHeader, DelimitedRecordScanner scanner) throws IOException {
+    if (hasHeader && scanner.next()) {
+      return scanner.values();
     }
-    return line;
+    return Collections.emptyList();
   }
 
-  private void testLineForBinary(String line) {
-    if (line.chars().filter(chr -> chr < 32).filter(chr -> chr != 9).count() > 0
-        || !Utf8.isWellFormed(line.getBytes())) {
-      throw new CodeSetImportProblem("invalid-characters", "The file contains invalid characters.");
-    }
+  private static CodeSetImportProblem invalidCharactersProblem() {
+    return new CodeSetImportProblem("invalid-characters", "The file contains invalid characters.");
   }
 
   @Transactional
   public MappingImportResponse importMappings(
     @Validated ImportMappingFileDetails importDetails,
     MultipartFile file) throws HttpMediaTypeNotAcceptableException {
+    return importMappings(importDetails, file, ImportProgress.NONE);
+  }
 
-    final Long start = System.currentTimeMillis();
-    log.info("Mapping file import started...");
+  /**
+   * @throws MappingImportProblem if the map doesn't exist
+   * @throws NotAuthorisedProblem if the user can't import mappings into the map
+   */
+  public org.snomed.snap2snomed.model.Map checkMappingImport(ImportMappingFileDetails importDetails) {
     final Optional<org.snomed.snap2snomed.model.Map> map = mapRepository.findById(Long.valueOf(importDetails.getMapId()));
     if (!map.isPresent()) {
       throw new MappingImportProblem("invalid-map-id", "Invalid map id provided");
@@ -593,6 +875,17 @@ public class CodeSetImportService {
     if (!(webSecurity.isAdminUser() || webSecurity.isProjectOwnerForMapId(map.get().getId()))) {
       throw new NotAuthorisedProblem("Not authorised to import mapping if the user is not admin or member of an associated project!");
     }
+    return map.get();
+  }
+
+  @Transactional
+  public MappingImportResponse importMappings(
+    @Validated ImportMappingFileDetails importDetails,
+    MultipartFile file, ImportProgress progress) throws HttpMediaTypeNotAcceptableException {
+
+    final Long start = System.currentTimeMillis();
+    log.info("Mapping file import started...");
+    final org.snomed.snap2snomed.model.Map map = checkMappingImport(importDetails);
 
     // If delimiter is null throw an error message
     if (importDetails.getDelimiter() == null) {
@@ -608,74 +901,38 @@ public class CodeSetImportService {
     }
 
     final MappingImportResponse importResponse = new MappingImportResponse();
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(file.getInputStream()))) {
-      CSVFormat format = detectFileFormat(importDetails.getDelimiter(), file, reader, importDetails.getTargetCodeColumnIndex());
+    try (DelimitedRecordScanner scanner = new DelimitedRecordScanner(file.getInputStream(), importDetails.getDelimiter())) {
+      checkFirstLine(importDetails.getDelimiter(), file, scanner);
 
       // We expect header for the mapping file but we might change this expectation later
-      if (importDetails.getHasHeader()) {
-        format = format.withFirstRecordAsHeader().withAllowMissingColumnNames().withAllowDuplicateHeaderNames();
-      }
-
-      final Set<String> importedCodes = new HashSet<>();
-
-      try (CSVParser parser = format.parse(reader)) {
-        final InsertMappingCodeWork insertMappingCodeWork = new InsertMappingCodeWork();
-        for (final CSVRecord csvRecord : parser) {
-          if (parser.getRecordNumber() > configuration.getMaximumImportedCodeSetRows()) {
-            throw Problem.builder()
-                    .withStatus(Status.BAD_REQUEST)
-                    .withType(URI.create(TOO_LARGE_FILE_PROBLEM_URI))
-                    .withTitle("Mapping file too large to import")
-                    .withDetail("Mapping file row count " + parser.getRecordNumber() + " exceeds the maximum supported row count for import "
-                            + configuration.getMaximumImportedCodeSetRows()).build();
-          }
-          validateColumnIndexes(importDetails, csvRecord);
-          testLineForBinary(csvRecord.toString());
-          final String code = csvRecord.get(importDetails.getCodeColumnIndex()).trim();
-          final String targetCode = csvRecord.get(importDetails.getTargetCodeColumnIndex()).trim();
-          final String targetDisplay = csvRecord.get(importDetails.getTargetDisplayColumnIndex());
-          final String relationship = csvRecord.get(importDetails.getRelationshipColumnIndex());
-          // optional
-          Integer noMap = null;
-          if (importDetails.getNoMapFlagColumnIndex() != null) {
-            final String noMapString = csvRecord.get(importDetails.getNoMapFlagColumnIndex());
-            noMap = Boolean.parseBoolean(noMapString) ? 1 : 0;
-          }
-          MapStatus status = null;
-          if (importDetails.getStatusColumnIndex() != null) {
-            final String stringStatus = csvRecord.get(importDetails.getStatusColumnIndex());
-            status = MapStatus.valueOf(stringStatus);
-          }
-          final long recordNumber = csvRecord.getRecordNumber();
-          if (targetCode != null && !targetCode.isEmpty()) {
-            validateRecord(importedCodes, code, targetCode, targetDisplay, recordNumber, noMap, status);
-            final MapRowTarget mapRowTarget = MapRowTarget.builder()
-                    .targetCode(targetCode)
-                    .targetDisplay(targetDisplay)
-                    .relationship(MappingRelationship.valueOf(relationship))
-                    .build();
-            insertMappingCodeWork.add(mapRowTarget, code, Long.valueOf(importDetails.getMapId()),
-              noMap, status);
-            importedCodes.add(code + targetCode);
-          }
-          else if (noMap != null && noMap.equals(1)) {
-            // no target code but no map has been ticked
-            insertMappingCodeWork.add(new MapRowTarget(), code, Long.valueOf(importDetails.getMapId()),
-              noMap, status);
-          }
-        }
-        importResponse.setRecordCount(parser.getRecordNumber());
-
-        if (insertMappingCodeWork.getInsertCount() > 0) {
-          entityManager.unwrap(Session.class).doWork(insertMappingCodeWork);
-        }
-        importResponse.setInsertCount(insertMappingCodeWork.getInsertCount());
+      readHeaderNames(importDetails.getHasHeader(), scanner);
+
+      final InsertMappingCodeWork insertMappingCodeWork = new InsertMappingCodeWork(Long.valueOf(importDetails.getMapId()));
+      ImportPipeline.run(importReaders,
+          sink -> readMappings(importDetails, scanner, sink, progress),
+          batch -> {
+            insertMappingCodeWork.setBatch(batch);
+            entityManager.unwrap(Session.class).doWork(insertMappingCodeWork);
+            progress.rowsInserted(batch.size());
+          });
+      insertMappingCodeWork.checkSourceCodes();
+      importResponse.setRecordCount(scanner.getRecordNumber());
+
+      if (insertMappingCodeWork.getInsertCount() > 0) {
+        // written over JDBC, so no entity listener sees these changes
+        mapChangeTracker.mapChanged(map.getId());
+        mapViewMaterializer.mapChanged(map.getId());
       }
+      importResponse.setInsertCount(insertMappingCodeWork.getInsertCount());
+      progress.validatingTargets();
       importResponse.setTargetValidation(mappingService.validateMapTargets(Long.valueOf(importDetails.getMapId())));
+      progress.checkCancelled();
     } catch (final InputMismatchException e) {
       throw new MappingImportProblem("invalid-delimiter", "Invalid delimiter specfied, the first line does not contain the delimiter", e.getLocalizedMessage());
     } catch (final IndexOutOfBoundsException e) {
       throw new MappingImportProblem("invalid-column", "Invalid column specfied", e.getLocalizedMessage());
+    } catch (final CharacterCodingException e) {
+      throw invalidCharactersProblem();
     } catch (final IOException e) {
       log.error("Failed reading mapping details from import request", e);
       throw Problem.valueOf(Status.INTERNAL_SERVER_ERROR, "Unable to read the file in the request due to an I/O error");
@@ -688,4 +945,85 @@ public class CodeSetImportService {
     log.info("Executed mapping import for " + importResponse.getRecordCount() + " lines in " +  Long.valueOf(end - start) + " ms");
     return importResponse;
   }
+
+  /**
+   * Parses and validates the records of a mapping file into batches for InsertMappingCodeWork
+   */
+  private void readMappings(ImportMappingFileDetails importDetails, DelimitedRecordScanner scanner,
+      ImportPipeline.BatchSink<MapRowTargetParams> sink, ImportProgress progress) throws IOException {
+    List<MapRowTargetParams> batch = new ArrayList<>();
+    final Set<String> importedCodes = new HashSet<>();
+    while (scanner.next()) {
+      if (scanner.getRecordNumber() > configuration.getMaximumImportedCodeSetRows()) {
+        throw Problem.builder()
+                .withStatus(Status.BAD_REQUEST)
+                .withType(URI.create(TOO_LARGE_FILE_PROBLEM_URI))
+                .withTitle("Mapping file too large to import")
+                .withDetail("Mapping file row count " + scanner.getRecordNumber() + " exceeds the maximum supported row count for import "
+                        + configuration.getMaximumImportedCodeSetRows()).build();
+      }
+      validateColumnIndexes(importDetails, scanner);
+      final String code = scanner.get(importDetails.getCodeColumnIndex()).trim();
+      final String targetCode = scanner.get(importDetails.getTargetCodeColumnIndex()).trim();
+      final String targetDisplay = scanner.get(importDetails.getTargetDisplayColumnIndex());
+      final String relationship = scanner.get(importDetails.getRelationshipColumnIndex());
+      // optional
+      Integer noMap = null;
+      if (importDetails.getNoMapFlagColumnIndex() != null) {
+        final String noMapString = scanner.get(importDetails.getNoMapFlagColumnIndex());
+        noMap = Boolean.parseBoolean(noMapString) ? 1 : 0;
+      }
+      MapStatus status = null;
+      if (importDetails.getStatusColumnIndex() != null) {
+        final String stringStatus = scanner.get(importDetails.getStatusColumnIndex());
+        status = MapStatus.valueOf(stringStatus);
+      }
+      final long recordNumber = scanner.getRecordNumber();
+      if (targetCode != null && !targetCode.isEmpty()) {
+        validateRecord(importedCodes, code, targetCode, targetDisplay, recordNumber, noMap, status);
+        final MapRowTarget mapRowTarget = MapRowTarget.builder()
+                .targetCode(targetCode)
+                .targetDisplay(targetDisplay)
+                .relationship(MappingRelationship.valueOf(relationship))
+                .build();
+        batch.add(mapRowTargetParams(mapRowTarget, code, noMap, status));
+        importedCodes.add(code + targetCode);
+      }
+      else if (noMap != null && noMap.equals(1)) {
+        // no target code but no map has been ticked
+        batch.add(mapRowTargetParams(new MapRowTarget(), code, noMap, status));
+      }
+      if (batch.size() >= configuration.getImportBatchSize()) {
+        progress.recordsRead(scanner.getRecordNumber());
+        sink.put(batch);
+        batch = new ArrayList<>();
+      }
+    }
+    progress.recordsRead(scanner.getRecordNumber());
+    if (!batch.isEmpty()) {
+      sink.put(batch);
+    }
+  }
+
+  /**
+   * @param noMapFlagArg can be null
+   * @param mapStatusArg can be null
+   */
+  private static MapRowTargetParams mapRowTargetParams(MapRowTarget mapRowTarget, String sourceCode,
+      Integer noMapFlagArg, MapStatus mapStatusArg) {
+
+    // default values if non supplied
+    Integer noMapFlag = 0;
+    Integer mapStatus = MapStatus.DRAFT.ordinal();
+
+    if (noMapFlagArg != null)  {
+      noMapFlag = noMapFlagArg;
+    }
+
+    if (mapStatusArg != null) {
+      mapStatus = mapStatusArg.ordinal();
+    }
+
+    return new MapRowTargetParams(mapRowTarget, sourceCode, noMapFlag, mapStatus);
+  }
 }
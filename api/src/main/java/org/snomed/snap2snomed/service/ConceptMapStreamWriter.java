@@ -0,0 +1,175 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.snomed.snap2snomed.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.r4.model.ConceptMap;
+import org.hl7.fhir.r4.model.Enumerations.ConceptMapEquivalence;
+import org.snomed.snap2snomed.controller.dto.MapExportRow;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import ca.uhn.fhir.parser.IParser;
+
+/**
+ * Writes a map export as a FHIR ConceptMap a source element at a time, rather than building the whole resource for
+ * the HAPI parser to encode.
+ *
+ * The resource is encoded by HAPI with its single group but no elements, then the elements are written into the end
+ * of the group as rows arrive, in the form HAPI would encode them - the output is the same as encoding the complete
+ * resource. Rows must arrive in source order, each source code's rows becoming the targets of one element.
+ */
+public class ConceptMapStreamWriter implements Closeable {
+
+  private static final String GROUP_END = "}]}";
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory()
+      .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+  private final JsonGenerator generator;
+
+  private final String header;
+
+  private boolean started;
+
+  private Long sourceIndex;
+
+  private String sourceCode;
+
+  private String sourceDisplay;
+
+  private final List<MapExportRow> targets = new ArrayList<>();
+
+  /**
+   * @param conceptMap the resource's metadata and group, without any elements
+   */
+  public ConceptMapStreamWriter(Writer writer, IParser parser, ConceptMap conceptMap) throws IOException {
+    header = parser.encodeResourceToString(conceptMap);
+    if (!header.endsWith(GROUP_END)) {
+      throw new IllegalStateException("ConceptMap header doesn't end with its group");
+    }
+    generator = JSON_FACTORY.createGenerator(writer);
+  }
+
+  public void write(MapExportRow row) throws IOException {
+    if (sourceIndex != null && !sourceIndex.equals(row.getSourceIndex())) {
+      writeElement();
+    }
+    sourceIndex = row.getSourceIndex();
+    sourceCode = row.getSourceCode();
+    sourceDisplay = row.getSourceDisplay();
+    targets.add(row);
+  }
+
+  /**
+   * Writes the last element and the end of the resource, without closing the underlying writer
+   */
+  @Override
+  public void close() throws IOException {
+    if (sourceIndex != null) {
+      writeElement();
+    }
+    if (started) {
+      generator.writeEndArray();
+      generator.writeRaw(GROUP_END);
+    } else {
+      generator.writeRaw(header);
+    }
+    generator.close();
+  }
+
+  private void writeElement() throws IOException {
+    if (!started) {
+      generator.writeRaw(header.substring(0, header.length() - GROUP_END.length()));
+      generator.writeRaw(",\"element\":");
+      generator.writeStartArray();
+      started = true;
+    }
+
+    generator.writeStartObject();
+    writeStringIfPresent("code", sourceCode);
+    writeStringIfPresent("display", sourceDisplay);
+    boolean hasTargets = false;
+    for (final MapExportRow target : targets) {
+      final ConceptMapEquivalence equivalence = getEquivalence(target);
+      final boolean hasCode = !Boolean.TRUE.equals(target.getNoMap()) && isPresent(target.getTargetCode());
+      final boolean hasDisplay = !Boolean.TRUE.equals(target.getNoMap()) && isPresent(target.getTargetDisplay());
+      if (!hasCode && !hasDisplay && equivalence == null) {
+        // HAPI leaves out empty elements
+        continue;
+      }
+      if (!hasTargets) {
+        generator.writeArrayFieldStart("target");
+        hasTargets = true;
+      }
+      generator.writeStartObject();
+      if (hasCode) {
+        generator.writeStringField("code", target.getTargetCode());
+      }
+      if (hasDisplay) {
+        generator.writeStringField("display", target.getTargetDisplay());
+      }
+      if (equivalence != null) {
+        generator.writeStringField("equivalence", equivalence.toCode());
+      }
+      generator.writeEndObject();
+    }
+    if (hasTargets) {
+      generator.writeEndArray();
+    }
+    generator.writeEndObject();
+
+    targets.clear();
+  }
+
+  private ConceptMapEquivalence getEquivalence(MapExportRow row) {
+    if (Boolean.TRUE.equals(row.getNoMap())) {
+      return ConceptMapEquivalence.UNMATCHED;
+    } else if (row.getRelationship() == null) {
+      return null;
+    }
+    switch (row.getRelationship()) {
+      case TARGET_EQUIVALENT:
+        return ConceptMapEquivalence.EQUIVALENT;
+      case TARGET_BROADER:
+        return ConceptMapEquivalence.WIDER;
+      case TARGET_NARROWER:
+        return ConceptMapEquivalence.NARROWER;
+      case TARGET_INEXACT:
+        return ConceptMapEquivalence.RELATEDTO;
+      default:
+        return null;
+    }
+  }
+
+  private void writeStringIfPresent(String name, String value) throws IOException {
+    if (isPresent(value)) {
+      generator.writeStringField(name, value);
+    }
+  }
+
+  private static boolean isPresent(String value) {
+    return value != null && !value.isEmpty();
+  }
+}
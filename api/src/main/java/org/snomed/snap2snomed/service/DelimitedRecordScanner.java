@@ -0,0 +1,405 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.snomed.snap2snomed.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Reads the records of an uploaded text/csv, text/tsv or text/plain file in a single pass over its bytes, checking
+ * that they are UTF-8 without control characters as it splits them into fields.
+ *
+ * Records are split as CSVFormat.DEFAULT with the given delimiter splits them: a field starting with a double quote
+ * runs to the closing quote, with a doubled quote standing for one, and may only be followed by whitespace before the
+ * delimiter or line break; a quote anywhere else is part of the field; CR, LF and CRLF end a record and empty lines
+ * are skipped. Without a delimiter each line is one field. Line breaks inside quotes are rejected along with the other
+ * control characters bar tab, as the import has never accepted them in a value.
+ *
+ * A record's fields are left in the read buffer, unquoted in place, and only decoded to a String by get(int), so the
+ * current record is valid until the next call to next().
+ */
+final class DelimitedRecordScanner implements Closeable {
+
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final byte QUOTE = '"';
+  private static final byte CR = '\r';
+  private static final byte LF = '\n';
+  private static final byte TAB = '\t';
+
+  /** Outside the range of a byte, so that no byte is taken for the delimiter */
+  private static final int NO_DELIMITER = 0x100;
+
+  private static final int DELIMITER = 0;
+  private static final int END_OF_RECORD = 1;
+  private static final int END_OF_FILE = 2;
+
+  private final InputStream in;
+  /** The delimiter byte, or NO_DELIMITER to read each line as a single field */
+  private final int delimiter;
+
+  private byte[] buffer;
+  /** Start of the current record in the buffer, field offsets are relative to it so the buffer can be compacted */
+  private int recordStart;
+  private int position;
+  private int limit;
+  private boolean endOfInput;
+
+  private int[] fieldStarts = new int[16];
+  private int[] fieldEnds = new int[16];
+  private int size;
+
+  private long recordNumber;
+  private long lineNumber = 1;
+  private boolean firstLineHasDelimiter;
+
+  DelimitedRecordScanner(InputStream in, Character delimiter) {
+    this(in, delimiter, BUFFER_SIZE);
+  }
+
+  DelimitedRecordScanner(InputStream in, Character delimiter, int bufferSize) {
+    if (delimiter != null) {
+      if (delimiter > 0x7F) {
+        throw new IllegalArgumentException("The delimiter must be an ASCII character: '" + delimiter + "'");
+      }
+      if (delimiter == QUOTE || delimiter == CR || delimiter == LF) {
+        throw new IllegalArgumentException("The delimiter cannot be a quote or a line break");
+      }
+    }
+    this.in = in;
+    this.delimiter = delimiter == null ? NO_DELIMITER : delimiter;
+    this.buffer = new byte[bufferSize];
+  }
+
+  /**
+   * Reads ahead over the first line, checking its characters, without consuming it
+   *
+   * @return false if there is no content at all
+   * @throws InvalidCharacterException if the first line is not UTF-8 or contains a control character
+   */
+  boolean peekFirstLine() throws IOException {
+    int at = position;
+    while (at < limit || fill()) {
+      final byte b = buffer[at];
+      if (b == CR || b == LF) {
+        break;
+      }
+      if (b == delimiter) {
+        firstLineHasDelimiter = true;
+      }
+      at += characterLength(at);
+    }
+    return limit > 0;
+  }
+
+  /**
+   * @return whether the line read by peekFirstLine contains the delimiter, or true when there is no delimiter
+   */
+  boolean firstLineHasDelimiter() {
+    return delimiter == NO_DELIMITER || firstLineHasDelimiter;
+  }
+
+  /**
+   * Moves on to the next record
+   *
+   * @return false at the end of the file
+   * @throws InvalidCharacterException if the record is not UTF-8 or contains a control character
+   * @throws IOException if a quoted field is not closed, or is followed by anything but whitespace before the
+   *     delimiter or line break, as CSVParser would
+   */
+  boolean next() throws IOException {
+    size = 0;
+    recordStart = position;
+    for (;;) {
+      if (position == limit && !fill()) {
+        return false;
+      }
+      final byte b = buffer[position];
+      if (b != CR && b != LF) {
+        break;
+      }
+      skipEndOfLine();
+      recordStart = position;
+    }
+
+    int end;
+    do {
+      if ((position < limit || fill()) && buffer[position] == QUOTE) {
+        end = scanQuoted();
+      } else {
+        end = scanUnquoted();
+      }
+    } while (end == DELIMITER);
+    recordNumber++;
+    return true;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @throws IndexOutOfBoundsException if the record has no field i
+   */
+  String get(int i) {
+    Objects.checkIndex(i, size);
+    return new String(buffer, recordStart + fieldStarts[i], fieldEnds[i] - fieldStarts[i], StandardCharsets.UTF_8);
+  }
+
+  List<String> values() {
+    final List<String> values = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      values.add(get(i));
+    }
+    return values;
+  }
+
+  /**
+   * @return the number of records read so far, counting a header, as CSVParser.getRecordNumber()
+   */
+  long getRecordNumber() {
+    return recordNumber;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private int scanUnquoted() throws IOException {
+    final int start = position - recordStart;
+    for (;;) {
+      if (position == limit && !fill()) {
+        addField(start, position - recordStart);
+        return END_OF_FILE;
+      }
+      final byte b = buffer[position];
+      if (b == delimiter) {
+        addField(start, position++ - recordStart);
+        return DELIMITER;
+      }
+      if (b == CR || b == LF) {
+        addField(start, position - recordStart);
+        skipEndOfLine();
+        return END_OF_RECORD;
+      }
+      position += characterLength(position);
+    }
+  }
+
+  private int scanQuoted() throws IOException {
+    final long startLine = lineNumber;
+    position++;
+    final int start = position - recordStart;
+    // where the next byte of the field goes, behind position once a doubled quote has been read
+    int write = start;
+    for (;;) {
+      if (position == limit && !fill()) {
+        throw new IOException("(startline " + startLine + ") EOF reached before encapsulated token finished");
+      }
+      if (buffer[position] == QUOTE) {
+        if (ensure(position, 2) && buffer[position + 1] == QUOTE) {
+          buffer[recordStart + write++] = QUOTE;
+          position += 2;
+          continue;
+        }
+        position++;
+        addField(start, write);
+        return scanAfterQuote();
+      }
+      final int length = characterLength(position);
+      if (write != position - recordStart) {
+        System.arraycopy(buffer, position, buffer, recordStart + write, length);
+      }
+      write += length;
+      position += length;
+    }
+  }
+
+  private int scanAfterQuote() throws IOException {
+    for (;;) {
+      if (position == limit && !fill()) {
+        return END_OF_FILE;
+      }
+      final byte b = buffer[position];
+      if (b == delimiter) {
+        position++;
+        return DELIMITER;
+      }
+      if (b == CR || b == LF) {
+        skipEndOfLine();
+        return END_OF_RECORD;
+      }
+      final int length = characterLength(position);
+      if (!Character.isWhitespace(codePoint(position, length))) {
+        throw new IOException("(line " + lineNumber + ") invalid char between encapsulated token and delimiter");
+      }
+      position += length;
+    }
+  }
+
+  private void skipEndOfLine() throws IOException {
+    if (buffer[position++] == CR && (position < limit || fill()) && buffer[position] == LF) {
+      position++;
+    }
+    lineNumber++;
+  }
+
+  /**
+   * Checks the character starting at the given buffer index, which may move if the buffer has to be refilled to hold
+   * all of it, so callers go by position or the record start rather than the index they passed.
+   *
+   * @return the number of bytes in the character
+   * @throws InvalidCharacterException for anything other than a well formed UTF-8 sequence or a character from tab
+   *     up that is not a control character, so including line breaks
+   */
+  private int characterLength(int at) throws IOException {
+    final int lead = buffer[at];
+    if (lead >= ' ' || lead == TAB) {
+      return 1;
+    }
+    if (lead >= 0) {
+      throw new InvalidCharacterException(lineNumber);
+    }
+    final int length;
+    int min = 0x80;
+    int max = 0xBF;
+    final int unsignedLead = lead & 0xFF;
+    if (unsignedLead < 0xC2) {
+      // a continuation byte, or the lead of an overlong two byte sequence
+      throw new InvalidCharacterException(lineNumber);
+    } else if (unsignedLead < 0xE0) {
+      length = 2;
+    } else if (unsignedLead < 0xF0) {
+      length = 3;
+      if (unsignedLead == 0xE0) {
+        min = 0xA0;
+      } else if (unsignedLead == 0xED) {
+        // surrogates
+        max = 0x9F;
+      }
+    } else if (unsignedLead < 0xF5) {
+      length = 4;
+      if (unsignedLead == 0xF0) {
+        min = 0x90;
+      } else if (unsignedLead == 0xF4) {
+        // beyond U+10FFFF
+        max = 0x8F;
+      }
+    } else {
+      throw new InvalidCharacterException(lineNumber);
+    }
+
+    final int offset = at - recordStart;
+    if (!ensure(at, length)) {
+      throw new InvalidCharacterException(lineNumber);
+    }
+    final int index = recordStart + offset;
+    final int second = buffer[index + 1] & 0xFF;
+    if (second < min || second > max) {
+      throw new InvalidCharacterException(lineNumber);
+    }
+    for (int i = 2; i < length; i++) {
+      if ((buffer[index + i] & 0xC0) != 0x80) {
+        throw new InvalidCharacterException(lineNumber);
+      }
+    }
+    return length;
+  }
+
+  private int codePoint(int at, int length) {
+    return length == 1 ? buffer[at] : new String(buffer, at, length, StandardCharsets.UTF_8).codePointAt(0);
+  }
+
+  /**
+   * @return whether there are at least length bytes from the given index, refilling the buffer as needed
+   */
+  private boolean ensure(int at, int length) throws IOException {
+    final int offset = at - recordStart;
+    while (limit - recordStart - offset < length) {
+      if (!fill()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads more of the input, moving the current record to the start of the buffer, or growing the buffer when the
+   * record already fills it.
+   *
+   * @return false at the end of the input
+   */
+  private boolean fill() throws IOException {
+    if (endOfInput) {
+      return false;
+    }
+    if (recordStart > 0) {
+      System.arraycopy(buffer, recordStart, buffer, 0, limit - recordStart);
+      position -= recordStart;
+      limit -= recordStart;
+      recordStart = 0;
+    }
+    if (limit == buffer.length) {
+      buffer = Arrays.copyOf(buffer, buffer.length * 2);
+    }
+    int read;
+    do {
+      read = in.read(buffer, limit, buffer.length - limit);
+    } while (read == 0);
+    if (read < 0) {
+      endOfInput = true;
+      return false;
+    }
+    limit += read;
+    return true;
+  }
+
+  private void addField(int start, int end) {
+    if (size == fieldStarts.length) {
+      fieldStarts = Arrays.copyOf(fieldStarts, size * 2);
+      fieldEnds = Arrays.copyOf(fieldEnds, size * 2);
+    }
+    fieldStarts[size] = start;
+    fieldEnds[size] = end;
+    size++;
+  }
+
+  /**
+   * Bytes that are not UTF-8, or a control character other than tab in a record
+   */
+  static final class InvalidCharacterException extends CharacterCodingException {
+
+    private final long line;
+
+    InvalidCharacterException(long line) {
+      this.line = line;
+    }
+
+    @Override
+    public String getMessage() {
+      return "Invalid character on line " + line;
+    }
+  }
+}
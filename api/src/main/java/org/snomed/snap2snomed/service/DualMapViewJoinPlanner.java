@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.snomed.snap2snomed.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Builds the FROM clause of the dual map view native query with only the joins the rest of the statement uses.
+ *
+ * The select list, WHERE and ORDER BY clauses are written against the fixed table aliases below. Every alias they
+ * reference is joined once, along with the aliases its join condition depends on, and everything else is left out.
+ * All optional joins are to at most one row, so leaving them out never changes the rows returned. The join to
+ * map_row_target is always made since it produces a view row per target.
+ */
+final class DualMapViewJoinPlanner {
+
+  static final String MAP_VIEW = "map_view";
+  static final String TARGET = "maprowtarg1_";
+  static final String MAP_ROW = "maprow15_";
+  static final String SOURCE_CODE = "importedco14_";
+  static final String AUTHOR_TASK = "task3_";
+  static final String REVIEW_TASK = "task5_";
+  static final String RECONCILE_TASK = "task7_";
+  static final String LAST_AUTHOR = "user9_";
+  static final String LAST_REVIEWER = "user11_";
+  static final String ASSIGNED_AUTHOR = "assigned_author_user";
+  static final String ASSIGNED_REVIEWER = "assigned_reviewer_user";
+  static final String ASSIGNED_RECONCILER = "assigned_reconciler_user";
+  static final String ADDITIONAL_COLUMN = "additionalColumn";
+
+  @AllArgsConstructor
+  private static class Join {
+    private final String clause;
+    private final List<String> dependsOn;
+    private final Pattern reference;
+  }
+
+  private final java.util.Map<String, Join> joins = new LinkedHashMap<>();
+
+  /**
+   * @param additionalColumnCount number of additional columns of the map's source, joined as additionalColumn1..n
+   */
+  DualMapViewJoinPlanner(int additionalColumnCount) {
+    join(TARGET, "LEFT OUTER JOIN map_row_target " + TARGET + " on (" + TARGET + ".row_id = map_view.map_row_id AND map_view.blind_map_flag = 0)");
+    join(MAP_ROW, "left outer join map_row " + MAP_ROW + " on map_view.map_row_id=" + MAP_ROW + ".id");
+    join(SOURCE_CODE, "left outer join imported_code " + SOURCE_CODE + " on map_view.source_code_id=" + SOURCE_CODE + ".id");
+    join(AUTHOR_TASK, "left outer join task " + AUTHOR_TASK + " on " + MAP_ROW + ".author_task_id=" + AUTHOR_TASK + ".id", MAP_ROW);
+    join(REVIEW_TASK, "left outer join task " + REVIEW_TASK + " on " + MAP_ROW + ".review_task_id=" + REVIEW_TASK + ".id", MAP_ROW);
+    join(RECONCILE_TASK, "left outer join task " + RECONCILE_TASK + " on " + MAP_ROW + ".reconcile_task_id=" + RECONCILE_TASK + ".id", MAP_ROW);
+    join(LAST_AUTHOR, "left outer join `user` " + LAST_AUTHOR + " on " + MAP_ROW + ".`last_author_id`=" + LAST_AUTHOR + ".id", MAP_ROW);
+    join(LAST_REVIEWER, "left outer join `user` " + LAST_REVIEWER + " on " + MAP_ROW + ".`last_reviewer_id`=" + LAST_REVIEWER + ".id", MAP_ROW);
+    join(ASSIGNED_AUTHOR, "left outer join `user` " + ASSIGNED_AUTHOR + " on " + AUTHOR_TASK + ".assignee_id=" + ASSIGNED_AUTHOR + ".id", AUTHOR_TASK);
+    join(ASSIGNED_REVIEWER, "left outer join `user` " + ASSIGNED_REVIEWER + " on " + REVIEW_TASK + ".assignee_id=" + ASSIGNED_REVIEWER + ".id", REVIEW_TASK);
+    join(ASSIGNED_RECONCILER, "left outer join `user` " + ASSIGNED_RECONCILER + " on " + RECONCILE_TASK + ".assignee_id=" + ASSIGNED_RECONCILER + ".id", RECONCILE_TASK);
+    for (int i = 0; i < additionalColumnCount; i++) {
+      final String alias = ADDITIONAL_COLUMN + (i + 1);
+      join(alias, "left outer join imported_code_additional_columns " + alias + " on (map_view.source_code_id = " + alias
+          + ".imported_code_id AND " + alias + ".collection_order = " + i + ")");
+    }
+  }
+
+  private void join(String alias, String clause, String... dependsOn) {
+    joins.put(alias, new Join(clause, Arrays.asList(dependsOn),
+        Pattern.compile("(?<![\\w`])" + Pattern.quote(alias) + "\\.")));
+  }
+
+  /**
+   * FROM clause joining only what the given parts of the statement reference.
+   */
+  String getFromClause(String... statementParts) {
+    final String statement = String.join(" ", statementParts);
+    final Set<String> required = new LinkedHashSet<>();
+    required.add(TARGET);
+    joins.forEach((alias, join) -> {
+      if (join.reference.matcher(statement).find()) {
+        require(alias, required);
+      }
+    });
+
+    final List<String> clauses = new ArrayList<>();
+    clauses.add("FROM map_view_materialized " + MAP_VIEW);
+    // emitted in declaration order, which always places a join after the joins it depends on
+    joins.forEach((alias, join) -> {
+      if (required.contains(alias)) {
+        clauses.add(join.clause);
+      }
+    });
+    return String.join(" ", clauses) + " ";
+  }
+
+  private void require(String alias, Set<String> required) {
+    if (required.add(alias)) {
+      joins.get(alias).dependsOn.forEach(dependency -> require(dependency, required));
+    }
+  }
+}
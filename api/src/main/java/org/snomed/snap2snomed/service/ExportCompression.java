@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.snomed.snap2snomed.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.snomed.snap2snomed.config.Snap2snomedConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import com.github.luben.zstd.ZstdOutputStream;
+
+/**
+ * Compresses export responses with the best encoding the client accepts, zstd or gzip. Compression happens on the
+ * response stream as rows are written, so a compressed export is no more buffered than an uncompressed one.
+ */
+@Component
+public class ExportCompression {
+
+  public static final String ZSTD = "zstd";
+
+  public static final String GZIP = "gzip";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  @Autowired
+  Snap2snomedConfiguration configuration;
+
+  /**
+   * @return ZSTD or GZIP, whichever has the highest quality in the Accept-Encoding header preferring ZSTD, or null
+   *         if the client accepts neither
+   */
+  public String negotiate(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return null;
+    }
+    String encoding = null;
+    double quality = 0;
+    for (String item : acceptEncoding.split(",")) {
+      final String[] parts = item.split(";");
+      final String coding = parts[0].trim().toLowerCase();
+      double q = 1;
+      for (int i = 1; i < parts.length; i++) {
+        final String parameter = parts[i].trim();
+        if (parameter.startsWith("q=")) {
+          try {
+            q = Double.parseDouble(parameter.substring(2));
+          } catch (NumberFormatException e) {
+            q = 0;
+          }
+        }
+      }
+      final String candidate = coding.equals("*") ? GZIP : coding;
+      if ((candidate.equals(ZSTD) || candidate.equals(GZIP)) && q > 0
+          && (q > quality || (q == quality && candidate.equals(ZSTD)))) {
+        encoding = candidate;
+        quality = q;
+      }
+    }
+    return encoding;
+  }
+
+  /**
+   * Sets the Content-Encoding of the response and returns its output stream compressed with the negotiated encoding,
+   * which must be closed to finish the compressed stream.
+   */
+  public OutputStream getOutputStream(HttpServletResponse response, String acceptEncoding) throws IOException {
+    response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    final String encoding = negotiate(acceptEncoding);
+    if (encoding == null) {
+      return response.getOutputStream();
+    }
+    response.setHeader(HttpHeaders.CONTENT_ENCODING, encoding);
+    return compress(response.getOutputStream(), encoding);
+  }
+
+  /**
+   * @param encoding ZSTD or GZIP
+   */
+  public OutputStream compress(OutputStream out, String encoding) throws IOException {
+    if (ZSTD.equals(encoding)) {
+      return new ZstdOutputStream(out, configuration.getExportZstdLevel());
+    }
+    // sync flush, so a flush after the header gets it to the client before the first row is read
+    return new GZIPOutputStream(out, BUFFER_SIZE, true) {
+      {
+        def.setLevel(configuration.getExportGzipLevel());
+      }
+    };
+  }
+}
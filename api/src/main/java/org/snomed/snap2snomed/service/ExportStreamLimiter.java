@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.snomed.snap2snomed.service;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.snomed.snap2snomed.config.Snap2snomedConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.zalando.problem.Problem;
+import org.zalando.problem.Status;
+
+/**
+ * Limits the number of exports and map view streams written straight to a response at once. Each holds a database
+ * connection until the client has read all of it, so without a limit a few slow clients could take every connection
+ * in the pool. Export jobs are limited by their threads instead, see MapExportJobService.
+ */
+@Component
+public class ExportStreamLimiter {
+
+  private final Semaphore permits;
+
+  @Autowired
+  public ExportStreamLimiter(Snap2snomedConfiguration configuration) {
+    permits = new Semaphore(configuration.getExportStreamLimit());
+  }
+
+  /**
+   * @return a permit to close once the response has been written
+   * @throws Problem with status SERVICE_UNAVAILABLE if snap2snomed.exportStreamLimit streams are already being written
+   */
+  public Permit acquire() {
+    if (!permits.tryAcquire()) {
+      throw Problem.valueOf(Status.SERVICE_UNAVAILABLE, "Too many map exports are in progress, try again later");
+    }
+    return new Permit();
+  }
+
+  public class Permit implements AutoCloseable {
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /**
+     * Releases the permit, closing it again does nothing
+     */
+    @Override
+    public void close() {
+      if (released.compareAndSet(false, true)) {
+        permits.release();
+      }
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.snomed.snap2snomed.service;
+
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.jpa.QueryHints;
+
+import com.querydsl.jpa.impl.JPAQuery;
+
+/**
+ * Forward only cursors for reading results too large to hold in memory.
+ *
+ * Connector/J streams a forward only result set a row at a time when given a fetch size of Integer.MIN_VALUE rather
+ * than reading all of it, but no other statement can run on the connection until the result set is closed. A cursor
+ * is read on the connection of the caller's transaction, so nothing else may be read in that transaction while the
+ * cursor is open. Reads that need further queries as they go read in keyset batches instead, see MapExportService.
+ */
+final class ForwardCursors {
+
+  private static final int STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+
+  private ForwardCursors() {
+  }
+
+  /**
+   * Runs the query on the EntityManager, which must be in a transaction, the stream must be closed once read
+   */
+  static <T> Stream<T> stream(EntityManager entityManager, JPAQuery<T> query) {
+    return new JPAQuery<T>(entityManager, query.getMetadata())
+        .setHint(QueryHints.HINT_FETCH_SIZE, STREAMING_FETCH_SIZE)
+        .setHint(QueryHints.HINT_READONLY, true)
+        .stream();
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.snomed.snap2snomed.service;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.snomed.snap2snomed.controller.dto.MappingImportResponse;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * An import of an uploaded file being run by ImportJobService, to be polled for its progress until it has finished.
+ */
+@Getter
+public class ImportJob implements ImportProgress {
+
+  public enum ImportType {
+    CODE_SET,
+    MAPPING
+  }
+
+  public enum JobStatus {
+    QUEUED,
+    RUNNING,
+    COMPLETED,
+    FAILED,
+    CANCELLED
+  }
+
+  public enum Phase {
+    IMPORTING,
+    VALIDATING_TARGETS
+  }
+
+  private final String id;
+
+  private final ImportType type;
+
+  /** Map the mappings are imported into, null for code set imports */
+  private final Long mapId;
+
+  private final String fileName;
+
+  private final Instant created = Instant.now();
+
+  @JsonIgnore
+  private final String owner;
+
+  /** The upload, saved until the import has run */
+  @JsonIgnore
+  private final Path file;
+
+  @Getter(AccessLevel.NONE)
+  private final AtomicLong recordsRead = new AtomicLong();
+
+  @Getter(AccessLevel.NONE)
+  private final AtomicLong rowsInserted = new AtomicLong();
+
+  private volatile JobStatus status = JobStatus.QUEUED;
+
+  private volatile Phase phase;
+
+  /** Set once the job has been asked to stop, a running import stops at its next batch and is rolled back */
+  private volatile boolean cancelRequested;
+
+  private volatile Instant finished;
+
+  private volatile String error;
+
+  private volatile Long importedCodeSetId;
+
+  private volatile MappingImportResponse mappingImport;
+
+  ImportJob(String id, ImportType type, Long mapId, String fileName, String owner, Path file) {
+    this.id = id;
+    this.type = type;
+    this.mapId = mapId;
+    this.fileName = fileName;
+    this.owner = owner;
+    this.file = file;
+  }
+
+  public long getRecordsRead() {
+    return recordsRead.get();
+  }
+
+  public long getRowsInserted() {
+    return rowsInserted.get();
+  }
+
+  @Override
+  public void recordsRead(long records) {
+    checkCancelled();
+    recordsRead.set(records);
+  }
+
+  @Override
+  public void rowsInserted(int rows) {
+    rowsInserted.addAndGet(rows);
+    checkCancelled();
+  }
+
+  @Override
+  public void validatingTargets() {
+    checkCancelled();
+    phase = Phase.VALIDATING_TARGETS;
+  }
+
+  @Override
+  public void checkCancelled() {
+    if (cancelRequested) {
+      throw new CancelledException();
+    }
+  }
+
+  /**
+   * @return false if the job was cancelled while it was queued, and so should not run
+   */
+  synchronized boolean started() {
+    if (status != JobStatus.QUEUED) {
+      return false;
+    }
+    phase = Phase.IMPORTING;
+    status = JobStatus.RUNNING;
+    return true;
+  }
+
+  /**
+   * @return false if the job has already finished
+   */
+  synchronized boolean cancel() {
+    if (status == JobStatus.QUEUED) {
+      cancelRequested = true;
+      finish(JobStatus.CANCELLED);
+    } else if (status == JobStatus.RUNNING) {
+      cancelRequested = true;
+    }
+    return cancelRequested;
+  }
+
+  synchronized void codeSetImported(Long importedCodeSetId) {
+    this.importedCodeSetId = importedCodeSetId;
+    finish(JobStatus.COMPLETED);
+  }
+
+  synchronized void mappingsImported(MappingImportResponse mappingImport) {
+    this.mappingImport = mappingImport;
+    finish(JobStatus.COMPLETED);
+  }
+
+  synchronized void cancelled() {
+    finish(JobStatus.CANCELLED);
+  }
+
+  synchronized void failed(String message) {
+    error = message;
+    finish(JobStatus.FAILED);
+  }
+
+  private void finish(JobStatus status) {
+    finished = Instant.now();
+    this.status = status;
+  }
+}
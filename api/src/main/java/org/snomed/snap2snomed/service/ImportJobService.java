@@ -0,0 +1,227 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.snomed.snap2snomed.service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.snomed.snap2snomed.config.Snap2snomedConfiguration;
+import org.snomed.snap2snomed.controller.dto.ImportDetails;
+import org.snomed.snap2snomed.controller.dto.ImportMappingFileDetails;
+import org.snomed.snap2snomed.problem.auth.NotAuthorisedProblem;
+import org.snomed.snap2snomed.security.AuthenticationFacade;
+import org.snomed.snap2snomed.security.WebSecurity;
+import org.snomed.snap2snomed.service.ImportJob.ImportType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+import org.springframework.stereotype.Component;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+import org.springframework.web.multipart.MultipartFile;
+import org.zalando.problem.Problem;
+import org.zalando.problem.Status;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs code set and mapping file imports in the background with CodeSetImportService, so the request that uploads a
+ * file returns once the file is saved rather than once it is imported.
+ *
+ * Jobs are held in memory and run on a bounded pool of threads, jobs that can't be queued are refused rather than
+ * piling up. A job's upload is deleted once it has run, and the job itself after
+ * snap2snomed.importJobRetentionMinutes.
+ */
+@Slf4j
+@Component
+public class ImportJobService {
+
+  private static final String FILE_SUFFIX = ".upload";
+
+  @FunctionalInterface
+  private interface Importer {
+    void run(ImportJob job, MultipartFile upload) throws HttpMediaTypeNotAcceptableException;
+  }
+
+  @Autowired
+  CodeSetImportService importService;
+
+  @Autowired
+  WebSecurity webSecurity;
+
+  @Autowired
+  AuthenticationFacade authenticationFacade;
+
+  @Autowired
+  Snap2snomedConfiguration configuration;
+
+  private final ConcurrentHashMap<String, ImportJob> jobs = new ConcurrentHashMap<>();
+
+  private ThreadPoolExecutor executor;
+
+  private ScheduledExecutorService cleaner;
+
+  private Path directory;
+
+  @PostConstruct
+  public void start() throws IOException {
+    if (configuration.getImportJobDirectory() != null) {
+      directory = Files.createDirectories(Paths.get(configuration.getImportJobDirectory()));
+      // jobs don't survive a restart, so neither do their uploads
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+        for (Path file : files) {
+          Files.deleteIfExists(file);
+        }
+      }
+    } else {
+      directory = Files.createTempDirectory("snap2snomed-imports");
+    }
+
+    final int threads = configuration.getImportJobThreads();
+    executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(configuration.getImportJobQueueSize()), new CustomizableThreadFactory("import-job-"));
+    cleaner = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("import-job-cleaner-"));
+    cleaner.scheduleWithFixedDelay(this::removeExpiredJobs, 1, 1, TimeUnit.MINUTES);
+  }
+
+  @PreDestroy
+  public void stop() {
+    cleaner.shutdownNow();
+    executor.shutdownNow();
+  }
+
+  /**
+   * Queues an import of a code set, the caller is expected to have checked they are a valid user.
+   *
+   * @throws Problem with status SERVICE_UNAVAILABLE if the queue of import jobs is full
+   */
+  public ImportJob createCodeSetJob(ImportDetails importDetails, MultipartFile file)
+      throws HttpMediaTypeNotAcceptableException {
+    return createJob(ImportType.CODE_SET, null, file,
+        (job, upload) -> job.codeSetImported(importService.importCodeSet(importDetails, upload, job).getId()));
+  }
+
+  /**
+   * Queues an import of a mapping file.
+   *
+   * @throws NotAuthorisedProblem if the caller can't import mappings into the map
+   * @throws Problem with status SERVICE_UNAVAILABLE if the queue of import jobs is full
+   */
+  public ImportJob createMappingJob(ImportMappingFileDetails importDetails, MultipartFile file)
+      throws HttpMediaTypeNotAcceptableException {
+    final Long mapId = importService.checkMappingImport(importDetails).getId();
+    return createJob(ImportType.MAPPING, mapId, file,
+        (job, upload) -> job.mappingsImported(importService.importMappings(importDetails, upload, job)));
+  }
+
+  /**
+   * @throws NotAuthorisedProblem if the job belongs to another user and the caller isn't an admin
+   */
+  public ImportJob getJob(String jobId, ImportType type) {
+    final ImportJob job = jobs.get(jobId);
+    if (job == null || job.getType() != type) {
+      throw Problem.valueOf(Status.NOT_FOUND, "No import job found with id " + jobId);
+    }
+    if (!webSecurity.isAdminUser() && !job.getOwner().equals(authenticationFacade.getPrincipalSubject())) {
+      throw new NotAuthorisedProblem("Not authorised to access an import job started by another user");
+    }
+    return job;
+  }
+
+  /**
+   * Stops the job, a running import stops at its next batch and nothing it has imported is kept.
+   *
+   * @throws Problem with status CONFLICT if the job has already finished
+   */
+  public ImportJob cancelJob(String jobId, ImportType type) {
+    final ImportJob job = getJob(jobId, type);
+    if (!job.cancel()) {
+      throw Problem.valueOf(Status.CONFLICT, "Import job " + jobId + " is " + job.getStatus() + ", it can no longer be cancelled");
+    }
+    return job;
+  }
+
+  private ImportJob createJob(ImportType type, Long mapId, MultipartFile file, Importer importer)
+      throws HttpMediaTypeNotAcceptableException {
+    importService.checkContentType(file);
+    final String id = UUID.randomUUID().toString();
+    final ImportJob job = new ImportJob(id, type, mapId, file.getOriginalFilename(),
+        authenticationFacade.getPrincipalSubject(), directory.resolve(id + FILE_SUFFIX));
+    try {
+      file.transferTo(job.getFile());
+    } catch (IOException e) {
+      log.error("Failed saving the upload of import job " + id, e);
+      deleteFile(job);
+      throw Problem.valueOf(Status.INTERNAL_SERVER_ERROR, "Unable to read the file in the request due to an I/O error");
+    }
+    final MultipartFile upload = new SpooledUpload(file, job.getFile());
+
+    jobs.put(id, job);
+    try {
+      executor.execute(new DelegatingSecurityContextRunnable(() -> run(job, upload, importer)));
+    } catch (RejectedExecutionException e) {
+      jobs.remove(id);
+      deleteFile(job);
+      throw Problem.valueOf(Status.SERVICE_UNAVAILABLE, "Too many imports are in progress, try again later");
+    }
+    return job;
+  }
+
+  private void run(ImportJob job, MultipartFile upload, Importer importer) {
+    try {
+      if (job.started()) {
+        importer.run(job, upload);
+      }
+    } catch (ImportProgress.CancelledException e) {
+      log.info("Import job " + job.getId() + " cancelled");
+      job.cancelled();
+    } catch (Exception e) {
+      log.error("Import job " + job.getId() + " of " + job.getType() + " failed", e);
+      job.failed(e.getMessage());
+    } finally {
+      deleteFile(job);
+    }
+  }
+
+  private void removeExpiredJobs() {
+    final Instant expiry = Instant.now().minus(Duration.ofMinutes(configuration.getImportJobRetentionMinutes()));
+    jobs.values().removeIf(job -> job.getFinished() != null && job.getFinished().isBefore(expiry));
+  }
+
+  private void deleteFile(ImportJob job) {
+    try {
+      Files.deleteIfExists(job.getFile());
+    } catch (IOException e) {
+      log.warn("Failed to delete the upload of import job " + job.getId(), e);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.snomed.snap2snomed.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the reading stage of an import, parsing and validating a file into batches, on a thread of its own while the
+ * calling thread writes the batches already read.
+ *
+ * The writing stage stays on the calling thread as it owns the transaction and connection the batches are inserted
+ * with. The reading stage runs at most QUEUE_CAPACITY batches ahead of it, and whichever stage fails first stops the
+ * other, a reading failure being rethrown to the caller as it was thrown.
+ */
+final class ImportPipeline {
+
+  /** Batches the reading stage may get ahead of the writing stage by */
+  static final int QUEUE_CAPACITY = 2;
+
+  private static final Object END = new Object();
+
+  @FunctionalInterface
+  interface Reader<T> {
+    void read(BatchSink<T> sink) throws IOException;
+  }
+
+  @FunctionalInterface
+  interface BatchSink<T> {
+    /**
+     * Hands a batch to the writing stage, waiting while it is QUEUE_CAPACITY batches behind
+     *
+     * @throws InterruptedIOException if the writing stage has stopped
+     */
+    void put(List<T> batch) throws InterruptedIOException;
+  }
+
+  @FunctionalInterface
+  interface Writer<T> {
+    void write(List<T> batch);
+  }
+
+  private static final class Failure {
+    private final Throwable cause;
+
+    private Failure(Throwable cause) {
+      this.cause = cause;
+    }
+  }
+
+  private ImportPipeline() {
+  }
+
+  @SuppressWarnings("unchecked")
+  static <T> void run(ExecutorService executor, Reader<T> reader, Writer<T> writer) throws IOException {
+    final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    final Future<?> reading = executor.submit(() -> read(reader, queue));
+    try {
+      for (Object item = queue.take(); item != END; item = queue.take()) {
+        if (item instanceof Failure) {
+          rethrow(((Failure) item).cause);
+        }
+        writer.write((List<T>) item);
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for the import file to be read");
+    } finally {
+      // a no-op once the reading stage has finished, otherwise it stops at its next batch
+      reading.cancel(true);
+    }
+  }
+
+  private static <T> void read(Reader<T> reader, BlockingQueue<Object> queue) {
+    Object last;
+    try {
+      reader.read(batch -> put(queue, batch));
+      last = END;
+    } catch (IOException | RuntimeException | Error e) {
+      if (Thread.currentThread().isInterrupted()) {
+        // the writing stage has stopped and will take nothing more
+        return;
+      }
+      last = new Failure(e);
+    }
+    try {
+      put(queue, last);
+    } catch (final InterruptedIOException e) {
+      // as above
+    }
+  }
+
+  private static void put(BlockingQueue<Object> queue, Object item) throws InterruptedIOException {
+    try {
+      queue.put(item);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Import cancelled");
+    }
+  }
+
+  private static void rethrow(Throwable cause) throws IOException {
+    if (cause instanceof IOException) {
+      throw (IOException) cause;
+    } else if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    }
+    throw (Error) cause;
+  }
+}
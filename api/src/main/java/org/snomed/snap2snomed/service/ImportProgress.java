@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.snomed.snap2snomed.service;
+
+/**
+ * Told of the progress of an import by CodeSetImportService. Any callback may stop the import by throwing
+ * CancelledException, which rolls back its transaction.
+ */
+public interface ImportProgress {
+
+  ImportProgress NONE = new ImportProgress() {
+  };
+
+  class CancelledException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CancelledException() {
+      super("Import cancelled");
+    }
+  }
+
+  /**
+   * Called from the thread reading the file as each batch is read
+   *
+   * @param records total number of records read so far
+   */
+  default void recordsRead(long records) {
+  }
+
+  /**
+   * @param rows number of rows in the batch just inserted
+   */
+  default void rowsInserted(int rows) {
+  }
+
+  /**
+   * Called once a mapping file is inserted, before its targets are validated against the terminology server
+   */
+  default void validatingTargets() {
+  }
+
+  /**
+   * Called after steps that report no progress, such as validating targets, in case the import should stop
+   */
+  default void checkCancelled() {
+  }
+}
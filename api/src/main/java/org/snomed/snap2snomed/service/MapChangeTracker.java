@@ -0,0 +1,115 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.snomed.snap2snomed.service;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Keeps a per map change counter which is incremented whenever the rows of a map, their targets or the tasks they
+ * are assigned to change. Anything derived from a map's rows can record the version it was computed at and treat
+ * itself as stale once the version moves on.
+ *
+ * The counter is incremented when the change is made and again when the transaction making it completes, so a value
+ * computed by a concurrent reader before the commit can't be cached against the post-commit version.
+ *
+ * Users are shown in the view of every map they author or review, so a change to any user moves on a separate users
+ * counter which is part of each map's view version, see getViewVersion. Counts of a map's rows don't depend on users
+ * and use the map's own version.
+ */
+@Component
+public class MapChangeTracker {
+
+  private final ConcurrentHashMap<Long, AtomicLong> versions = new ConcurrentHashMap<>();
+
+  /** Distinguishes this instance's versions from those handed out before a restart, when counting began again */
+  private final String epoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+  private final AtomicLong usersVersion = new AtomicLong();
+
+  public long getVersion(Long mapId) {
+    final AtomicLong version = versions.get(mapId);
+    return version == null ? 0 : version.get();
+  }
+
+  /**
+   * Version of everything shown in the map's view, that is the map's version moved on by changes to users as well.
+   * Both counters only increase, so their sum never repeats.
+   */
+  public long getViewVersion(Long mapId) {
+    return getVersion(mapId) + usersVersion.get();
+  }
+
+  /**
+   * The map's view version qualified by this instance's epoch, a value that is never repeated for different view
+   * contents and so can be handed to clients, for example as an ETag.
+   */
+  public String getVersionTag(Long mapId) {
+    return epoch + "-" + getViewVersion(mapId);
+  }
+
+  public void mapChanged(Long mapId) {
+    if (mapId == null) {
+      return;
+    }
+    increment(mapId);
+
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      @SuppressWarnings("unchecked")
+      Set<Long> changedMaps = (Set<Long>) TransactionSynchronizationManager.getResource(this);
+      if (changedMaps == null) {
+        // register a single synchronization per transaction however many rows it changes
+        final Set<Long> maps = new HashSet<>();
+        TransactionSynchronizationManager.bindResource(this, maps);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+          @Override
+          public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(MapChangeTracker.this);
+            maps.forEach(MapChangeTracker.this::increment);
+          }
+        });
+        changedMaps = maps;
+      }
+      changedMaps.add(mapId);
+    }
+  }
+
+  /**
+   * Records that a user has been created or changed, such as by a change of name
+   */
+  public void userChanged() {
+    usersVersion.incrementAndGet();
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          usersVersion.incrementAndGet();
+        }
+      });
+    }
+  }
+
+  private void increment(Long mapId) {
+    versions.computeIfAbsent(mapId, id -> new AtomicLong()).incrementAndGet();
+  }
+}
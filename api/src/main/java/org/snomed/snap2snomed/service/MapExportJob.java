@@ -0,0 +1,114 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.snomed.snap2snomed.service;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * An export of a map being written to a file by MapExportJobService, to be downloaded once it has finished.
+ */
+@Getter
+public class MapExportJob {
+
+  public enum JobStatus {
+    QUEUED,
+    RUNNING,
+    COMPLETED,
+    FAILED
+  }
+
+  private final String id;
+
+  private final Long mapId;
+
+  private final String contentType;
+
+  private final String fileName;
+
+  /**
+   * Number of rows the export is expected to write, the rows of the filtered map view or the members of an RF2 refset.
+   * Taken from a cached count of the view when the job is created if there is one, otherwise null until counted when
+   * the job starts.
+   */
+  private volatile Long estimatedTotal;
+
+  private final Instant created = Instant.now();
+
+  @JsonIgnore
+  private final String owner;
+
+  @JsonIgnore
+  private final Path file;
+
+  @Getter(AccessLevel.NONE)
+  private final AtomicLong rowsWritten = new AtomicLong();
+
+  private volatile JobStatus status = JobStatus.QUEUED;
+
+  private volatile Instant finished;
+
+  private volatile Long fileSize;
+
+  private volatile String error;
+
+  MapExportJob(String id, Long mapId, String contentType, String fileName, Long estimatedTotal, String owner,
+      Path file) {
+    this.id = id;
+    this.mapId = mapId;
+    this.contentType = contentType;
+    this.fileName = fileName;
+    this.estimatedTotal = estimatedTotal;
+    this.owner = owner;
+    this.file = file;
+  }
+
+  public long getRowsWritten() {
+    return rowsWritten.get();
+  }
+
+  void rowWritten() {
+    rowsWritten.incrementAndGet();
+  }
+
+  void estimated(long total) {
+    estimatedTotal = total;
+  }
+
+  void started() {
+    status = JobStatus.RUNNING;
+  }
+
+  void completed(long size) {
+    fileSize = size;
+    finished = Instant.now();
+    status = JobStatus.COMPLETED;
+  }
+
+  void failed(String message) {
+    error = message;
+    finished = Instant.now();
+    status = JobStatus.FAILED;
+  }
+}
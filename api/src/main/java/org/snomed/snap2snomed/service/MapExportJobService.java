@@ -0,0 +1,218 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.snomed.snap2snomed.service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.snomed.snap2snomed.config.Snap2snomedConfiguration;
+import org.snomed.snap2snomed.controller.MapViewRestController;
+import org.snomed.snap2snomed.problem.auth.NotAuthorisedProblem;
+import org.snomed.snap2snomed.security.AuthenticationFacade;
+import org.snomed.snap2snomed.security.WebSecurity;
+import org.snomed.snap2snomed.service.MapExportJob.JobStatus;
+import org.snomed.snap2snomed.service.MapViewService.MapViewFilter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+import org.springframework.stereotype.Component;
+import org.zalando.problem.Problem;
+import org.zalando.problem.Status;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs map exports in the background, writing each to a file that can be downloaded once the export has finished.
+ *
+ * Jobs are held in memory and run on a bounded pool of threads, jobs that can't be queued are refused rather than
+ * piling up. Finished jobs and their files are removed after snap2snomed.exportJobRetentionMinutes.
+ */
+@Slf4j
+@Component
+public class MapExportJobService {
+
+  private static final String FILE_SUFFIX = ".export";
+
+  @Autowired
+  MapExportWriter mapExportWriter;
+
+  @Autowired
+  MapViewService mapViewService;
+
+  @Autowired
+  MapViewCountService mapViewCountService;
+
+  @Autowired
+  MapExportService mapExportService;
+
+  @Autowired
+  WebSecurity webSecurity;
+
+  @Autowired
+  AuthenticationFacade authenticationFacade;
+
+  @Autowired
+  Snap2snomedConfiguration configuration;
+
+  private final ConcurrentHashMap<String, MapExportJob> jobs = new ConcurrentHashMap<>();
+
+  private ThreadPoolExecutor executor;
+
+  private ScheduledExecutorService cleaner;
+
+  private Path directory;
+
+  @PostConstruct
+  public void start() throws IOException {
+    if (configuration.getExportJobDirectory() != null) {
+      directory = Files.createDirectories(Paths.get(configuration.getExportJobDirectory()));
+      // jobs don't survive a restart, so neither do their files
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+        for (Path file : files) {
+          Files.deleteIfExists(file);
+        }
+      }
+    } else {
+      directory = Files.createTempDirectory("snap2snomed-exports");
+    }
+
+    final int threads = configuration.getExportJobThreads();
+    executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(configuration.getExportJobQueueSize()), new CustomizableThreadFactory("map-export-"));
+    cleaner = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("map-export-cleaner-"));
+    cleaner.scheduleWithFixedDelay(this::removeExpiredJobs, 1, 1, TimeUnit.MINUTES);
+  }
+
+  @PreDestroy
+  public void stop() {
+    cleaner.shutdownNow();
+    executor.shutdownNow();
+  }
+
+  /**
+   * Queues an export of the map, the caller is expected to have checked they can view the map.
+   *
+   * @param filter limits the export to the rows of the map view matching the filter, or null for all rows
+   * @throws Problem with status SERVICE_UNAVAILABLE if the queue of export jobs is full
+   */
+  public MapExportJob createJob(Long mapId, String contentType, List<String> extraColumns,
+      Rf2RefsetWriter.Options rf2Options, MapViewFilter filter) {
+    final String fileName = mapViewService.getFileNameForMapExport(mapId, contentType);
+    final String id = UUID.randomUUID().toString();
+    // counting can take as long as a page of the view, so it's left to the job unless the view's count is cached
+    final Long estimatedTotal = MapViewRestController.RF2_ZIP.equals(contentType) ? null
+        : mapViewCountService.getCachedCount(mapId, null, filter);
+    final MapExportJob job = new MapExportJob(id, mapId, contentType, fileName, estimatedTotal,
+        authenticationFacade.getPrincipalSubject(), directory.resolve(id + FILE_SUFFIX));
+
+    jobs.put(id, job);
+    try {
+      executor.execute(new DelegatingSecurityContextRunnable(() -> run(job, extraColumns, rf2Options, filter)));
+    } catch (RejectedExecutionException e) {
+      jobs.remove(id);
+      throw Problem.valueOf(Status.SERVICE_UNAVAILABLE, "Too many map exports are in progress, try again later");
+    }
+    return job;
+  }
+
+  /**
+   * @throws NotAuthorisedProblem if the job belongs to another user and the caller isn't an admin
+   */
+  public MapExportJob getJob(String jobId) {
+    final MapExportJob job = jobs.get(jobId);
+    if (job == null) {
+      throw Problem.valueOf(Status.NOT_FOUND, "No export job found with id " + jobId);
+    }
+    if (!webSecurity.isAdminUser() && !job.getOwner().equals(authenticationFacade.getPrincipalSubject())) {
+      throw new NotAuthorisedProblem("Not authorised to access an export job started by another user");
+    }
+    return job;
+  }
+
+  /**
+   * @return the job, which has completed and has a file ready to download
+   * @throws Problem with status CONFLICT if the job hasn't completed
+   */
+  public MapExportJob getCompletedJob(String jobId) {
+    final MapExportJob job = getJob(jobId);
+    if (job.getStatus() != JobStatus.COMPLETED) {
+      throw Problem.valueOf(Status.CONFLICT, "Export job " + jobId + " is " + job.getStatus() + ", not COMPLETED");
+    }
+    return job;
+  }
+
+  private void run(MapExportJob job, List<String> extraColumns, Rf2RefsetWriter.Options rf2Options,
+      MapViewFilter filter) {
+    job.started();
+    try {
+      if (job.getEstimatedTotal() == null) {
+        job.estimated(MapViewRestController.RF2_ZIP.equals(job.getContentType())
+            ? mapExportService.countRefsetExport(job.getMapId(), filter)
+            : mapViewService.getMapResultsCount(job.getMapId(), filter));
+      }
+      // the export reads in a transaction of its own, so the job needn't hold a connection for it
+      try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(job.getFile()))) {
+        mapExportWriter.write(job.getMapId(), job.getContentType(), extraColumns, rf2Options, filter, out,
+            job::rowWritten);
+      }
+      job.completed(Files.size(job.getFile()));
+    } catch (Exception e) {
+      log.error("Export job " + job.getId() + " for map " + job.getMapId() + " failed", e);
+      deleteFile(job);
+      job.failed(e.getMessage());
+    }
+  }
+
+  private void removeExpiredJobs() {
+    final Instant expiry = Instant.now().minus(Duration.ofMinutes(configuration.getExportJobRetentionMinutes()));
+    jobs.values().removeIf(job -> {
+      if (job.getFinished() != null && job.getFinished().isBefore(expiry)) {
+        deleteFile(job);
+        return true;
+      }
+      return false;
+    });
+  }
+
+  private void deleteFile(MapExportJob job) {
+    try {
+      Files.deleteIfExists(job.getFile());
+    } catch (IOException e) {
+      log.warn("Failed to delete file of export job " + job.getId(), e);
+    }
+  }
+}
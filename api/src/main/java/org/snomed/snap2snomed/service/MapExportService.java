@@ -0,0 +1,421 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.snomed.snap2snomed.service;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+
+import org.snomed.snap2snomed.controller.dto.MapExportRow;
+import org.snomed.snap2snomed.model.Map;
+import org.snomed.snap2snomed.model.QAdditionalCodeValue;
+import org.snomed.snap2snomed.model.QImportedCode;
+import org.snomed.snap2snomed.model.QMapRow;
+import org.snomed.snap2snomed.model.QMapRowTarget;
+import org.snomed.snap2snomed.model.QNote;
+import org.snomed.snap2snomed.model.QTask;
+import org.snomed.snap2snomed.model.QUser;
+import org.snomed.snap2snomed.model.enumeration.MapStatus;
+import org.snomed.snap2snomed.model.enumeration.NoteCategory;
+import org.snomed.snap2snomed.repository.MapRepository;
+import org.snomed.snap2snomed.service.MapViewService.MapViewFilter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.zalando.problem.Problem;
+import org.zalando.problem.Status;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.NumberExpression;
+import com.querydsl.jpa.impl.JPAQuery;
+
+/**
+ * Reads the rows of a map export without building MapViews or loading any entities.
+ *
+ * The rows are read as tuples holding the source code, target and user names, in source order, a batch at a time with
+ * keyset paging. The additional column values and notes of each batch are read by two further queries for the batch's
+ * source codes and rows, so memory use doesn't grow with the size of the map. The whole export is read in one read
+ * only transaction, so it is consistent and ties up a single connection however many queries it takes.
+ *
+ * Only the columns an export asks for are read, see ExportColumn. An export of just the source, target and
+ * relationship is a single query per batch with none of the task and user joins.
+ */
+@Component
+public class MapExportService {
+
+  private static final int EXPORT_BATCH_SIZE = 1000;
+
+  @Autowired
+  EntityManager entityManager;
+
+  @Autowired
+  PlatformTransactionManager transactionManager;
+
+  @Autowired
+  MapRepository mapRepository;
+
+  private final QMapRow mapRow = QMapRow.mapRow;
+  private final QMapRowTarget mapTarget = QMapRowTarget.mapRowTarget;
+  private final QImportedCode sourceCode = QImportedCode.importedCode;
+  private final QAdditionalCodeValue additionalColumn = new QAdditionalCodeValue("additionalColumn");
+  private final QNote note = QNote.note;
+  private final QTask authorTask = new QTask("authorTask");
+  private final QTask reviewTask = new QTask("reviewTask");
+  private final QUser authorAssignee = new QUser("authorAssignee");
+  private final QUser reviewAssignee = new QUser("reviewAssignee");
+  private final QUser lastAuthor = new QUser("lastAuthor");
+  private final QUser lastReviewer = new QUser("lastReviewer");
+  private final QUser noteBy = new QUser("noteBy");
+  private final NumberExpression<Integer> additionalColumnIndex =
+      Expressions.numberTemplate(Integer.class, "index({0})", additionalColumn);
+
+  /**
+   * Columns of the export that cost more than the source and target to read. Only the requested ones are read, and
+   * the joins and queries for the others are left out.
+   */
+  public enum ExportColumn {
+    /** Values of the source code set's additional columns, read by a second query for each batch of rows */
+    ADDITIONAL_COLUMNS,
+    /** Appended notes, read by a third query for each batch of rows */
+    NOTES,
+    ASSIGNED_AUTHOR,
+    ASSIGNED_REVIEWER,
+    LAST_AUTHOR,
+    LAST_REVIEWER;
+
+    /**
+     * The columns for the extraColumns parameter of the export endpoints, ignoring any it doesn't know as
+     * getExportHeader does
+     */
+    public static EnumSet<ExportColumn> of(List<String> extraColumns) {
+      final EnumSet<ExportColumn> columns = EnumSet.noneOf(ExportColumn.class);
+      if (extraColumns != null) {
+        for (String extraColumn : extraColumns) {
+          for (ExportColumn column : values()) {
+            if (column.name().replace("_", "").equals(extraColumn.toUpperCase())) {
+              columns.add(column);
+            }
+          }
+        }
+      }
+      return columns;
+    }
+  }
+
+  /**
+   * Passes the rows of the map's export to consumer in source order, with every column. These are the rows of the map
+   * view, except that in dual map mode both authors' rows are exported and only user notes are appended, newest first.
+   */
+  public void streamExport(Long mapId, Consumer<MapExportRow> consumer) {
+    streamExport(mapId, null, EnumSet.allOf(ExportColumn.class), consumer);
+  }
+
+  /**
+   * As streamExport, limited to the rows matching filter if it isn't null and reading only the requested columns.
+   * The source, target, relationship, no map flag and status of each row are always read, the other fields of the
+   * rows passed to consumer are null unless their column is requested.
+   */
+  public void streamExport(Long mapId, MapViewFilter filter, Set<ExportColumn> columns,
+      Consumer<MapExportRow> consumer) {
+    readOnly(() -> {
+      final Map map = mapRepository.findById(mapId)
+          .orElseThrow(() -> Problem.valueOf(Status.NOT_FOUND, "No Map found with id " + mapId));
+      final boolean dualMapMode = map.getProject().getDualMapMode();
+      final JPAQuery<Tuple> rowQuery = getRowQuery(map, dualMapMode, filter, columns);
+
+      List<Tuple> rows;
+      Tuple last = null;
+      do {
+        JPAQuery<Tuple> batchQuery = rowQuery.clone(entityManager);
+        if (last != null) {
+          batchQuery = batchQuery.where(getRowsAfter(last));
+        }
+        rows = batchQuery.limit(EXPORT_BATCH_SIZE).fetch();
+
+        final java.util.Map<Long, List<String>> additionalColumns = columns.contains(ExportColumn.ADDITIONAL_COLUMNS)
+            ? getAdditionalColumns(rows)
+            : java.util.Map.of();
+        final java.util.Map<Long, List<String>> notes = columns.contains(ExportColumn.NOTES)
+            ? getNotes(rows, dualMapMode)
+            : java.util.Map.of();
+        for (final Tuple row : rows) {
+          final MapExportRow exportRow = toExportRow(row, columns);
+          if (columns.contains(ExportColumn.ADDITIONAL_COLUMNS)) {
+            exportRow.setAdditionalColumns(additionalColumns.get(row.get(sourceCode.id)));
+          }
+          if (columns.contains(ExportColumn.NOTES)) {
+            exportRow.setAppendedNotes(String.join("", notes.getOrDefault(row.get(mapRow.id), List.of())));
+          }
+          consumer.accept(exportRow);
+        }
+        last = rows.isEmpty() ? null : rows.get(rows.size() - 1);
+      } while (rows.size() == EXPORT_BATCH_SIZE);
+    });
+  }
+
+  /**
+   * Rows following the last row of a batch in the order of getRowQuery. A row without targets has just the one row
+   * with a null target id, so only rows with targets are followed by more rows of the same map row.
+   */
+  private BooleanExpression getRowsAfter(Tuple last) {
+    final Long index = last.get(sourceCode.index);
+    final Long sourceId = last.get(sourceCode.id);
+    final Long rowId = last.get(mapRow.id);
+    final Long targetId = last.get(mapTarget.id);
+
+    final BooleanExpression sameSource = sourceCode.index.eq(index).and(sourceCode.id.eq(sourceId));
+    BooleanExpression after = sourceCode.index.gt(index)
+        .or(sourceCode.index.eq(index).and(sourceCode.id.gt(sourceId)))
+        .or(sameSource.and(mapRow.id.gt(rowId)));
+    if (targetId != null) {
+      after = after.or(sameSource.and(mapRow.id.eq(rowId)).and(mapTarget.id.gt(targetId)));
+    }
+    return after;
+  }
+
+  /**
+   * Additional column values of the source codes of the rows, in column order, by source code id
+   */
+  private java.util.Map<Long, List<String>> getAdditionalColumns(List<Tuple> rows) {
+    final Set<Long> sourceIds = rows.stream().map(row -> row.get(sourceCode.id)).collect(Collectors.toSet());
+    if (sourceIds.isEmpty()) {
+      return java.util.Map.of();
+    }
+    return new JPAQuery<Tuple>(entityManager)
+        .select(sourceCode.id, additionalColumn.value)
+        .from(sourceCode)
+        .join(sourceCode.additionalColumns, additionalColumn)
+        .where(sourceCode.id.in(sourceIds))
+        .orderBy(sourceCode.id.asc(), additionalColumnIndex.asc())
+        .fetch().stream()
+        .collect(Collectors.groupingBy(column -> column.get(sourceCode.id),
+            Collectors.mapping(column -> column.get(additionalColumn.value), Collectors.toList())));
+  }
+
+  /**
+   * Appended notes of the rows, by map row id
+   */
+  private java.util.Map<Long, List<String>> getNotes(List<Tuple> rows, boolean dualMapMode) {
+    final Set<Long> rowIds = rows.stream().map(row -> row.get(mapRow.id)).collect(Collectors.toSet());
+    if (rowIds.isEmpty()) {
+      return java.util.Map.of();
+    }
+    return getNoteQuery(rowIds, dualMapMode).fetch().stream()
+        .collect(Collectors.groupingBy(n -> n.get(mapRow.id),
+            Collectors.mapping(n -> n.get(note.created) + " " + getFullName(n, noteBy) + " " + n.get(note.noteText) + ";",
+                Collectors.toList())));
+  }
+
+  /**
+   * Runs the read in a read only transaction, joining the caller's if there is one
+   */
+  private void readOnly(Runnable read) {
+    final TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    transactionTemplate.setReadOnly(true);
+    transactionTemplate.executeWithoutResult(status -> read.run());
+  }
+
+  /**
+   * Passes the mapped rows of the map to consumer in refset order, that is by target code then source code. Only rows
+   * whose authoring is complete are passed, so rows without a target, no map rows, blind dual map rows and rows still
+   * in draft or reconciliation are left out. Only the source, target, relationship and status of each row are read.
+   *
+   * @param filter limits the rows to those matching the filter if it isn't null
+   */
+  public void streamRefsetExport(Long mapId, MapViewFilter filter, Consumer<MapExportRow> consumer) {
+    final JPAQuery<Tuple> query = getRefsetQuery(mapId, filter)
+        .orderBy(mapTarget.targetCode.asc(), sourceCode.code.asc(), mapTarget.id.asc());
+
+    readOnly(() -> {
+      try (Stream<Tuple> rows = ForwardCursors.stream(entityManager, query)) {
+        rows.forEach(row -> {
+          final MapExportRow exportRow = new MapExportRow();
+          exportRow.setRowId(row.get(mapRow.id));
+          exportRow.setSourceIndex(row.get(sourceCode.index));
+          exportRow.setSourceCode(row.get(sourceCode.code));
+          exportRow.setSourceDisplay(row.get(sourceCode.display));
+          exportRow.setTargetCode(row.get(mapTarget.targetCode));
+          exportRow.setTargetDisplay(row.get(mapTarget.targetDisplay));
+          exportRow.setRelationship(row.get(mapTarget.relationship));
+          exportRow.setNoMap(false);
+          exportRow.setStatus(row.get(mapRow.status));
+          consumer.accept(exportRow);
+        });
+      }
+    });
+  }
+
+  /**
+   * Number of rows streamRefsetExport passes for the map and filter. Rf2RefsetWriter makes a member of almost all of
+   * them, so this is the size of the refset to within the few rows it skips.
+   */
+  public long countRefsetExport(Long mapId, MapViewFilter filter) {
+    return getRefsetQuery(mapId, filter).clone(entityManager).fetchCount();
+  }
+
+  /**
+   * The members of the refset export, unordered
+   */
+  private JPAQuery<Tuple> getRefsetQuery(Long mapId, MapViewFilter filter) {
+    final Map map = mapRepository.findById(mapId)
+        .orElseThrow(() -> Problem.valueOf(Status.NOT_FOUND, "No Map found with id " + mapId));
+
+    JPAQuery<Tuple> query = new JPAQuery<Tuple>()
+        .select(sourceCode.index, sourceCode.code, sourceCode.display, mapRow.id, mapRow.status,
+            mapTarget.targetCode, mapTarget.targetDisplay, mapTarget.relationship)
+        .from(mapRow)
+        .join(mapRow.sourceCode, sourceCode)
+        .join(mapTarget).on(mapTarget.row.eq(mapRow))
+        .where(mapRow.map.id.eq(map.getId()), mapRow.noMap.isFalse(), mapTarget.targetCode.isNotNull())
+        // blind dual map rows and rows still being authored or reconciled are not yet part of the map to release
+        .where(mapRow.blindMapFlag.isFalse(), mapRow.status.in(MapStatus.getCompletedAuthorStatuses()));
+    if (filter != null) {
+      final BooleanExpression filterExpression = filter.getExpression(false);
+      if (filterExpression != null) {
+        query = query.where(filterExpression);
+      }
+    }
+    return query;
+  }
+
+  /**
+   * The export rows, joining only the users of the requested columns
+   */
+  private JPAQuery<Tuple> getRowQuery(Map map, boolean dualMapMode, MapViewFilter filter, Set<ExportColumn> columns) {
+    final List<Expression<?>> select = new ArrayList<>(List.of(sourceCode.index, sourceCode.id, mapRow.id, mapTarget.id,
+        sourceCode.code, sourceCode.display, mapTarget.targetCode, mapTarget.targetDisplay, mapTarget.relationship,
+        mapRow.noMap, mapRow.status));
+    for (QUser user : getUsers(columns)) {
+      select.addAll(List.of(user.id, user.givenName, user.familyName));
+    }
+
+    JPAQuery<Tuple> query = new JPAQuery<Tuple>()
+        .select(select.toArray(new Expression<?>[0]))
+        .from(mapRow)
+        .join(mapRow.sourceCode, sourceCode)
+        .leftJoin(mapTarget).on(mapTarget.row.eq(mapRow));
+    if (columns.contains(ExportColumn.ASSIGNED_AUTHOR)) {
+      query = query.leftJoin(mapRow.authorTask, authorTask).leftJoin(authorTask.assignee, authorAssignee);
+    }
+    if (columns.contains(ExportColumn.ASSIGNED_REVIEWER)) {
+      query = query.leftJoin(mapRow.reviewTask, reviewTask).leftJoin(reviewTask.assignee, reviewAssignee);
+    }
+    if (columns.contains(ExportColumn.LAST_AUTHOR)) {
+      query = query.leftJoin(mapRow.lastAuthor, lastAuthor);
+    }
+    if (columns.contains(ExportColumn.LAST_REVIEWER)) {
+      query = query.leftJoin(mapRow.lastReviewer, lastReviewer);
+    }
+    query = query.where(mapRow.map.id.eq(map.getId()));
+    if (!dualMapMode) {
+      query = query.where(mapRow.blindMapFlag.eq(false));
+    }
+    if (filter != null) {
+      final BooleanExpression filterExpression = filter.getExpression(false);
+      if (filterExpression != null) {
+        query = query.where(filterExpression);
+      }
+    }
+    return query.orderBy(sourceCode.index.asc(), sourceCode.id.asc(), mapRow.id.asc(), mapTarget.id.asc());
+  }
+
+  /**
+   * Non deleted notes of the rows, in the order MapViewPageLoader appends them to the view
+   */
+  private JPAQuery<Tuple> getNoteQuery(Set<Long> rowIds, boolean dualMapMode) {
+    JPAQuery<Tuple> query = new JPAQuery<Tuple>(entityManager)
+        .select(mapRow.id, note.created, note.noteText, noteBy.id, noteBy.givenName, noteBy.familyName)
+        .from(note)
+        .join(note.mapRow, mapRow)
+        .join(note.noteBy, noteBy)
+        .where(mapRow.id.in(rowIds).and(note.deleted.isFalse()));
+    if (dualMapMode) {
+      query = query.where(note.category.eq(NoteCategory.USER))
+          .orderBy(note.created.desc(), note.modified.desc(), note.id.desc());
+    } else {
+      query = query.orderBy(note.modified.desc(), note.created.desc(), note.id.desc());
+    }
+    return query;
+  }
+
+  /**
+   * The user aliases joined by the row query for the requested columns
+   */
+  private List<QUser> getUsers(Set<ExportColumn> columns) {
+    final List<QUser> users = new ArrayList<>();
+    if (columns.contains(ExportColumn.ASSIGNED_AUTHOR)) {
+      users.add(authorAssignee);
+    }
+    if (columns.contains(ExportColumn.ASSIGNED_REVIEWER)) {
+      users.add(reviewAssignee);
+    }
+    if (columns.contains(ExportColumn.LAST_AUTHOR)) {
+      users.add(lastAuthor);
+    }
+    if (columns.contains(ExportColumn.LAST_REVIEWER)) {
+      users.add(lastReviewer);
+    }
+    return users;
+  }
+
+  private MapExportRow toExportRow(Tuple row, Set<ExportColumn> columns) {
+    final MapExportRow exportRow = new MapExportRow();
+    exportRow.setRowId(row.get(mapRow.id));
+    exportRow.setSourceIndex(row.get(sourceCode.index));
+    exportRow.setSourceCode(row.get(sourceCode.code));
+    exportRow.setSourceDisplay(row.get(sourceCode.display));
+    exportRow.setTargetCode(row.get(mapTarget.targetCode));
+    exportRow.setTargetDisplay(row.get(mapTarget.targetDisplay));
+    exportRow.setRelationship(row.get(mapTarget.relationship));
+    exportRow.setNoMap(row.get(mapRow.noMap));
+    exportRow.setStatus(row.get(mapRow.status));
+    if (columns.contains(ExportColumn.ASSIGNED_AUTHOR)) {
+      exportRow.setAssignedAuthor(getFullName(row, authorAssignee));
+    }
+    if (columns.contains(ExportColumn.ASSIGNED_REVIEWER)) {
+      exportRow.setAssignedReviewer(getFullName(row, reviewAssignee));
+    }
+    if (columns.contains(ExportColumn.LAST_AUTHOR)) {
+      exportRow.setLastAuthor(getFullName(row, lastAuthor));
+    }
+    if (columns.contains(ExportColumn.LAST_REVIEWER)) {
+      exportRow.setLastReviewer(getFullName(row, lastReviewer));
+    }
+    return exportRow;
+  }
+
+  /**
+   * As User.getFullName, for a user read as part of a tuple
+   */
+  private String getFullName(Tuple tuple, QUser user) {
+    if (tuple.get(user.id) == null) {
+      return null;
+    }
+    return tuple.get(user.givenName) + " " + tuple.get(user.familyName);
+  }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.snomed.snap2snomed.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.poi.xssf.streaming.SXSSFCell;
+import org.apache.poi.xssf.streaming.SXSSFRow;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.hl7.fhir.r4.model.ConceptMap;
+import org.hl7.fhir.r4.model.ConceptMap.ConceptMapGroupComponent;
+import org.hl7.fhir.r4.model.Enumerations.PublicationStatus;
+import org.hl7.fhir.r4.model.UriType;
+import org.snomed.snap2snomed.config.Snap2snomedConfiguration;
+import org.snomed.snap2snomed.controller.MapViewRestController;
+import org.snomed.snap2snomed.controller.dto.MapExportRow;
+import org.snomed.snap2snomed.model.ImportedCodeSet;
+import org.snomed.snap2snomed.model.Map;
+import org.snomed.snap2snomed.model.Project;
+import org.snomed.snap2snomed.problem.BadRequestDataProblem;
+import org.snomed.snap2snomed.repository.MapRepository;
+import org.snomed.snap2snomed.service.Rf2RefsetWriter.RefsetType;
+import org.snomed.snap2snomed.service.MapExportService.ExportColumn;
+import org.snomed.snap2snomed.service.MapViewService.MapViewFilter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.zalando.problem.Problem;
+import org.zalando.problem.Status;
+
+import ca.uhn.fhir.parser.IParser;
+
+/**
+ * Writes map exports in each of the export formats of MapViewRestController, for both its download endpoints and
+ * export jobs. Rows are written as MapExportService reads them, so nothing is held in memory beyond the current row
+ * and, for XLSX, the workbook's window of rows.
+ */
+@Component
+public class MapExportWriter {
+
+  @Autowired
+  MapExportService mapExportService;
+
+  @Autowired
+  MapViewService mapViewService;
+
+  @Autowired
+  TerminologyProvider terminology;
+
+  @Autowired
+  private MapRepository mapRepo;
+
+  @Autowired
+  Snap2snomedConfiguration configuration;
+
+  /**
+   * Writes the map's export to out as contentType, one of the export content types of MapViewRestController.
+   *
+   * @param extraColumns additional columns of the CSV, TSV and XLSX formats, see getExportHeader
+   * @param rf2Options the refset to write for the RF2 format, see getRf2Options
+   * @param filter limits the export to the rows of the map view matching the filter, or null for all rows
+   * @param onRow if not null, called as each row is written
+   */
+  public void write(Long mapId, String contentType, List<String> extraColumns, Rf2RefsetWriter.Options rf2Options,
+      MapViewFilter filter, OutputStream out, Runnable onRow) throws IOException {
+    switch (contentType) {
+      case MapViewRestController.TEXT_CSV:
+        writeCsv(mapId, CSVFormat.DEFAULT, extraColumns, filter, out, onRow);
+        break;
+
+      case MapViewRestController.TEXT_TSV:
+        writeCsv(mapId, CSVFormat.TDF, extraColumns, filter, out, onRow);
+        break;
+
+      case MapViewRestController.APPLICATION_XSLX:
+        writeXlsx(mapId, extraColumns, filter, out, onRow);
+        break;
+
+      case MapViewRestController.FHIR_JSON:
+        writeFhir(mapId, filter, out, onRow);
+        break;
+
+      case MapViewRestController.RF2_ZIP:
+        if (rf2Options == null) {
+          throw new BadRequestDataProblem("RF2 export requires a refsetId and moduleId");
+        }
+        writeRf2(mapId, rf2Options, filter, out, onRow);
+        break;
+
+      default:
+        throw Problem.valueOf(Status.UNSUPPORTED_MEDIA_TYPE, "Content type " + contentType + " is not supported for map export");
+    }
+  }
+
+  private void writeCsv(Long mapId, CSVFormat format, List<String> extraColumns, MapViewFilter filter,
+      OutputStream out, Runnable onRow) throws IOException {
+    try (BufferedWriter writer = new BufferedWriter(
+        new OutputStreamWriter(out));
+
+        CSVPrinter csvPrinter = new CSVPrinter(writer,
+            format.builder().setHeader(mapViewService.getExportHeader(mapId, extraColumns)).build());) {
+      
+      // the header goes out before the first row is read
+      csvPrinter.flush();
+      streamExport(mapId, filter, getTabularColumns(extraColumns), onRow, exportRow -> {
+        try {
+          csvPrinter.printRecord(getCsvRecord(exportRow, extraColumns));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      csvPrinter.flush();
+      writer.flush();
+    } catch (final UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private List<Object> getCsvRecord(MapExportRow mapView, List<String> extraColumns) {
+    ArrayList<Object> printRow = new ArrayList<Object>(Arrays.asList(mapView.getSourceCode(), mapView.getSourceDisplay()));
+
+    // additional source columns
+    if (mapView.getAdditionalColumns() != null) {
+        printRow.addAll(mapView.getAdditionalColumns());
+    }
+
+    printRow.addAll(Arrays.asList(mapView.getTargetCode(), mapView.getTargetDisplay(),
+        mapView.getRelationship(), mapView.getRelationship() == null ? "" : mapView.getRelationship().getLabel(),
+        mapView.getNoMap() == null ? "" : mapView.getNoMap(),
+        mapView.getStatus()));
+
+    if (extraColumns != null && extraColumns.size() > 0) {
+        for (String extraColumn : extraColumns) {
+            switch (extraColumn.toUpperCase()) {
+                case "NOTES":
+                    printRow.add(mapView.getAppendedNotes());
+                    break;
+                case "ASSIGNEDAUTHOR":
+                    printRow.add(mapView.getAssignedAuthor() == null ? "" : mapView.getAssignedAuthor());
+                    break;
+                case "ASSIGNEDREVIEWER":
+                    printRow.add(mapView.getAssignedReviewer() == null ? "" : mapView.getAssignedReviewer());
+                    break;
+                case "LASTAUTHOR":
+                    printRow.add(mapView.getLastAuthor() == null ? "" : mapView.getLastAuthor());
+                    break;
+                case "LASTREVIEWER":
+                    printRow.add(mapView.getLastReviewer() == null ? "" : mapView.getLastReviewer());
+                    break;
+            }
+        }
+    }
+    return printRow;
+  }
+
+  private void writeXlsx(Long mapId, List<String> extraColumns, MapViewFilter filter, OutputStream out,
+      Runnable onRow) throws IOException {
+    try (SXSSFWorkbook wb = new SXSSFWorkbook(10000)) {
+
+      final SXSSFSheet sh = wb.createSheet();
+      final SXSSFRow header = sh.createRow(0);
+
+      final String[] exportHeader = mapViewService.getExportHeader(mapId, extraColumns);
+
+      for (int cellNum = 0; cellNum < exportHeader.length; cellNum++) {
+        final SXSSFCell cell = header.createCell(cellNum);
+        cell.setCellValue(exportHeader[cellNum]);
+      }
+
+      final AtomicInteger rownum = new AtomicInteger(1);
+      streamExport(mapId, filter, getTabularColumns(extraColumns), onRow, mapView -> {
+        final SXSSFRow row = sh.createRow(rownum.getAndIncrement());
+
+        SXSSFCell cell = row.createCell(0);
+        cell.setCellValue(mapView.getSourceCode());
+
+        cell = row.createCell(1);
+        cell.setCellValue(mapView.getSourceDisplay());
+
+        int cellCount = 2;
+        // additional source columns
+        if (mapView.getAdditionalColumns() != null) {
+            for (final String additionalColumn : mapView.getAdditionalColumns()) {
+                cell = row.createCell(cellCount);
+                cell.setCellValue(additionalColumn);
+                cellCount++;
+            }
+        }
+
+        cell = row.createCell(cellCount);
+        cell.setCellValue(mapView.getTargetCode());
+        cellCount++;
+
+        cell = row.createCell(cellCount);
+        cell.setCellValue(mapView.getTargetDisplay());
+        cellCount++;
+
+        cell = row.createCell(cellCount);
+        cell.setCellValue(mapView.getRelationship() == null ? "" : mapView.getRelationship().toString());
+        cellCount++;
+
+        cell = row.createCell(cellCount);
+        cell.setCellValue(mapView.getRelationship() == null ? "" : mapView.getRelationship().getLabel());
+        cellCount++;
+
+        cell = row.createCell(cellCount);
+        if (mapView.getNoMap() != null) {
+          cell.setCellValue(mapView.getNoMap());
+        }
+        cellCount++;
+
+        cell = row.createCell(cellCount);
+        cell.setCellValue(mapView.getStatus() == null ? "" : mapView.getStatus().toString());
+        cellCount++;
+
+        if (extraColumns != null && extraColumns.size() > 0) {
+            for (String extraColumn : extraColumns) {
+                cell = row.createCell(cellCount);
+                switch (extraColumn.toUpperCase()) {
+                    case "NOTES":
+                        cell.setCellValue(mapView.getAppendedNotes());
+                        break;
+                    case "ASSIGNEDAUTHOR":
+                        cell.setCellValue(mapView.getAssignedAuthor() == null ? "" : mapView.getAssignedAuthor());
+                        break;
+                    case "ASSIGNEDREVIEWER":
+                        cell.setCellValue(mapView.getAssignedReviewer() == null ? "" : mapView.getAssignedReviewer());
+                        break;
+                    case "LASTAUTHOR":
+                        cell.setCellValue(mapView.getLastAuthor() == null ? "" : mapView.getLastAuthor());
+                        break;
+                    case "LASTREVIEWER":
+                        cell.setCellValue(mapView.getLastReviewer() == null ? "" : mapView.getLastReviewer());
+                        break;
+                }
+                cellCount++;
+            }
+        }
+
+      });
+      wb.write(out);
+
+      wb.dispose();
+    }
+  }
+
+  private void writeFhir(Long mapId, MapViewFilter filter, OutputStream out, Runnable onRow) throws IOException {
+    try (final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out))) {
+      final IParser parser = terminology.getFhirContext().newJsonParser();
+      try (final ConceptMapStreamWriter conceptMapWriter = new ConceptMapStreamWriter(writer, parser,
+          getConceptMapHeader(mapId))) {
+        // a ConceptMap has only the source and targets
+        streamExport(mapId, filter, EnumSet.noneOf(ExportColumn.class), onRow, exportRow -> {
+          try {
+            conceptMapWriter.write(exportRow);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+      }
+      writer.flush();
+    } catch (final UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * The map's ConceptMap without its elements, which ConceptMapStreamWriter adds as the rows are read
+   */
+  private ConceptMap getConceptMapHeader(Long mapId) {
+      final ConceptMap cm = new ConceptMap();
+      final ConceptMapGroupComponent group = cm.addGroup();
+
+      mapRepo.findById(mapId).ifPresent(map -> {
+          final Project project = map.getProject();
+          final String title = project.getTitle();
+          cm.setStatus(PublicationStatus.UNKNOWN);
+          cm.setDate(Date.from(map.getModified()));
+          cm.setTitle(title);
+          cm.setName(title.replaceAll("[^\\w\\d]", "_"));
+          cm.setDescription(project.getDescription());
+          cm.setVersion(map.getMapVersion());
+
+          final ImportedCodeSet source = map.getSource();
+          String valuesetUri = source.getValuesetUri();
+          if (null != valuesetUri) {
+              cm.setSource(new UriType(valuesetUri));
+          }
+
+          final String ecl = map.getToScope();
+          cm.setTarget(new UriType(FhirService.DEFAULT_CODE_SYSTEM + "?fhir_vs=ecl/" + ecl));
+
+          String systemUri = source.getSystemUri();
+          if (null != systemUri) {
+              group.setSource(systemUri);
+          }
+          group.setSourceVersion(source.getVersion());
+          group.setTarget(FhirService.DEFAULT_CODE_SYSTEM);
+          group.setTargetVersion(map.getToVersion());
+      });
+      return cm;
+  }
+
+  /**
+   * Options for an RF2 export of the map, the effective time defaulting to the date the map was last modified
+   *
+   * @param effectiveTime yyyyMMdd, or null
+   */
+  public Rf2RefsetWriter.Options getRf2Options(Long mapId, RefsetType refsetType, String refsetId, String moduleId,
+      String effectiveTime) {
+    if (effectiveTime == null) {
+      final Map map = mapRepo.findById(mapId)
+          .orElseThrow(() -> Problem.valueOf(Status.NOT_FOUND, "No Map found with id " + mapId));
+      effectiveTime = DateTimeFormatter.BASIC_ISO_DATE.withZone(ZoneOffset.UTC).format(map.getModified());
+    }
+    return new Rf2RefsetWriter.Options(refsetType, refsetId, moduleId, effectiveTime);
+  }
+
+  private void writeRf2(Long mapId, Rf2RefsetWriter.Options options, MapViewFilter filter, OutputStream out,
+      Runnable onRow) throws IOException {
+    try (final Rf2RefsetWriter refsetWriter = new Rf2RefsetWriter(out, options, configuration.getExportGzipLevel())) {
+      mapExportService.streamRefsetExport(mapId, filter, exportRow -> {
+        final boolean written;
+        try {
+          written = refsetWriter.write(exportRow);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        // rows that don't make a member, such as a repeated target, aren't counted
+        if (written && onRow != null) {
+          onRow.run();
+        }
+      });
+    } catch (final UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Columns read for the CSV, TSV and XLSX formats, which always have the additional columns
+   */
+  private Set<ExportColumn> getTabularColumns(List<String> extraColumns) {
+    final Set<ExportColumn> columns = ExportColumn.of(extraColumns);
+    columns.add(ExportColumn.ADDITIONAL_COLUMNS);
+    return columns;
+  }
+
+  private void streamExport(Long mapId, MapViewFilter filter, Set<ExportColumn> columns, Runnable onRow,
+      Consumer<MapExportRow> consumer) {
+    mapExportService.streamExport(mapId, filter, columns, onRow == null ? consumer : exportRow -> {
+      consumer.accept(exportRow);
+      onRow.run();
+    });
+  }
+}
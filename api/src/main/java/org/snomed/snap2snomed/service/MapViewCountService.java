@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.snomed.snap2snomed.service;
+
+import java.util.LinkedHashMap;
+import java.util.function.Supplier;
+
+import org.snomed.snap2snomed.config.Snap2snomedConfiguration;
+import org.snomed.snap2snomed.service.MapViewService.MapViewFilter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import lombok.Value;
+
+/**
+ * Caches map view total counts per map, task and filter so paging through a filtered map doesn't re-run the count
+ * query for every page. Entries are tagged with the {@link MapChangeTracker} version of the map they were computed
+ * at and ignored once any row of the map changes.
+ */
+@Component
+public class MapViewCountService {
+
+  @Value
+  private static class CountKey {
+    Long mapId;
+    Long taskId;
+    MapViewFilter filter;
+  }
+
+  @Value
+  private static class CachedCount {
+    long version;
+    long count;
+  }
+
+  @Autowired
+  MapChangeTracker mapChangeTracker;
+
+  private final LinkedHashMap<CountKey, CachedCount> counts;
+
+  @Autowired
+  public MapViewCountService(Snap2snomedConfiguration configuration) {
+    final int maximumEntries = configuration.getMapViewCountCacheSize();
+    counts = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(java.util.Map.Entry<CountKey, CachedCount> eldest) {
+        return size() > maximumEntries;
+      }
+    };
+  }
+
+  /**
+   * @return the cached count for the map view, or null if there isn't a current one
+   */
+  public Long getCachedCount(Long mapId, Long taskId, MapViewFilter filter) {
+    final CountKey key = new CountKey(mapId, taskId, filter);
+    final long version = mapChangeTracker.getVersion(mapId);
+    synchronized (counts) {
+      final CachedCount cached = counts.get(key);
+      if (cached != null && cached.getVersion() == version) {
+        return cached.getCount();
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Returns the cached count for the map view, calculating and caching it with the supplied counter if there isn't a
+   * current one.
+   */
+  public long getCount(Long mapId, Long taskId, MapViewFilter filter, Supplier<Long> counter) {
+    // read the version before counting, a change made while counting leaves the entry already stale
+    final long version = mapChangeTracker.getVersion(mapId);
+    final CountKey key = new CountKey(mapId, taskId, filter);
+    synchronized (counts) {
+      final CachedCount cached = counts.get(key);
+      if (cached != null && cached.getVersion() == version) {
+        return cached.getCount();
+      }
+    }
+
+    final long count = counter.get();
+    synchronized (counts) {
+      counts.put(key, new CachedCount(version, count));
+    }
+    return count;
+  }
+}
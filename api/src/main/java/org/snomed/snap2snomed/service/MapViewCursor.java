@@ -0,0 +1,116 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.snomed.snap2snomed.service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.snomed.snap2snomed.problem.BadRequestDataProblem;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Opaque keyset ("seek") pagination token for the map view.
+ *
+ * Holds the values of the active sort key for the last row of a page, followed by the map_row.id and
+ * map_row_target.id tiebreakers. The next page is then read with a "rows after this key" predicate
+ * rather than an OFFSET, so reading deep into a map costs the same as reading the first page.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MapViewCursor {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  /** Values of the requested sort fields for the last row, in sort order. */
+  private List<Object> values = new ArrayList<>();
+
+  private Long rowId;
+
+  private Long targetId;
+
+  public String encode() {
+    try {
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(MAPPER.writeValueAsBytes(this));
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to encode map view cursor", e);
+    }
+  }
+
+  public static MapViewCursor decode(String token) {
+    try {
+      final MapViewCursor cursor = MAPPER.readValue(Base64.getUrlDecoder().decode(token), MapViewCursor.class);
+      if (cursor.getValues() == null || cursor.getRowId() == null) {
+        throw new BadRequestDataProblem("Invalid map view 'after' token");
+      }
+      return cursor;
+    } catch (IOException | IllegalArgumentException e) {
+      throw new BadRequestDataProblem("Invalid map view 'after' token");
+    }
+  }
+
+  /**
+   * Normalises a sort key value read from a row into something that survives a JSON round trip.
+   */
+  public static Object toCursorValue(Object value) {
+    if (value instanceof Instant || value instanceof ZonedDateTime) {
+      return value.toString();
+    } else if (value instanceof Enum) {
+      return ((Enum<?>) value).name();
+    }
+    return value;
+  }
+
+  /**
+   * Converts a value read back from a token into the java type of the sort expression it will be compared with.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public static Object fromCursorValue(Object value, Class<?> type) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      if (String.class.equals(type)) {
+        return value.toString();
+      } else if (Long.class.equals(type)) {
+        return ((Number) value).longValue();
+      } else if (Integer.class.equals(type)) {
+        return ((Number) value).intValue();
+      } else if (Double.class.equals(type)) {
+        return ((Number) value).doubleValue();
+      } else if (Boolean.class.equals(type)) {
+        return (Boolean) value;
+      } else if (Instant.class.equals(type) || ZonedDateTime.class.equals(type)) {
+        return Instant.parse(value.toString());
+      } else if (type.isEnum()) {
+        return Enum.valueOf((Class<Enum>) type, value.toString());
+      }
+    } catch (RuntimeException e) {
+      throw new BadRequestDataProblem("Invalid map view 'after' token");
+    }
+    return value;
+  }
+}
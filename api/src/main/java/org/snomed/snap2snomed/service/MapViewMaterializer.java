@@ -0,0 +1,158 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.snomed.snap2snomed.service;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.ActionQueue;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.snomed.snap2snomed.model.Map;
+import org.snomed.snap2snomed.repository.DbMapViewRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Keeps the map_view_materialized table, read by the dual map view, in step with map_row.
+ *
+ * Changes are collected for the duration of the transaction and the affected rows are rebuilt just before it
+ * commits, so the table is updated atomically with the rows it is derived from and a row saved several times in one
+ * request is only rebuilt once. Single row edits rebuild only the rows for that source code, bulk changes rebuild
+ * the whole map.
+ *
+ * The rebuild is queued on the Hibernate session rather than as a Spring transaction synchronization. Most row changes
+ * are only flushed, and so reported by the entity listener, once the commit has begun and Spring has already run its
+ * before commit callbacks, whereas Hibernate runs its queued processes after that final flush.
+ */
+@Component
+public class MapViewMaterializer {
+
+  /**
+   * Beyond this many changed source codes in one map a single rebuild of the map is cheaper than one per code.
+   */
+  static final int MAX_SOURCE_CODE_REFRESHES = 100;
+
+  private static class PendingChanges {
+    final Set<Long> maps = new HashSet<>();
+    final java.util.Map<Long, Set<Long>> sourceCodes = new HashMap<>();
+
+    boolean isEmpty() {
+      return maps.isEmpty() && sourceCodes.isEmpty();
+    }
+  }
+
+  @Autowired
+  DbMapViewRepository dbMapViewRepository;
+
+  @PersistenceContext
+  private EntityManager em;
+
+  /**
+   * Records that the map row for the source code in the map has changed, including being created or deleted.
+   */
+  public void rowChanged(Long mapId, Long sourceCodeId) {
+    if (mapId == null || sourceCodeId == null) {
+      return;
+    }
+    final PendingChanges pending = getPendingChanges();
+    if (pending == null) {
+      refreshSourceCode(mapId, sourceCodeId);
+    } else if (!pending.maps.contains(mapId)) {
+      pending.sourceCodes.computeIfAbsent(mapId, id -> new HashSet<>()).add(sourceCodeId);
+    }
+  }
+
+  /**
+   * Records that rows of the map have been changed in bulk, typically by a @Modifying query.
+   */
+  public void mapChanged(Long mapId) {
+    if (mapId == null) {
+      return;
+    }
+    final PendingChanges pending = getPendingChanges();
+    if (pending == null) {
+      refreshMap(mapId);
+    } else {
+      pending.maps.add(mapId);
+      pending.sourceCodes.remove(mapId);
+    }
+  }
+
+  private PendingChanges getPendingChanges() {
+    if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+      return null;
+    }
+    PendingChanges pending = (PendingChanges) TransactionSynchronizationManager.getResource(this);
+    if (pending == null) {
+      final PendingChanges changes = new PendingChanges();
+      TransactionSynchronizationManager.bindResource(this, changes);
+      final ActionQueue actionQueue = em.unwrap(SessionImplementor.class).getActionQueue();
+      actionQueue.registerProcess((BeforeTransactionCompletionProcess) session -> apply(changes));
+      actionQueue.registerProcess((AfterTransactionCompletionProcess) (success, session) ->
+          TransactionSynchronizationManager.unbindResourceIfPossible(this));
+      pending = changes;
+    }
+    return pending;
+  }
+
+  private void apply(PendingChanges pending) {
+    // flushing can report further row changes, so keep going until nothing is outstanding
+    em.flush();
+    while (!pending.isEmpty()) {
+      final Set<Long> maps = new HashSet<>(pending.maps);
+      final java.util.Map<Long, Set<Long>> sourceCodes = new HashMap<>(pending.sourceCodes);
+      pending.maps.clear();
+      pending.sourceCodes.clear();
+
+      maps.forEach(this::refreshMap);
+      sourceCodes.forEach((mapId, codes) -> {
+        if (codes.size() > MAX_SOURCE_CODE_REFRESHES) {
+          refreshMap(mapId);
+        } else {
+          codes.forEach(code -> refreshSourceCode(mapId, code));
+        }
+      });
+      em.flush();
+    }
+  }
+
+  private void refreshMap(Long mapId) {
+    dbMapViewRepository.deleteByMapId(mapId);
+    if (isDualMap(mapId)) {
+      dbMapViewRepository.materializeMap(mapId);
+    }
+  }
+
+  private void refreshSourceCode(Long mapId, Long sourceCodeId) {
+    if (isDualMap(mapId)) {
+      dbMapViewRepository.deleteBySourceCode(mapId, sourceCodeId);
+      dbMapViewRepository.materializeSourceCode(mapId, sourceCodeId);
+    }
+  }
+
+  private boolean isDualMap(Long mapId) {
+    final Map map = em.find(Map.class, mapId);
+    return map != null && map.getProject() != null && Boolean.TRUE.equals(map.getProject().getDualMapMode());
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.snomed.snap2snomed.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.snomed.snap2snomed.config.Snap2snomedConfiguration;
+import org.snomed.snap2snomed.controller.dto.MappedRowDetailsDto;
+import org.snomed.snap2snomed.model.AdditionalCodeColumn;
+import org.snomed.snap2snomed.model.MapView;
+import org.snomed.snap2snomed.service.MapViewService.MapViewFilter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+
+import lombok.Value;
+
+/**
+ * Caches recently read map view pages so a page requested again before anything in the map changes is served without
+ * reading the database. Like {@link MapViewCountService}, entries are tagged with the {@link MapChangeTracker} version
+ * of the map they were read at and ignored once the version moves on. The view version is used, which also moves on
+ * when a user is changed, so a renamed author or reviewer isn't served from the cache under their old name.
+ *
+ * Only the data read for a page is cached, the page's model and links are built from it for each request so they
+ * reflect that request. The cache is bounded by the number of rows its pages hold as well as by the number of pages,
+ * so a few very large pages can't fill the heap, and a page with more rows than the whole cache may hold is not
+ * cached at all.
+ *
+ * Callers must have checked the user may view the map, cached pages are shared between users.
+ */
+@Component
+public class MapViewPageCache {
+
+  @Value
+  private static class PageKey {
+    Long mapId;
+    Long taskId;
+    MapViewFilter filter;
+    Pageable pageable;
+    String after;
+    boolean deferCount;
+  }
+
+  /**
+   * The data read for a page of the map view
+   */
+  @Value
+  public static class PageData {
+    List<MapView> rows;
+    /** Total number of rows in the view, null if the count was deferred */
+    Long total;
+    List<MappedRowDetailsDto> sourceDetails;
+    List<AdditionalCodeColumn> additionalColumns;
+    /** Keyset paging token for the following page, null when not keyset paging or on the last page */
+    String after;
+  }
+
+  @Value
+  private static class CachedPage {
+    long version;
+    PageData page;
+  }
+
+  @Autowired
+  MapChangeTracker mapChangeTracker;
+
+  private final LinkedHashMap<PageKey, CachedPage> pages = new LinkedHashMap<>(16, 0.75f, true);
+
+  private final int maximumEntries;
+
+  private final int maximumRows;
+
+  /** Rows held by the cached pages, guarded by pages */
+  private long cachedRows;
+
+  @Autowired
+  public MapViewPageCache(Snap2snomedConfiguration configuration) {
+    maximumEntries = configuration.getMapViewPageCacheSize();
+    maximumRows = configuration.getMapViewPageCacheRows();
+  }
+
+  /**
+   * Returns the cached page, reading and caching it with the supplied loader if there isn't a current one.
+   */
+  public PageData getPage(Long mapId, Long taskId, MapViewFilter filter, Pageable pageable, String after,
+      boolean deferCount, Supplier<PageData> loader) {
+    // read the version before loading, a change made while loading leaves the entry already stale
+    final long version = mapChangeTracker.getViewVersion(mapId);
+    final PageKey key = new PageKey(mapId, taskId, filter, pageable, after, deferCount);
+    synchronized (pages) {
+      final CachedPage cached = pages.get(key);
+      if (cached != null && cached.getVersion() == version) {
+        return cached.getPage();
+      }
+    }
+
+    final PageData page = loader.get();
+    if (page.getRows().size() <= maximumRows) {
+      synchronized (pages) {
+        final CachedPage replaced = pages.put(key, new CachedPage(version, page));
+        if (replaced != null) {
+          cachedRows -= replaced.getPage().getRows().size();
+        }
+        cachedRows += page.getRows().size();
+        evict();
+      }
+    }
+    return page;
+  }
+
+  /**
+   * Drops the least recently used pages until the cache is within its bounds, called holding the lock on pages
+   */
+  private void evict() {
+    final Iterator<CachedPage> eldest = pages.values().iterator();
+    while ((pages.size() > maximumEntries || cachedRows > maximumRows) && eldest.hasNext()) {
+      cachedRows -= eldest.next().getPage().getRows().size();
+      eldest.remove();
+    }
+  }
+}
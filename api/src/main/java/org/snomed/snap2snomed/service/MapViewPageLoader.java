@@ -0,0 +1,283 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.snomed.snap2snomed.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+
+import org.snomed.snap2snomed.model.AdditionalCodeValue;
+import org.snomed.snap2snomed.model.MapView;
+import org.snomed.snap2snomed.model.QAdditionalCodeValue;
+import org.snomed.snap2snomed.model.QImportedCode;
+import org.snomed.snap2snomed.model.QMapRow;
+import org.snomed.snap2snomed.model.QMapRowTarget;
+import org.snomed.snap2snomed.model.QNote;
+import org.snomed.snap2snomed.model.QTask;
+import org.snomed.snap2snomed.model.QUser;
+import org.snomed.snap2snomed.model.User;
+import org.snomed.snap2snomed.model.enumeration.NoteCategory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.NumberExpression;
+import com.querydsl.core.types.dsl.StringPath;
+import com.querydsl.jpa.impl.JPAQuery;
+
+/**
+ * Completes a page of map view rows that were read as a flat projection of row id, target id, latest note and status.
+ *
+ * Building a MapView from MapRow and MapRowTarget entities walks the row's notes, source code, additional columns,
+ * target tags and task assignees, each a lazy load per row on top of the eagerly loaded targets of every row. This
+ * instead reads everything the page needs with one query per kind of data, keyed on the ids in the page, so the number
+ * of statements doesn't grow with the page size.
+ */
+@Component
+public class MapViewPageLoader {
+
+  /**
+   * The MapView variant being built, matching the MapView entity constructors.
+   */
+  public enum Mode {
+    SINGLE_MAP,
+    DUAL_MAP_VIEW,
+    DUAL_MAP_TASK
+  }
+
+  @Autowired
+  EntityManager entityManager;
+
+  private final QMapRow mapRow = QMapRow.mapRow;
+  private final QMapRowTarget mapTarget = QMapRowTarget.mapRowTarget;
+  private final QImportedCode sourceCode = QImportedCode.importedCode;
+  private final QNote note = QNote.note;
+  private final QUser user = QUser.user;
+  private final QTask task = QTask.task;
+
+  /**
+   * Fills in the page's views in place.
+   *
+   * @param views views holding rowId, targetId, latestNote and, for the dual map view, the blended status
+   * @param siblingAuthorTaskIds author task of the sibling row keyed by row id, dual map view only
+   */
+  public void load(List<MapView> views, java.util.Map<Long, Long> siblingAuthorTaskIds, Mode mode) {
+    if (views.isEmpty()) {
+      return;
+    }
+    final Set<Long> rowIds = views.stream().map(MapView::getRowId).collect(Collectors.toSet());
+    final Set<Long> targetIds = views.stream().map(MapView::getTargetId).filter(Objects::nonNull).collect(Collectors.toSet());
+
+    final java.util.Map<Long, Tuple> rows = getRows(rowIds);
+    final java.util.Map<Long, Tuple> targets = new HashMap<>();
+    final java.util.Map<Long, Set<String>> tags = new HashMap<>();
+    getTargets(targetIds, targets, tags);
+    final java.util.Map<Long, List<AdditionalCodeValue>> additionalColumns = getAdditionalColumns(
+        rows.values().stream().map(row -> row.get(sourceCode.id)).collect(Collectors.toSet()));
+    final java.util.Map<Long, List<Tuple>> notes = getNotes(rowIds, mode);
+    final java.util.Map<Long, String> siblingAssignees = siblingAuthorTaskIds == null || siblingAuthorTaskIds.isEmpty()
+        ? new HashMap<>() : getTaskAssignees(new HashSet<>(siblingAuthorTaskIds.values()));
+
+    final Set<String> userIds = new HashSet<>(siblingAssignees.values());
+    for (final Tuple row : rows.values()) {
+      userIds.add(row.get(2, String.class));
+      userIds.add(row.get(3, String.class));
+      userIds.add(row.get(4, String.class));
+      userIds.add(row.get(mapRow.lastAuthor.id));
+      userIds.add(row.get(mapRow.lastReviewer.id));
+    }
+    notes.values().forEach(rowNotes -> rowNotes.forEach(n -> userIds.add(n.get(note.noteBy.id))));
+    final java.util.Map<String, User> users = getUsers(userIds);
+
+    for (final MapView view : views) {
+      final Tuple row = rows.get(view.getRowId());
+      if (row == null) {
+        // deleted since the page was read
+        continue;
+      }
+      final boolean blind = mode == Mode.DUAL_MAP_VIEW && Boolean.TRUE.equals(row.get(mapRow.blindMapFlag));
+      final String authorAssignee = row.get(2, String.class);
+      final Long authorTaskId = row.get(5, Long.class);
+
+      view.setSourceId(row.get(sourceCode.id));
+      view.setSourceIndex(row.get(sourceCode.index));
+      view.setSourceCode(row.get(sourceCode.code));
+      view.setSourceDisplay(row.get(sourceCode.display));
+
+      if (blind) {
+        view.setNoMap(false);
+        view.setLatestNote(null);
+      } else {
+        view.setNoMap(row.get(mapRow.noMap));
+        view.setLastAuthor(users.get(row.get(mapRow.lastAuthor.id)));
+        view.setLastReviewer(users.get(row.get(mapRow.lastReviewer.id)));
+      }
+
+      if (mode != Mode.DUAL_MAP_VIEW || view.getStatus() == null) {
+        view.setStatus(row.get(mapRow.status));
+      }
+
+      if (authorTaskId != null) {
+        final List<User> assignedAuthor = new ArrayList<>();
+        assignedAuthor.add(users.get(authorAssignee));
+        if (mode == Mode.DUAL_MAP_VIEW && siblingAuthorTaskIds != null && siblingAuthorTaskIds.get(view.getRowId()) != null) {
+          assignedAuthor.add(users.get(siblingAssignees.get(siblingAuthorTaskIds.get(view.getRowId()))));
+        }
+        view.setAssignedAuthor(assignedAuthor);
+      }
+      view.setAssignedReviewer(users.get(row.get(3, String.class)));
+      if (mode == Mode.DUAL_MAP_VIEW) {
+        view.setAssignedReconciler(users.get(row.get(4, String.class)));
+      }
+
+      final StringBuilder appendedNotes = new StringBuilder();
+      for (final Tuple n : notes.getOrDefault(view.getRowId(), List.of())) {
+        appendedNotes.append(n.get(note.created)).append(" ").append(users.get(n.get(note.noteBy.id)).getFullName())
+            .append(" ").append(n.get(note.noteText)).append(";");
+      }
+      view.setAppendedNotes(appendedNotes.toString());
+
+      final Tuple target = view.getTargetId() == null || blind ? null : targets.get(view.getTargetId());
+      if (target == null) {
+        view.setTargetId(null);
+      } else {
+        view.setTargetCode(target.get(mapTarget.targetCode));
+        view.setTargetDisplay(target.get(mapTarget.targetDisplay));
+        view.setRelationship(target.get(mapTarget.relationship));
+        view.setFlagged(Boolean.TRUE.equals(target.get(mapTarget.flagged)));
+        view.setTargetTags(tags.getOrDefault(view.getTargetId(), new HashSet<>()));
+      }
+
+      final List<AdditionalCodeValue> columns = additionalColumns.get(view.getSourceId());
+      if (columns != null && !columns.isEmpty()) {
+        view.setAdditionalColumns(columns);
+      }
+    }
+  }
+
+  /**
+   * Rows are returned as source code id, index, code and display, the author/reviewer/reconciler task assignee ids
+   * (2-4), the author task id (5) and the row's own fields.
+   */
+  private java.util.Map<Long, Tuple> getRows(Set<Long> rowIds) {
+    final QTask authorTask = new QTask("authorTask");
+    final QTask reviewTask = new QTask("reviewTask");
+    final QTask reconcileTask = new QTask("reconcileTask");
+    final List<Tuple> rows = new JPAQuery<Tuple>(entityManager)
+        .select(mapRow.id, sourceCode.id, authorTask.assignee.id, reviewTask.assignee.id, reconcileTask.assignee.id,
+            authorTask.id, sourceCode.index, sourceCode.code, sourceCode.display, mapRow.noMap, mapRow.status,
+            mapRow.blindMapFlag, mapRow.lastAuthor.id, mapRow.lastReviewer.id)
+        .from(mapRow)
+        .join(mapRow.sourceCode, sourceCode)
+        .leftJoin(mapRow.authorTask, authorTask)
+        .leftJoin(mapRow.reviewTask, reviewTask)
+        .leftJoin(mapRow.reconcileTask, reconcileTask)
+        .where(mapRow.id.in(rowIds))
+        .fetch();
+    return rows.stream().collect(Collectors.toMap(row -> row.get(mapRow.id), row -> row));
+  }
+
+  private void getTargets(Set<Long> targetIds, java.util.Map<Long, Tuple> targets, java.util.Map<Long, Set<String>> tags) {
+    if (targetIds.isEmpty()) {
+      return;
+    }
+    final StringPath tag = Expressions.stringPath("tag");
+    final List<Tuple> results = new JPAQuery<Tuple>(entityManager)
+        .select(mapTarget.id, mapTarget.targetCode, mapTarget.targetDisplay, mapTarget.relationship, mapTarget.flagged, tag)
+        .from(mapTarget)
+        .leftJoin(mapTarget.tags, tag)
+        .where(mapTarget.id.in(targetIds))
+        .fetch();
+    for (final Tuple result : results) {
+      final Long targetId = result.get(mapTarget.id);
+      targets.putIfAbsent(targetId, result);
+      final Set<String> targetTags = tags.computeIfAbsent(targetId, id -> new HashSet<>());
+      if (result.get(tag) != null) {
+        targetTags.add(result.get(tag));
+      }
+    }
+  }
+
+  private java.util.Map<Long, List<AdditionalCodeValue>> getAdditionalColumns(Set<Long> sourceCodeIds) {
+    final java.util.Map<Long, List<AdditionalCodeValue>> columns = new HashMap<>();
+    if (sourceCodeIds.isEmpty()) {
+      return columns;
+    }
+    final QAdditionalCodeValue value = new QAdditionalCodeValue("value");
+    final NumberExpression<Integer> index = Expressions.numberTemplate(Integer.class, "index({0})", value);
+    new JPAQuery<Tuple>(entityManager)
+        .select(sourceCode.id, value.value, index)
+        .from(sourceCode)
+        .join(sourceCode.additionalColumns, value)
+        .where(sourceCode.id.in(sourceCodeIds))
+        .orderBy(sourceCode.id.asc(), index.asc())
+        .fetch()
+        .forEach(result -> columns.computeIfAbsent(result.get(sourceCode.id), id -> new ArrayList<>())
+            .add(new AdditionalCodeValue(result.get(value.value))));
+    return columns;
+  }
+
+  /**
+   * Non deleted notes per row, in the order they are appended to the view. That is the MapRow.notes order, except on
+   * the dual map task screen which only shows user notes, newest first.
+   */
+  private java.util.Map<Long, List<Tuple>> getNotes(Set<Long> rowIds, Mode mode) {
+    JPAQuery<Tuple> query = new JPAQuery<Tuple>(entityManager)
+        .select(note.mapRow.id, note.created, note.noteText, note.noteBy.id)
+        .from(note)
+        .where(note.mapRow.id.in(rowIds).and(note.deleted.isFalse()));
+    if (mode == Mode.DUAL_MAP_TASK) {
+      query = query.where(note.category.eq(NoteCategory.USER))
+          .orderBy(note.created.desc(), note.modified.desc(), note.id.desc());
+    } else {
+      query = query.orderBy(note.modified.desc(), note.created.desc(), note.id.desc());
+    }
+    return query.fetch().stream().collect(Collectors.groupingBy(n -> n.get(note.mapRow.id), Collectors.toList()));
+  }
+
+  private java.util.Map<Long, String> getTaskAssignees(Set<Long> taskIds) {
+    final java.util.Map<Long, String> assignees = new HashMap<>();
+    new JPAQuery<Tuple>(entityManager)
+        .select(task.id, task.assignee.id)
+        .from(task)
+        .where(task.id.in(taskIds))
+        .fetch()
+        .forEach(result -> assignees.put(result.get(task.id), result.get(task.assignee.id)));
+    return assignees;
+  }
+
+  private java.util.Map<String, User> getUsers(Set<String> userIds) {
+    userIds.remove(null);
+    if (userIds.isEmpty()) {
+      return new HashMap<>();
+    }
+    return new JPAQuery<User>(entityManager)
+        .select(user)
+        .from(user)
+        .where(user.id.in(userIds))
+        .fetch()
+        .stream()
+        .collect(Collectors.toMap(User::getId, u -> u));
+  }
+}
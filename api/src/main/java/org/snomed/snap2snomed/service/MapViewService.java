@@ -17,11 +17,12 @@
 package org.snomed.snap2snomed.service;
 
 import java.time.Instant;
-import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -29,10 +30,12 @@ import java.util.stream.Stream;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 
+import org.snomed.snap2snomed.config.DisplaySearchFunctionContributor;
 import org.snomed.snap2snomed.controller.MapViewRestController;
 import org.snomed.snap2snomed.controller.dto.MappedRowDetailsDto;
 import org.snomed.snap2snomed.controller.dto.Snap2SnomedPagedModel;
 import org.snomed.snap2snomed.model.AdditionalCodeColumn;
+import org.snomed.snap2snomed.model.AdditionalCodeValue;
 import org.snomed.snap2snomed.model.DbMapView;
 import org.snomed.snap2snomed.model.Map;
 import org.snomed.snap2snomed.model.MapRow;
@@ -42,23 +45,25 @@ import org.snomed.snap2snomed.model.QDbMapView;
 import org.snomed.snap2snomed.model.QImportedCode;
 import org.snomed.snap2snomed.model.QMapRow;
 import org.snomed.snap2snomed.model.QMapRowTarget;
-import org.snomed.snap2snomed.model.QNote;
 import org.snomed.snap2snomed.model.QUser;
 import org.snomed.snap2snomed.model.Task;
+import org.snomed.snap2snomed.model.User;
 import org.snomed.snap2snomed.model.enumeration.ColumnType;
 import org.snomed.snap2snomed.model.enumeration.MapStatus;
 import org.snomed.snap2snomed.model.enumeration.MappingRelationship;
-import org.snomed.snap2snomed.model.enumeration.NoteCategory;
 import org.snomed.snap2snomed.model.enumeration.TaskType;
+import org.snomed.snap2snomed.problem.BadRequestDataProblem;
 import org.snomed.snap2snomed.problem.auth.NotAuthorisedProblem;
 import org.snomed.snap2snomed.repository.DbMapViewRepository;
 import org.snomed.snap2snomed.repository.MapRepository;
 import org.snomed.snap2snomed.repository.TaskRepository;
 import org.snomed.snap2snomed.security.AuthenticationFacade;
 import org.snomed.snap2snomed.security.WebSecurity;
+import org.snomed.snap2snomed.service.MapViewPageCache.PageData;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.domain.Sort.Order;
@@ -67,21 +72,25 @@ import org.springframework.hateoas.EntityModel;
 import org.springframework.hateoas.PagedModel;
 import org.springframework.hateoas.RepresentationModel;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.CollectionUtils;
 import org.zalando.problem.Problem;
 import org.zalando.problem.Status;
 
 import com.querydsl.core.QueryResults;
+import com.querydsl.core.types.Expression;
 import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.Ops;
 import com.querydsl.core.types.Projections;
 import com.querydsl.core.types.dsl.BooleanExpression;
 import com.querydsl.core.types.dsl.ComparableExpressionBase;
 import com.querydsl.core.types.dsl.Expressions;
 import com.querydsl.core.types.dsl.StringExpression;
 import com.querydsl.core.types.dsl.StringPath;
-import com.querydsl.jpa.JPAExpressions;
 import com.querydsl.jpa.impl.JPAQuery;
 
+import lombok.EqualsAndHashCode;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
@@ -90,7 +99,29 @@ public class MapViewService {
 
   private static final String ADDITIONAL_COLUMN_NAME = "additionalColumn";
   private static final String TARGET_OUT_OF_SCOPE_TAG = "target-out-of-scope";
+  private static final String DEFAULT_KEYSET_SORT = "sourceIndex";
+  private static final String NATIVE_FILTER_PARAMETER = "filter";
+  private static final String NATIVE_LATEST_NOTE = "maprow15_.latest_user_note_at";
+  /** MySQL's ngram_token_size, the display full text indexes can only find terms at least this long. */
+  private static final int DISPLAY_NGRAM_SIZE = 2;
+  private static final int STREAM_BATCH_SIZE = 500;
+
+  /**
+   * Boolean mode full text query for a display search term, requiring each run of letters and digits in the term that
+   * is at least DISPLAY_NGRAM_SIZE long as a phrase, or null if there is no such run. Any display containing the term
+   * contains all of these runs, so the match never excludes a row the LIKE would accept.
+   */
+  static String getDisplayMatchQuery(String term) {
+    final List<String> phrases = new ArrayList<>();
+    for (final String run : term.split("[^\\p{L}\\p{N}]+")) {
+      if (run.codePointCount(0, run.length()) >= DISPLAY_NGRAM_SIZE) {
+        phrases.add("+\"" + run + "\"");
+      }
+    }
+    return phrases.isEmpty() ? null : String.join(" ", phrases);
+  }
 
+  @EqualsAndHashCode
   public class MapViewFilter {
 
     private final List<String> sourceCodes;
@@ -142,7 +173,7 @@ public class MapViewService {
           s -> _mapRow.sourceCode.code.startsWithIgnoreCase(s),
           (a, b) -> collectOrStatement(a, b));
       expression = stringCollectionToOrStatements(expression, sourceDisplays,
-          s -> _mapRow.sourceCode.display.containsIgnoreCase(s),
+          s -> displayContains(_mapRow.sourceCode.display, s),
           (a, b) -> collectAndStatement(a, b));
 
       if (noMap != null) {
@@ -153,7 +184,7 @@ public class MapViewService {
           s -> QMapRowTarget.mapRowTarget.targetCode.startsWithIgnoreCase(s),
           (a, b) -> collectOrStatement(a, b));
       expression = stringCollectionToOrStatements(expression, targetDisplays,
-          s -> QMapRowTarget.mapRowTarget.targetDisplay.containsIgnoreCase(s),
+          s -> displayContains(QMapRowTarget.mapRowTarget.targetDisplay, s),
           (a, b) -> collectAndStatement(a, b));
 
       if (!CollectionUtils.isEmpty(relationshipTypes)) {
@@ -238,52 +269,95 @@ public class MapViewService {
       return expression;
     }
 
-    private String getInListExpression(List<String> stringList) {
-      return "IN (" + "'" + String.join("', '", stringList) + "'" + ") ";
+    /**
+     * Display "contains" filter. Where the term allows it the ngram full text index on the display narrows the rows
+     * first, the LIKE then keeps the exact semantics of the filter.
+     */
+    private BooleanExpression displayContains(StringPath display, String term) {
+      final String matchQuery = getDisplayMatchQuery(term);
+      final BooleanExpression contains = display.containsIgnoreCase(term);
+      if (matchQuery == null) {
+        return contains;
+      }
+      return Expressions.numberTemplate(Double.class,
+          "function('" + DisplaySearchFunctionContributor.DISPLAY_MATCH + "', {0}, {1})", display, matchQuery)
+          .gt(0.0).and(contains);
+    }
+
+    private String nativeDisplayContains(String column, String term, List<Object> parameters) {
+      final String matchQuery = getDisplayMatchQuery(term);
+      final String contains = column + " LIKE " + bind(parameters, "%" + term + "%");
+      if (matchQuery == null) {
+        return " " + contains + " ";
+      }
+      return " (MATCH(" + column + ") AGAINST (" + bind(parameters, matchQuery) + " IN BOOLEAN MODE) AND " + contains + ") ";
+    }
+
+    /**
+     * Adds a bind parameter for the value, returning its placeholder. Collection values are expanded by Hibernate.
+     */
+    private String bind(List<Object> parameters, Object value) {
+      parameters.add(value);
+      return ":" + NATIVE_FILTER_PARAMETER + (parameters.size() - 1);
+    }
+
+    /**
+     * Matches column against the values bound as a single comma separated parameter. A list bound as a collection is
+     * expanded into a placeholder for each value, giving a different statement for each length of list. Spring has
+     * already split request parameters on commas, so no value holds one.
+     */
+    private String getInListExpression(String column, List<Object> parameters, List<?> values) {
+      final String list = values.stream().map(String::valueOf).collect(Collectors.joining(","));
+      return " FIND_IN_SET(" + column + ", " + bind(parameters, list) + ") > 0 ";
     }
 
-    public String getNativeExpression(boolean useDualView) {
+    /**
+     * Compiles the filter to a native WHERE expression. Filter values are never written into the SQL, each is added
+     * to parameters and referenced as :filter0..n, so filters with the same structure produce the same statement and
+     * can share a prepared statement and plan whatever values they hold.
+     */
+    public String getNativeExpression(boolean useDualView, List<Object> parameters) {
 
       String expression = null;
         
       expression = stringCollectionToNativeQueryOrStatements(expression, sourceCodes,
-          s -> " importedco14_.code LIKE '" + s + "%' ",
+          s -> " importedco14_.code LIKE " + bind(parameters, s + "%") + " ",
           (a, b) -> collectNativeQueryOrStatement(a, b));
       expression = stringCollectionToNativeQueryOrStatements(expression, sourceDisplays,
-          s -> " importedco14_.display LIKE '%" + s + "%' ",
+          s -> nativeDisplayContains("importedco14_.display", s, parameters),
           (a, b) -> collectNativeQueryAndStatement(a, b));
 
       if (noMap != null) {
-        expression = collectNativeQueryAndStatement(expression, " maprow15_.no_map = " + noMap);
+        expression = collectNativeQueryAndStatement(expression, " maprow15_.no_map = " + bind(parameters, noMap));
       }
 
       expression = stringCollectionToNativeQueryOrStatements(expression, targetCodes,
-          s -> " maprowtarg1_.target_code LIKE '" + s + "%' ",
+          s -> " maprowtarg1_.target_code LIKE " + bind(parameters, s + "%") + " ",
           (a, b) -> collectNativeQueryOrStatement(a, b));
       expression = stringCollectionToNativeQueryOrStatements(expression, targetDisplays,
-          s -> " maprowtarg1_.target_display LIKE '%" + s + "%' ",
+          s -> nativeDisplayContains("maprowtarg1_.target_display", s, parameters),
           (a, b) -> collectNativeQueryAndStatement(a, b));
 
       if (!CollectionUtils.isEmpty(relationshipTypes)) {
-        List<String> stringRelationshipTypes = relationshipTypes.stream()
-          .map(rel -> Integer.toString(rel.ordinal()))
+        List<Integer> relationshipOrdinals = relationshipTypes.stream()
+          .map(MappingRelationship::ordinal)
           .collect(Collectors.toList());
-        expression = collectNativeQueryAndStatement(expression, " maprowtarg1_.relationship " + getInListExpression(stringRelationshipTypes));
+        expression = collectNativeQueryAndStatement(expression, getInListExpression("maprowtarg1_.relationship", parameters, relationshipOrdinals));
       }
 
       if (!CollectionUtils.isEmpty(statuses)) {
-        List<String> stringStatuses = statuses.stream()
-          .map(status -> Integer.toString(status.ordinal()))
+        List<Integer> statusOrdinals = statuses.stream()
+          .map(MapStatus::ordinal)
           .collect(Collectors.toList());
-        expression = collectNativeQueryAndStatement(expression, " maprow15_.status " + getInListExpression(stringStatuses));
+        expression = collectNativeQueryAndStatement(expression, getInListExpression("maprow15_.status", parameters, statusOrdinals));
       }
 
       if (!CollectionUtils.isEmpty(lastAuthor)) {
-        expression = collectNativeQueryAndStatement(expression, " maprow15_.`last_author_id` " + getInListExpression(lastAuthor));
+        expression = collectNativeQueryAndStatement(expression, getInListExpression("maprow15_.`last_author_id`", parameters, lastAuthor));
       }
 
       if (!CollectionUtils.isEmpty(lastReviewer)) {
-        expression = collectNativeQueryAndStatement(expression, " maprow15_.`last_reviewer_id` " +  getInListExpression(lastReviewer));
+        expression = collectNativeQueryAndStatement(expression, getInListExpression("maprow15_.`last_reviewer_id`", parameters, lastReviewer));
       }
 
       if (!CollectionUtils.isEmpty(lastAuthorReviewer)) {
@@ -293,42 +367,42 @@ public class MapViewService {
         }
 
         expression = collectNativeQueryAndStatement(expression,
-            collectNativeQueryOrStatement(" maprow15_.`last_author_id` " +  getInListExpression(lastAuthorReviewer) +
-            " OR maprow15_.`last_reviewer_id` " + getInListExpression(lastAuthorReviewer),
+            collectNativeQueryOrStatement(getInListExpression("maprow15_.`last_author_id`", parameters, lastAuthorReviewer) +
+            " OR " + getInListExpression("maprow15_.`last_reviewer_id`", parameters, lastAuthorReviewer),
                 noneMatch));
       }
 
       if (!CollectionUtils.isEmpty(assignedAuthor)) {
         String noneMatch = null;
         if (assignedAuthor.contains("none")) {
-          noneMatch = " assigned_author_user.id IS NULL ";
+          noneMatch = " task3_.assignee_id IS NULL ";
         }
 
         //TODO assigned author not picking up second author .. existing issue not caused by this code
         expression = collectNativeQueryAndStatement(expression, 
-            collectNativeQueryOrStatement(" assigned_author_user.id " + getInListExpression(assignedAuthor), 
+            collectNativeQueryOrStatement(getInListExpression("task3_.assignee_id", parameters, assignedAuthor), 
             noneMatch));
       }
 
       if (!CollectionUtils.isEmpty(assignedReviewer)) {
         String noneMatch = null;
         if (assignedReviewer.contains("none")) {
-          noneMatch = " assigned_reviewer_user.id IS NULL ";
+          noneMatch = " task5_.assignee_id IS NULL ";
         }
 
         expression = collectNativeQueryAndStatement(expression, 
-            collectNativeQueryOrStatement(" assigned_reviewer_user.id " + getInListExpression(assignedReviewer),
+            collectNativeQueryOrStatement(getInListExpression("task5_.assignee_id", parameters, assignedReviewer),
             noneMatch));
       }
 
       if (!CollectionUtils.isEmpty(assignedReconciler)) {
         String noneMatch = null;
         if (assignedReconciler.contains("none")) {
-          noneMatch = " assigned_reconciler_user.id IS NULL";
+          noneMatch = " task7_.assignee_id IS NULL";
         }
 
         expression = collectNativeQueryAndStatement(expression, 
-            collectNativeQueryOrStatement(" assigned_reconciler_user.id " + getInListExpression(assignedReconciler),
+            collectNativeQueryOrStatement(getInListExpression("task7_.assignee_id", parameters, assignedReconciler),
             noneMatch));
       }
 
@@ -350,14 +424,14 @@ public class MapViewService {
         }
 
         expression = collectNativeQueryAndStatement(expression, 
-            collectNativeQueryOrStatement(" maprowtarg1_.flagged = " + flagged + " ", flagMatch)); 
+            collectNativeQueryOrStatement(" maprowtarg1_.flagged = " + bind(parameters, flagged) + " ", flagMatch)); 
       }
 
       if (!CollectionUtils.isEmpty(additionalColumns)) {
         for (int i = 0; i < additionalColumns.size(); i++) {
           final String string = additionalColumns.get(i);
           if (!string.isEmpty()) {
-            expression = collectNativeQueryAndStatement(expression, " additionalColumn" + (i+1)  + ".value LIKE '%" + string + "%' ");
+            expression = collectNativeQueryAndStatement(expression, " additionalColumn" + (i+1)  + ".value LIKE " + bind(parameters, "%" + string + "%") + " ");
           }
         }
       }
@@ -395,6 +469,12 @@ public class MapViewService {
   @Autowired
   EntityManager entityManager;
 
+  @Autowired
+  PlatformTransactionManager transactionManager;
+
+  @Autowired
+  MapViewPageLoader mapViewPageLoader;
+
   @Autowired
   TaskRepository taskRepository;
 
@@ -410,28 +490,88 @@ public class MapViewService {
   @Autowired
   DbMapViewRepository mapViewRepository;
 
+  @Autowired
+  MapViewCountService mapViewCountService;
+
+  @Autowired
+  MapViewPageCache mapViewPageCache;
+
+  @Autowired
+  MapChangeTracker mapChangeTracker;
+
   private final QDbMapView mapView = QDbMapView.dbMapView;
   private final QMapRow mapRow = QMapRow.mapRow;
   private final QMapRowTarget mapTarget = QMapRowTarget.mapRowTarget;
-  private final QNote note = QNote.note;
 
 
   public Snap2SnomedPagedModel<EntityModel<MapView>> getMapResults(Long mapId, Pageable pageable, PagedResourcesAssembler<MapView> assembler,
-      MapViewFilter filter) {
+      MapViewFilter filter, String after, boolean deferCount) {
     if (!mapRepository.existsById(mapId)) {
       throw Problem.valueOf(Status.NOT_FOUND, "No Map found with id " + mapId);
     }
 
-    return getMapResults(mapId, null, pageable, assembler, filter);
+    return toPagedModel(mapViewPageCache.getPage(mapId, null, filter, pageable, after, deferCount,
+        () -> getMapResults(mapId, null, pageable, filter, after, deferCount)), pageable, assembler);
   }
 
   public Snap2SnomedPagedModel<EntityModel<MapView>> getMapResultsByTask(Long taskId, Pageable pageable, PagedResourcesAssembler<MapView> assembler,
-      MapViewFilter filter) {
+      MapViewFilter filter, String after, boolean deferCount) {
+    final Task task = getTaskForView(taskId);
+    return toPagedModel(mapViewPageCache.getPage(task.getMap().getId(), taskId, filter, pageable, after, deferCount,
+        () -> getMapResults(task.getMap().getId(), task, pageable, filter, after, deferCount)), pageable, assembler);
+  }
+
+  private Snap2SnomedPagedModel<EntityModel<MapView>> toPagedModel(PageData data, Pageable pageable,
+      PagedResourcesAssembler<MapView> assembler) {
+    final PagedModel<EntityModel<MapView>> pagedModel = assembler.toModel(toPage(data.getRows(), pageable, data.getTotal()));
+    final Snap2SnomedPagedModel<EntityModel<MapView>> results = new Snap2SnomedPagedModel<>(pagedModel,
+        data.getSourceDetails(), data.getAdditionalColumns());
+    results.setAfter(data.getAfter());
+    results.setTotalDeferred(data.getTotal() == null);
+    return results;
+  }
+
+  /**
+   * Entity tag for the map's view, changing whenever anything shown in it changes. Read it before the view, so a
+   * change made while the view is read leaves the tag already stale rather than the view.
+   */
+  public String getMapViewETag(Long mapId) {
+    return getMapViewETag(mapId, null);
+  }
+
+  /**
+   * As getMapViewETag, qualified with the name of one of the other representations of the view
+   */
+  public String getMapViewETag(Long mapId, String representation) {
+    if (!mapRepository.existsById(mapId)) {
+      throw Problem.valueOf(Status.NOT_FOUND, "No Map found with id " + mapId);
+    }
+    return "\"" + mapChangeTracker.getVersionTag(mapId) + (representation == null ? "" : "-" + representation) + "\"";
+  }
+
+  /**
+   * Entity tag for the task's view, see getMapViewETag
+   */
+  public String getTaskViewETag(Long taskId) {
+    return "\"" + mapChangeTracker.getVersionTag(getTaskForView(taskId).getMap().getId()) + "\"";
+  }
+
+  public long getMapResultsCount(Long mapId, MapViewFilter filter) {
+    final Map map = mapRepository.findById(mapId).orElseThrow(() -> Problem.valueOf(Status.NOT_FOUND, "No Map found with id " + mapId));
+    return getTotalCount(map, null, filter, getAdditionalColumnsMetadata(mapId));
+  }
+
+  public long getMapResultsCountByTask(Long taskId, MapViewFilter filter) {
+    final Task task = getTaskForView(taskId);
+    return getTotalCount(task.getMap(), task, filter, getAdditionalColumnsMetadata(task.getMap().getId()));
+  }
+
+  private Task getTaskForView(Long taskId) {
     final Task task = taskRepository.findById(taskId).orElseThrow(() -> Problem.valueOf(Status.NOT_FOUND, "No Task found with id " + taskId));
     if (!webSecurity.isAdminUser() && !webSecurity.hasAnyProjectRoleForMapId(task.getMap().getId())) {
       throw new NotAuthorisedProblem("Not authorised to view map if the user is not admin or member of an associated project!");
     }
-    return getMapResults(task.getMap().getId(), task, pageable, assembler, filter);
+    return task;
   }
 
   public String getFileNameForMapExport(Long mapId, String contentType) {
@@ -454,6 +594,10 @@ public class MapViewService {
         extension = ".json";
         break;
 
+      case MapViewRestController.RF2_ZIP:
+        extension = ".zip";
+        break;
+
       default:
         throw Problem.valueOf(Status.UNSUPPORTED_MEDIA_TYPE, "Content type " + contentType + " is not supported for map export");
     }
@@ -503,20 +647,43 @@ public class MapViewService {
 
   }
 
-  public List<MapView> getAllMapViewForMap(Long mapId) {
-    final Map map = mapRepository.findById(mapId).orElseThrow(() -> Problem.valueOf(Status.NOT_FOUND, "No Map found with id " + mapId));
-    Boolean dualMapMode = map.getProject().getDualMapMode();
-    if (dualMapMode) {
-      return getDualMapQueryForMap(mapId, null, null, null).fetch();
-    }
-    else {
-      return getQueryForMap(mapId, null, null).orderBy(mapRow.sourceCode.index.asc()).orderBy(mapTarget.id.asc()).fetch();
+  /**
+   * Passes every row of the map's filtered view to consumer, in the order of the sort or source order, without
+   * counting them first. The rows are read a batch at a time with keyset paging, each batch in a read only transaction
+   * of its own, so a stream ties up no more than one connection and holds no locks or snapshot while the consumer
+   * writes a batch out to a slow client. The persistence context is cleared after each batch, so memory use doesn't
+   * grow with the number of rows.
+   */
+  public void streamMapResults(Long mapId, MapViewFilter filter, Sort sort, Consumer<MapView> consumer) {
+    if (!mapRepository.existsById(mapId)) {
+      throw Problem.valueOf(Status.NOT_FOUND, "No Map found with id " + mapId);
     }
-    
+    final Pageable batch = PageRequest.of(0, STREAM_BATCH_SIZE,
+        sort == null || sort.isUnsorted() ? Sort.by(DEFAULT_KEYSET_SORT) : sort);
+    final TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    transactionTemplate.setReadOnly(true);
+
+    String after = "";
+    do {
+      final String batchAfter = after;
+      final PageData page = transactionTemplate.execute(
+          status -> getMapResults(mapId, null, batch, filter, batchAfter, true));
+      page.getRows().forEach(consumer);
+      entityManager.clear();
+      after = page.getAfter();
+    } while (after != null);
   }
 
-  private Snap2SnomedPagedModel<EntityModel<MapView>> getMapResults(Long mapId, Task task, Pageable pageable,
-      PagedResourcesAssembler<MapView> assembler, MapViewFilter filter) {
+  /**
+   * Reads a page of the map view. If after is null the page is read with OFFSET/LIMIT as requested by the pageable,
+   * otherwise keyset paging is used - an empty value reads the first page and a token returned with a previous page
+   * reads the rows following it, so reading deep into a large map costs about the same as reading the first page.
+   *
+   * If deferCount is set the total is only returned if it is already cached, otherwise the page's total is a lower
+   * bound flagged with totalDeferred and the exact count can be fetched separately.
+   */
+  private PageData getMapResults(Long mapId, Task task, Pageable pageable, MapViewFilter filter, String after,
+      boolean deferCount) {
     final List<AdditionalCodeColumn> additionalColumns = mapRepository.findSourceByMapId(mapId).get()
         .getAdditionalColumnsMetadata();
 
@@ -524,148 +691,322 @@ public class MapViewService {
         .orElseThrow(() -> Problem.valueOf(Status.NOT_FOUND, "No Map found with id " + mapId));
     Boolean dualMapMode = map.getProject().getDualMapMode();
 
+    final boolean keyset = after != null;
+    final MapViewCursor cursor = keyset && !after.isEmpty() ? MapViewCursor.decode(after) : null;
+    Sort sort = pageable.getSort();
+    if (keyset && (sort == null || sort.isUnsorted())) {
+      // a cursor needs a well defined order, so keyset paging falls back to source order
+      sort = Sort.by(DEFAULT_KEYSET_SORT);
+    }
+
+    final Long total = deferCount
+        ? mapViewCountService.getCachedCount(mapId, task == null ? null : task.getId(), filter)
+        : Long.valueOf(getTotalCount(map, task, filter, additionalColumns));
+
     if (dualMapMode && task == null) {
 
-      StringBuilder queryStrBuilder = new StringBuilder("select map_view.map_row_id as col_0_0_, maprowtarg1_.id as col_1_0_, (select max(note18_.modified) from note note18_ where note18_.maprow_id=map_view.map_row_id and note18_.category=0 and note18_.deleted=0) as col_2_0_, map_view.status as col_3_0_, map_view.sibling_row_author_task_id as col_4_0_, maprow15_.id as id1_13_0_, maprowtarg1_.id as id1_9_1_, task12_.id as id1_26_2_, maprow15_.author_task_id as author_t9_13_0_, maprow15_.blind_map_flag as blind_ma2_13_0_, maprow15_.created as created3_13_0_, maprow15_.created_by as created_4_13_0_, maprow15_.`last_author_id` as last_au10_13_0_, maprow15_.`last_reviewer_id` as last_re11_13_0_, maprow15_.map_id as map_id12_13_0_, maprow15_.modified as modified5_13_0_, maprow15_.modified_by as modified6_13_0_, maprow15_.no_map as no_map7_13_0_, maprow15_.reconcile_task_id as reconci13_13_0_, maprow15_.review_task_id as review_14_13_0_, maprow15_.source_code_id as source_15_13_0_, maprow15_.status as status8_13_0_, maprowtarg1_.created as created2_9_1_, maprowtarg1_.created_by as created_3_9_1_, maprowtarg1_.flagged as flagged4_9_1_, maprowtarg1_.`last_author_id` as last_au10_9_1_, maprowtarg1_.modified as modified5_9_1_, maprowtarg1_.modified_by as modified6_9_1_, maprowtarg1_.relationship as relation7_9_1_, maprowtarg1_.row_id as row_id11_9_1_, maprowtarg1_.target_code as target_c8_9_1_, maprowtarg1_.target_display as target_d9_9_1_, task12_.`assignee_id` as assignee8_26_2_, task12_.created as created2_26_2_, task12_.created_by as created_3_26_2_, task12_.description as descript4_26_2_, task12_.map_id as map_id9_26_2_, task12_.modified as modified5_26_2_, task12_.modified_by as modified6_26_2_, task12_.type as type7_26_2_, ");
-      queryStrBuilder.append("assigned_author_user.family_name as assigned_author_family_name, ");
-      queryStrBuilder.append("assigned_author_user.given_name as assigned_author_given_name, ");
-      queryStrBuilder.append("assigned_author_user.email as assigned_author_email, ");
-      queryStrBuilder.append("assigned_reviewer_user.family_name as assigned_reviewer_family_name, ");
-      queryStrBuilder.append("assigned_reviewer_user.given_name as assigned_reviewer_given_name, ");
-      queryStrBuilder.append("assigned_reviewer_user.email as assigned_reviewer_email, ");
-      queryStrBuilder.append("assigned_reconciler_user.family_name as assigned_reconciler_family_name, ");
-      queryStrBuilder.append("assigned_reconciler_user.given_name as assigned_reconciler_given_name, ");
-      queryStrBuilder.append("assigned_reconciler_user.email as assigned_reconciler_email, ");
-      queryStrBuilder.append("user9_.given_name as last_author_given_name, ");
-      queryStrBuilder.append("user9_.family_name as last_author_family_name, ");
-      queryStrBuilder.append("user9_.email as last_author_email, ");
-      queryStrBuilder.append("user11_.given_name as last_reviewer_given_name, ");
-      queryStrBuilder.append("user11_.family_name as last_reviewer_family_name, ");
-      queryStrBuilder.append("user11_.email as last_reviewer_email ");
-      
-      // required by additional column sort
-      if (pageable.getSort() != null && !pageable.getSort().isUnsorted()) {
-        for (final Order s : pageable.getSort()) {
-          if (s.getProperty().startsWith(ADDITIONAL_COLUMN_NAME)) {
-            queryStrBuilder.append(", " + s.getProperty() + ".value ");
-          }
-        }
+      final List<Object> filterParameters = new ArrayList<>();
+      final List<Object> seekParameters = new ArrayList<>();
+      Query q = entityManager.createNativeQuery(
+          getDualMapNativeQuery(sort, additionalColumns, filter, cursor, keyset, filterParameters, seekParameters),
+          "DualMapViewResult");
+      q.setParameter("mapId", map.getId());
+      setNativeParameters(q, NATIVE_FILTER_PARAMETER, filterParameters);
+      setNativeParameters(q, "after", seekParameters);
+      if (!keyset) {
+        q.setFirstResult((int) pageable.getOffset());
       }
+      q.setMaxResults((int) pageable.getPageSize());
 
-      queryStrBuilder.append("FROM ");
-      queryStrBuilder.append("(SELECT UUID() as 'id', map_row.id AS map_row_id, map_row.map_id, status, blind_map_flag, null as sibling_row_author_task_id ");
-      queryStrBuilder.append("FROM map_row ");
-      queryStrBuilder.append("WHERE map_id = :mapId ");
-      queryStrBuilder.append("AND map_row.blind_map_flag = false  ");
-      queryStrBuilder.append("UNION  ");
-      queryStrBuilder.append("SELECT UUID() as 'id', mr1.id AS map_row_id, mr1.map_id, (CASE WHEN mr1.status != mr2.status THEN '1' ELSE mr1.status END), ");
-      queryStrBuilder.append("mr1.blind_map_flag, mr2.author_task_id  ");
-      queryStrBuilder.append("FROM map_row mr1, map_row mr2 ");
-      queryStrBuilder.append("WHERE mr1.map_id = :mapId  ");
-      queryStrBuilder.append("AND mr1.source_code_id = mr2.source_code_id  ");
-      queryStrBuilder.append("AND mr1.id < mr2.id  ");
-      queryStrBuilder.append("AND mr1.map_id = mr2.map_id  ");
-      queryStrBuilder.append("AND mr1.blind_map_flag = true) as map_view ");
-      queryStrBuilder.append("LEFT OUTER JOIN map_row_target maprowtarg1_ on (maprowtarg1_.row_id = map_view.map_row_id AND map_view.blind_map_flag = 0) ");
-      queryStrBuilder.append("left outer join map_row maprow2_ on map_view.map_row_id=maprow2_.id  ");
-      queryStrBuilder.append("left outer join task task3_ on maprow2_.author_task_id=task3_.id  ");
-      queryStrBuilder.append("left outer join map_row maprow4_ on map_view.map_row_id=maprow4_.id ");
-      queryStrBuilder.append("left outer join task task5_ on maprow4_.review_task_id=task5_.id ");
-      queryStrBuilder.append("left outer join map_row maprow6_ on map_view.map_row_id=maprow6_.id ");
-      queryStrBuilder.append("left outer join task task7_ on maprow6_.reconcile_task_id=task7_.id ");
-      queryStrBuilder.append("left outer join map_row maprow8_ on map_view.map_row_id=maprow8_.id ");
-      queryStrBuilder.append("left outer join `user` user9_ on maprow8_.`last_author_id`=user9_.id ");
-      queryStrBuilder.append("left outer join map_row maprow10_ on map_view.map_row_id=maprow10_.id  ");
-      queryStrBuilder.append("left outer join `user` user11_ on maprow10_.`last_reviewer_id`=user11_.id  ");
-      queryStrBuilder.append("left outer join task task12_ on map_view.sibling_row_author_task_id=task12_.id  ");
-      queryStrBuilder.append("left outer join map_row maprow13_ on map_view.map_row_id=maprow13_.id  ");
-      queryStrBuilder.append("left outer join imported_code importedco14_ on maprow13_.source_code_id=importedco14_.id  ");
-      queryStrBuilder.append("left outer join map_row maprow15_ on map_view.map_row_id=maprow15_.id  ");
-      queryStrBuilder.append("left outer join `user` user16_ on maprow15_.`last_author_id`=user16_.id  ");
-      queryStrBuilder.append("left outer join `user` assigned_author_user on  task3_.assignee_id=assigned_author_user.id  ");
-      queryStrBuilder.append("left outer join `user` assigned_reviewer_user on task5_.assignee_id=assigned_reviewer_user.id ");
-      queryStrBuilder.append("left outer join `user` assigned_reconciler_user on task7_.assignee_id=assigned_reconciler_user.id ");
-      
-      // required by filters and sort
-      if (!CollectionUtils.isEmpty(additionalColumns)) {
-        for (int i = 0; i < additionalColumns.size(); i++) { 
-            queryStrBuilder.append("left outer join imported_code_additional_columns additionalColumn" + (i+1) + " on (importedco14_.id = additionalColumn" + (i+1) + ".imported_code_id AND additionalColumn" + (i+1) + ".collection_order = " + i + ") ");  
-        }     
+      List<MapView> mapViewList = new ArrayList<MapView>();
+      final java.util.Map<Long, Long> siblingAuthorTaskIds = new HashMap<>();
+      @SuppressWarnings("unchecked")
+      List<Object[]> resultsList = q.getResultList();
+      resultsList.stream().forEach((record) -> mapViewList.add(toDualMapView(record, siblingAuthorTaskIds)));
+      mapViewPageLoader.load(mapViewList, siblingAuthorTaskIds, MapViewPageLoader.Mode.DUAL_MAP_VIEW);
+
+      String nextAfter = null;
+      if (keyset && resultsList.size() == pageable.getPageSize()) {
+        // the cursor holds the raw sort values of the row rather than the blinded values shown in the view
+        final Object[] last = resultsList.get(resultsList.size() - 1);
+        nextAfter = getNextAfter(sort, additionalColumns, entityManager.find(MapRow.class, last[0]),
+            last[1] == null ? null : entityManager.find(MapRowTarget.class, last[1]), (Instant) last[2]);
       }
 
-      if (filter != null) {
-        final String filterExpression = filter.getNativeExpression(true);
-        if (filterExpression != null) {
-          queryStrBuilder.append(" WHERE ").append(filterExpression);
-        }
+      return new PageData(mapViewList, total, getMappedRowDetails(mapViewList), additionalColumns, nextAfter);
+
+    } else {
+      JPAQuery<MapView> query;
+      if (dualMapMode) {
+        query = getDualMapQueryForMap(mapId, task, filter, sort, true);
+      } else {
+        query = getQueryForMap(mapId, task, filter, true);
       }
 
-      // TODO can this count query be simplified to potentially speed it up .. just the union itself will give the correct count
-      Query totalRowCountQuery = entityManager.createNativeQuery("SELECT COUNT(*) FROM ( " + queryStrBuilder.toString() + " ) AS COUNT_ROWS");
-      totalRowCountQuery.setParameter("mapId", map.getId());
-      totalRowCountQuery.toString();
-      int totalRowCount = ((Number) totalRowCountQuery.getSingleResult()).intValue();
+      query = transformSortable(query, sort, additionalColumns, dualMapMode, task);
 
-      if (pageable.getSort() == null || pageable.getSort().isUnsorted()) {
-        // equivalent to mapView.mapRow.sourceCode.index.asc()).orderBy(mapView.mapRow.lastAuthor.id.asc());
-        queryStrBuilder.append(" order by importedco14_._index asc, user16_.id ");
+      final List<MapView> results;
+      String nextAfter = null;
+      if (keyset) {
+        query = query.orderBy(mapRow.id.asc()).orderBy(mapTarget.id.asc());
+        if (cursor != null) {
+          query = query.where(getSeekPredicate(sort, additionalColumns, cursor));
+        }
+        results = query.limit(pageable.getPageSize()).fetch();
+        if (results.size() == pageable.getPageSize()) {
+          // only the last row is read as entities, to take the cursor's sort values from
+          final MapView last = results.get(results.size() - 1);
+          nextAfter = getNextAfter(sort, additionalColumns, entityManager.find(MapRow.class, last.getRowId()),
+              last.getTargetId() == null ? null : entityManager.find(MapRowTarget.class, last.getTargetId()),
+              last.getLatestNote());
+        }
+      } else {
+        query = transformPageable(query, pageable);
+        results = query.fetch();
       }
-      else {
-        queryStrBuilder = transformSortableForNativeQuery(queryStrBuilder, pageable.getSort(), additionalColumns, dualMapMode, task);
+      mapViewPageLoader.load(results, null,
+          dualMapMode ? MapViewPageLoader.Mode.DUAL_MAP_TASK : MapViewPageLoader.Mode.SINGLE_MAP);
+
+      return new PageData(results, total, getMappedRowDetails(results), additionalColumns, nextAfter);
+    }
+  }
+
+  /**
+   * The dual map view native query. Only the keys of each row are read, the rest of each view is filled in by
+   * MapViewPageLoader. Values for the filter and the cursor's seek predicate are added to filterParameters and
+   * seekParameters, to be bound with setNativeParameters.
+   */
+  private String getDualMapNativeQuery(Sort sort, List<AdditionalCodeColumn> additionalColumns, MapViewFilter filter,
+      MapViewCursor cursor, boolean keyset, List<Object> filterParameters, List<Object> seekParameters) {
+    final StringBuilder selectBuilder = new StringBuilder("select map_view.map_row_id as col_0_0_, maprowtarg1_.id as col_1_0_, ");
+    selectBuilder.append(NATIVE_LATEST_NOTE).append(" as col_2_0_, ");
+    selectBuilder.append("map_view.status as col_3_0_, map_view.sibling_row_author_task_id as col_4_0_ ");
+
+    // required by additional column sort
+    if (sort != null && !sort.isUnsorted()) {
+      for (final Order s : sort) {
+        if (s.getProperty().startsWith(ADDITIONAL_COLUMN_NAME)) {
+          selectBuilder.append(", " + s.getProperty() + ".value ");
+        }
       }
+    }
 
-      Query q = entityManager.createNativeQuery(queryStrBuilder.toString(), "DualMapViewResult");
-      q.setParameter("mapId", map.getId());
-      q.setFirstResult((int) pageable.getOffset());
-      q.setMaxResults((int) pageable.getPageSize());
+    final StringBuilder whereBuilder = new StringBuilder(getDualMapNativeWhereClause(filter, filterParameters));
+    if (cursor != null) {
+      whereBuilder.append(" AND ")
+          .append(getNativeSeekPredicate(sort, additionalColumns, cursor, seekParameters));
+    }
 
-      List<MapView> mapViewList = new ArrayList<MapView>();
-      @SuppressWarnings("unchecked")
-      List<Object[]> resultsList = q.getResultList();
-      resultsList.stream().forEach((record) -> {
-        MapRow mapRow = (MapRow) record[0];
-        MapRowTarget mapRowTarget = (MapRowTarget) record[1];
-        Task siblingRowAuthorTask = (Task) record[2];
-        Instant latestNote = (Instant) record[3];
-        Integer mapStatusStr = (Integer) record[4];
-        MapStatus mapStatus = MapStatus.values()[mapStatusStr];
-        MapView mapView = new MapView(mapRow, mapRowTarget, latestNote, mapStatus, siblingRowAuthorTask);
-        mapViewList.add(mapView);
-      });
-
-      final JPAQuery<MappedRowDetailsDto> mappingRowDetailsQuery = getQueryMappedRowDetailsForMap(mapId, task, filter,
-          pageable);
-      final List<MappedRowDetailsDto> sourceIndexResults = mappingRowDetailsQuery.fetch();
-
-      final Page<MapView> page = new PageImpl<>(mapViewList, pageable, totalRowCount);
-      final PagedModel<EntityModel<MapView>> pagedModel = assembler.toModel(page);
-      final Snap2SnomedPagedModel<EntityModel<MapView>> _results = new Snap2SnomedPagedModel<>(pagedModel,
-          sourceIndexResults, additionalColumns);
-      return _results;
+    StringBuilder orderByBuilder = new StringBuilder();
+    if (sort == null || sort.isUnsorted()) {
+      // equivalent to mapView.mapRow.sourceCode.index.asc()).orderBy(mapView.mapRow.lastAuthor.id.asc());
+      orderByBuilder.append(" order by importedco14_._index asc, maprow15_.`last_author_id` ");
+    }
+    else {
+      orderByBuilder = transformSortableForNativeQuery(orderByBuilder, sort, additionalColumns, keyset);
+    }
+
+    final String select = selectBuilder.toString();
+    final String where = whereBuilder.toString();
+    final String orderBy = orderByBuilder.toString();
+    final String from = new DualMapViewJoinPlanner(additionalColumns.size()).getFromClause(select, where, orderBy);
+    return select + from + where + orderBy;
+  }
+
+  /**
+   * Flat view of a row of the dual map view native query, noting the row's sibling author task if it has one
+   */
+  private MapView toDualMapView(Object[] record, java.util.Map<Long, Long> siblingAuthorTaskIds) {
+    final Long rowId = (Long) record[0];
+    MapStatus mapStatus = MapStatus.values()[(Integer) record[3]];
+    if (record[4] != null) {
+      siblingAuthorTaskIds.put(rowId, (Long) record[4]);
+    }
+    return new MapView(rowId, (Long) record[1], (Instant) record[2], mapStatus);
+  }
+
+  private Page<MapView> toPage(List<MapView> results, Pageable pageable, Long total) {
+    if (total == null) {
+      // count deferred - report what has been read so far, plus one if there may be a further page
+      final long lowerBound = pageable.getOffset() + results.size() + (results.size() == pageable.getPageSize() ? 1 : 0);
+      return new PageImpl<>(results, pageable, lowerBound);
+    }
+    return new PageImpl<>(results, pageable, total);
+  }
 
+  private long getTotalCount(Map map, Task task, MapViewFilter filter, List<AdditionalCodeColumn> additionalColumns) {
+    return mapViewCountService.getCount(map.getId(), task == null ? null : task.getId(), filter,
+        () -> countMapResults(map, task, filter, additionalColumns));
+  }
+
+  private long countMapResults(Map map, Task task, MapViewFilter filter, List<AdditionalCodeColumn> additionalColumns) {
+    final Boolean dualMapMode = map.getProject().getDualMapMode();
+    if (dualMapMode && task == null) {
+      // the select list doesn't change the number of rows, so only the joins and filter of the page query are counted
+      final List<Object> filterParameters = new ArrayList<>();
+      final String where = getDualMapNativeWhereClause(filter, filterParameters);
+      final String from = new DualMapViewJoinPlanner(additionalColumns.size()).getFromClause(where);
+      final Query totalRowCountQuery = entityManager.createNativeQuery("SELECT COUNT(*) " + from + where);
+      totalRowCountQuery.setParameter("mapId", map.getId());
+      setNativeParameters(totalRowCountQuery, NATIVE_FILTER_PARAMETER, filterParameters);
+      return ((Number) totalRowCountQuery.getSingleResult()).longValue();
+    } else if (dualMapMode) {
+      return getDualMapQueryForMap(map.getId(), task, filter, Sort.unsorted(), true).fetchCount();
     } else {
-      JPAQuery<MapView> query;
-      if (dualMapMode) {
-        query = getDualMapQueryForMap(mapId, task, filter, pageable.getSort());
-      } else {
-        query = getQueryForMap(mapId, task, filter);
+      return getQueryForMap(map.getId(), task, filter, true).fetchCount();
+    }
+  }
+
+  private void setNativeParameters(Query query, String prefix, List<Object> values) {
+    for (int i = 0; i < values.size(); i++) {
+      query.setParameter(prefix + i, values.get(i));
+    }
+  }
+
+  /**
+   * WHERE clause of the dual map view native query, adding the filter's values to filterParameters to be bound with
+   * setNativeParameters. The query reads map_view_materialized, which holds the blended dual map status and sibling
+   * task per row and is kept current by MapViewMaterializer, and DualMapViewJoinPlanner adds only the joins the
+   * statement references.
+   */
+  private String getDualMapNativeWhereClause(MapViewFilter filter, List<Object> filterParameters) {
+    final StringBuilder whereBuilder = new StringBuilder(" WHERE map_view.map_id = :mapId ");
+    if (filter != null) {
+      final String filterExpression = filter.getNativeExpression(true, filterParameters);
+      if (filterExpression != null) {
+        whereBuilder.append(" AND (").append(filterExpression).append(") ");
       }
+    }
+    return whereBuilder.toString();
+  }
 
-      query = transformSortable(query, pageable.getSort(), additionalColumns, dualMapMode, task);
-      query = transformPageable(query, pageable);
+  /**
+   * Source details of the page, taken from the rows already read rather than re-running the filtered query.
+   */
+  private List<MappedRowDetailsDto> getMappedRowDetails(List<MapView> mapViews) {
+    return mapViews.stream()
+        .map(view -> new MappedRowDetailsDto(view.getRowId(), view.getSourceIndex(), view.getTargetId()))
+        .collect(Collectors.toList());
+  }
 
-      final QueryResults<MapView> results = query.fetchResults();
+  private String getNextAfter(Sort sort, List<AdditionalCodeColumn> additionalColumns, MapRow row, MapRowTarget target,
+      Instant latestNote) {
+    final List<Object> values = new ArrayList<>();
+    for (final Order s : sort) {
+      final List<?> value = getSortValues(s.getProperty(), row, target, latestNote, additionalColumns);
+      if (value != null) {
+        value.forEach(v -> values.add(MapViewCursor.toCursorValue(v)));
+      }
+    }
+    return new MapViewCursor(values, row.getId(), target == null ? null : target.getId()).encode();
+  }
 
-      final JPAQuery<MappedRowDetailsDto> mappingRowDetailsQuery = getQueryMappedRowDetailsForMap(mapId, task, filter,
-          pageable);
-      final List<MappedRowDetailsDto> sourceIndexResults = mappingRowDetailsQuery.fetch();
+  /**
+   * Converts the values held in the cursor to the types of the sort key they will be compared with, followed by the
+   * row and target id tiebreakers.
+   */
+  private List<Object> getCursorValues(MapViewCursor cursor, List<Class<?>> types) {
+    if (cursor.getValues().size() != types.size()) {
+      throw new BadRequestDataProblem("Map view 'after' token does not match the requested sort");
+    }
+    final List<Object> values = new ArrayList<>();
+    for (int i = 0; i < types.size(); i++) {
+      values.add(MapViewCursor.fromCursorValue(cursor.getValues().get(i), types.get(i)));
+    }
+    values.add(cursor.getRowId());
+    values.add(cursor.getTargetId());
+    return values;
+  }
 
-      final Page<MapView> page = new PageImpl<>(results.getResults(), pageable, results.getTotal());
-      final PagedModel<EntityModel<MapView>> pagedModel = assembler.toModel(page);
-      final Snap2SnomedPagedModel<EntityModel<MapView>> _results = new Snap2SnomedPagedModel<>(pagedModel,
-          sourceIndexResults, additionalColumns);
-      return _results;
+  /**
+   * Builds "rows after the cursor" for the given sort key. NULLs sort first ascending and last descending in MySQL,
+   * so each column contributes (k > v) ascending or (k < v OR k IS NULL) descending, and IS NULL for equality.
+   */
+  private BooleanExpression getSeekPredicate(Sort sort, List<AdditionalCodeColumn> additionalColumns, MapViewCursor cursor) {
+    final List<Expression<?>> fields = new ArrayList<>();
+    final List<Boolean> ascending = new ArrayList<>();
+    for (final Order s : sort) {
+      final List<ComparableExpressionBase<?>> field = getSortFields(s.getProperty(), mapRow, additionalColumns);
+      if (field != null) {
+        fields.addAll(field);
+        field.forEach(f -> ascending.add(s.isAscending()));
+      }
     }
+    final List<Object> values = getCursorValues(cursor, fields.stream().map(Expression::getType).collect(Collectors.toList()));
+    fields.add(mapRow.id);
+    ascending.add(true);
+    fields.add(mapTarget.id);
+    ascending.add(true);
+
+    BooleanExpression predicate = null;
+    BooleanExpression equalPrefix = null;
+    for (int i = 0; i < fields.size(); i++) {
+      final Expression<?> field = fields.get(i);
+      final Object value = values.get(i);
+      BooleanExpression after;
+      if (value == null) {
+        after = ascending.get(i) ? Expressions.booleanOperation(Ops.IS_NOT_NULL, field) : null;
+      } else if (ascending.get(i)) {
+        after = Expressions.booleanOperation(Ops.GT, field, Expressions.constant(value));
+      } else {
+        after = Expressions.booleanOperation(Ops.LT, field, Expressions.constant(value))
+            .or(Expressions.booleanOperation(Ops.IS_NULL, field));
+      }
+      if (after != null) {
+        predicate = collectOrStatement(predicate, collectAndStatement(equalPrefix, after));
+      }
+      equalPrefix = collectAndStatement(equalPrefix, value == null ? Expressions.booleanOperation(Ops.IS_NULL, field)
+          : Expressions.booleanOperation(Ops.EQ, field, Expressions.constant(value)));
+    }
+    return predicate;
+  }
+
+  /**
+   * Native query equivalent of getSeekPredicate, the values are added to parameters and bound as :after0..n
+   */
+  private String getNativeSeekPredicate(Sort sort, List<AdditionalCodeColumn> additionalColumns, MapViewCursor cursor,
+      List<Object> parameters) {
+    final List<String> fields = new ArrayList<>();
+    final List<Class<?>> types = new ArrayList<>();
+    final List<Boolean> ascending = new ArrayList<>();
+    for (final Order s : sort) {
+      final List<String> field = getNativeSortFields(s.getProperty(), additionalColumns);
+      if (field != null) {
+        fields.addAll(field);
+        field.forEach(f -> ascending.add(s.isAscending()));
+        getSortFields(s.getProperty(), mapRow, additionalColumns).forEach(f -> types.add(f.getType()));
+      }
+    }
+    final List<Object> values = getCursorValues(cursor, types);
+    fields.add("map_view.map_row_id");
+    ascending.add(true);
+    fields.add("maprowtarg1_.id");
+    ascending.add(true);
+
+    String predicate = null;
+    String equalPrefix = null;
+    for (int i = 0; i < fields.size(); i++) {
+      final String field = fields.get(i);
+      Object value = values.get(i);
+      String parameter = null;
+      if (value != null) {
+        parameter = ":after" + parameters.size();
+        parameters.add(value instanceof Enum ? ((Enum<?>) value).ordinal() : value);
+      }
+      String after;
+      if (value == null) {
+        after = ascending.get(i) ? field + " IS NOT NULL" : null;
+      } else if (ascending.get(i)) {
+        after = field + " > " + parameter;
+      } else {
+        after = "(" + field + " < " + parameter + " OR " + field + " IS NULL)";
+      }
+      if (after != null) {
+        predicate = collectNativeQueryOrStatement(predicate, "(" + collectNativeQueryAndStatement(equalPrefix, after) + ")");
+      }
+      equalPrefix = collectNativeQueryAndStatement(equalPrefix, value == null ? field + " IS NULL" : field + " = " + parameter);
+    }
+    return " (" + predicate + ") ";
   }
 
   protected JPAQuery<MapView> transformPageable(JPAQuery<MapView> query, Pageable pageable) {
@@ -675,198 +1016,102 @@ public class MapViewService {
     return query;
   }
 
-  protected StringBuilder transformSortableForNativeQuery(StringBuilder queryStringBuilder, Sort sort, List<AdditionalCodeColumn> additionalColumns, Boolean dualMapMode,
-          Task task) {
+  protected StringBuilder transformSortableForNativeQuery(StringBuilder queryStringBuilder, Sort sort, List<AdditionalCodeColumn> additionalColumns,
+          boolean keyset) {
 
+    final List<String> orderBy = new ArrayList<>();
     if (sort != null) {
       for (final Order s : sort) {
-        List<String> field;
-        switch (s.getProperty()) {
-          case "rowId":
-            field = Arrays.asList("maprow15_.id");
-            break;
-          case "sourceIndex":
-            field = Arrays.asList("importedco14_._index");
-            break;
-          case "sourceCode":
-            field = Arrays.asList("importedco14_.code");
-            break;
-          case "sourceDisplay":
-            field = Arrays.asList("importedco14_.display");
-            break;
-          case "noMap":
-            field = Arrays.asList("maprow15_.no_map");
-            break;
-          case "targetId":
-            field = Arrays.asList("maprowtarg1_.id");
-            break;
-          case "targetCode":
-            field = Arrays.asList("maprowtarg1_.target_code");
-            break;
-          case "targetDisplay":
-            field = Arrays.asList("maprowtarg1_.target_display");
-            break;
-          case "relationship":
-            field = Arrays.asList("maprowtarg1_.relationship");
-            break;
-          case "status":
-            field = Arrays.asList("maprow15_.status");
-            break;
-          case "latestNote":
-          field = null;
-            field = Arrays.asList("col_2_0_");
-            break;
-          case "assignedAuthor":
-            field = Arrays.asList("CONCAT(assigned_author_given_name, assigned_author_family_name, assigned_author_email)");
-            break;
-          case "assignedReconciler":
-          field = null;
-            field = Arrays.asList("CONCAT(assigned_reconciler_given_name, assigned_reconciler_family_name, assigned_reconciler_email)");
-            break;
-          case "assignedReviewer":
-            field = Arrays.asList("CONCAT(assigned_reviewer_given_name, assigned_reviewer_family_name, assigned_reviewer_email)");
-            break;
-          // not used
-          // case "lastAuthor":
-          //   field = Arrays.asList("concat(concat(user9_.given_name, user9_.family_name), user9_.email)");
-          //   break;
-          // case "lastReviewer":
-          //   field = Arrays.asList("concat(concat(user11_.given_name, user11_.family_name), user11_.email)");
-          //   break;
-          case "lastAuthorReviewer":
-            field = Arrays.asList(
-              "CONCAT(last_author_given_name, last_author_family_name, last_author_email)",
-              "CONCAT(last_reviewer_given_name, last_reviewer_family_name, last_reviewer_email)"); 
-            break;
-          case "targetOutOfScope":
-            field = null;
-            // it does not make sense to sort by this flag so it is not supported
-            log.warn("Unsupported MapView sort field '" + s.getProperty() + "' - ignored");
-            break;
-          case "flagged":
-            field = Arrays.asList("maprowtarg1_.flagged");
-            break;
-
-          default:
-          field = null;
-            if (s.getProperty().startsWith(ADDITIONAL_COLUMN_NAME)) {
-              final int index = Integer.parseInt(s.getProperty().substring(ADDITIONAL_COLUMN_NAME.length())) - 1;
-              final ColumnType type = additionalColumns.get(index).getType();
-              if (ColumnType.NUMBER.equals(type)) {
-                field = Arrays.asList("CAST(" + s.getProperty() + ".value as double)");
-              }
-              else {
-                field = Arrays.asList(s.getProperty() + ".value");
-              }
-            } else {
-              field = null;
-              log.warn("Unknown MapView sort field '" + s.getProperty() + "' - ignored");
-            }
-        }
-
+        final List<String> field = getNativeSortFields(s.getProperty(), additionalColumns);
         if (null != field) {
-          boolean firstInList = true;
           for (final String f : field) {
-            if (firstInList) {
-              queryStringBuilder.append(" ORDER BY ").append(f);
-            }
-            else {
-              queryStringBuilder.append(", ").append(f);
-            }
-            if (s.isAscending()) {
-              queryStringBuilder.append(" ASC ");
-            } else {
-              queryStringBuilder.append(" DESC ");
-            }
-            firstInList = false;
+            orderBy.add(f + (s.isAscending() ? " ASC" : " DESC"));
           }
+        } else {
+          log.warn("Unknown or unsupported MapView sort field '" + s.getProperty() + "' - ignored");
         }
       }
     }
+    if (keyset) {
+      // tiebreakers making the order total, these are the last values held in a keyset cursor
+      orderBy.add("map_view.map_row_id ASC");
+      orderBy.add("maprowtarg1_.id ASC");
+    }
+    if (!orderBy.isEmpty()) {
+      queryStringBuilder.append(" ORDER BY ").append(String.join(", ", orderBy)).append(" ");
+    }
     return queryStringBuilder;
   }
 
+  /**
+   * Native query columns for a sort property. Expressions are written against table aliases rather than select aliases
+   * so they can also be used in the keyset WHERE clause.
+   */
+  private List<String> getNativeSortFields(String property, List<AdditionalCodeColumn> additionalColumns) {
+    switch (property) {
+      case "rowId":
+        return Arrays.asList("map_view.map_row_id");
+      case "sourceIndex":
+        return Arrays.asList("importedco14_._index");
+      case "sourceCode":
+        return Arrays.asList("importedco14_.code");
+      case "sourceDisplay":
+        return Arrays.asList("importedco14_.display");
+      case "noMap":
+        return Arrays.asList("maprow15_.no_map");
+      case "targetId":
+        return Arrays.asList("maprowtarg1_.id");
+      case "targetCode":
+        return Arrays.asList("maprowtarg1_.target_code");
+      case "targetDisplay":
+        return Arrays.asList("maprowtarg1_.target_display");
+      case "relationship":
+        return Arrays.asList("maprowtarg1_.relationship");
+      case "status":
+        return Arrays.asList("maprow15_.status");
+      case "latestNote":
+        return Arrays.asList(NATIVE_LATEST_NOTE);
+      case "assignedAuthor":
+        return Arrays.asList("CONCAT(assigned_author_user.given_name, assigned_author_user.family_name, assigned_author_user.email)");
+      case "assignedReconciler":
+        return Arrays.asList("CONCAT(assigned_reconciler_user.given_name, assigned_reconciler_user.family_name, assigned_reconciler_user.email)");
+      case "assignedReviewer":
+        return Arrays.asList("CONCAT(assigned_reviewer_user.given_name, assigned_reviewer_user.family_name, assigned_reviewer_user.email)");
+      case "lastAuthor":
+        return Arrays.asList("CONCAT(user9_.given_name, user9_.family_name, user9_.email)");
+      case "lastReviewer":
+        return Arrays.asList("CONCAT(user11_.given_name, user11_.family_name, user11_.email)");
+      case "lastAuthorReviewer":
+        return Arrays.asList(
+          "CONCAT(user9_.given_name, user9_.family_name, user9_.email)",
+          "CONCAT(user11_.given_name, user11_.family_name, user11_.email)");
+      case "targetOutOfScope":
+        // it does not make sense to sort by this flag so it is not supported
+        return null;
+      case "flagged":
+        return Arrays.asList("maprowtarg1_.flagged");
+
+      default:
+        if (property.startsWith(ADDITIONAL_COLUMN_NAME)) {
+          final int index = Integer.parseInt(property.substring(ADDITIONAL_COLUMN_NAME.length())) - 1;
+          final ColumnType type = additionalColumns.get(index).getType();
+          if (ColumnType.NUMBER.equals(type)) {
+            return Arrays.asList(property + ".number_value");
+          }
+          else {
+            return Arrays.asList(property + ".value");
+          }
+        }
+        return null;
+    }
+  }
+
   protected JPAQuery<MapView> transformSortable(JPAQuery<MapView> query, Sort sort, List<AdditionalCodeColumn> additionalColumns, Boolean dualMapMode,
           Task task) {
     if (sort != null) {
       var _mapRow = dualMapMode && task == null ? mapView.mapRow : mapRow;
       for (final Order s : sort) {
-        List<ComparableExpressionBase<?>> field;
-        switch (s.getProperty()) {
-          case "rowId":
-            field = Arrays.asList(_mapRow.id);
-            break;
-          case "sourceIndex":
-            field = Arrays.asList(_mapRow.sourceCode.index);
-            break;
-          case "sourceCode":
-            field = Arrays.asList(_mapRow.sourceCode.code);
-            break;
-          case "sourceDisplay":
-            field = Arrays.asList(_mapRow.sourceCode.display);
-            break;
-          case "noMap":
-            field = Arrays.asList(_mapRow.noMap);
-            break;
-          case "targetId":
-            field = Arrays.asList(mapTarget.id);
-            break;
-          case "targetCode":
-            field = Arrays.asList(mapTarget.targetCode);
-            break;
-          case "targetDisplay":
-            field = Arrays.asList(mapTarget.targetDisplay);
-            break;
-          case "relationship":
-            field = Arrays.asList(mapTarget.relationship);
-            break;
-          case "status":
-            field = Arrays.asList(_mapRow.status);
-            break;
-          case "latestNote":
-            field = Arrays.asList(Expressions.dateTimePath(ZonedDateTime.class, "latestNote"));
-            break;
-          case "assignedAuthor":
-            field = Arrays.asList(getUserSortComparison(_mapRow.authorTask.assignee));
-            break;
-          case "assignedReconciler":
-            field = Arrays.asList(getUserSortComparison(_mapRow.reconcileTask.assignee));
-            break;
-          case "assignedReviewer":
-            field = Arrays.asList(getUserSortComparison(_mapRow.reviewTask.assignee));
-            break;
-          case "lastAuthor":
-            field = Arrays.asList(getUserSortComparison(_mapRow.lastAuthor));
-            break;
-          case "lastReviewer":
-            field = Arrays.asList(getUserSortComparison(_mapRow.lastReviewer));
-            break;
-          case "lastAuthorReviewer":
-            field = Arrays.asList(
-                getUserSortComparison(_mapRow.lastAuthor),
-                getUserSortComparison(_mapRow.lastReviewer));
-            break;
-          case "targetOutOfScope":
-            field = null;
-            // it does not make sense to sort by this flag so it is not supported
-            log.warn("Unsupported MapView sort field '" + s.getProperty() + "' - ignored");
-            break;
-          case "flagged":
-            field = Arrays.asList(mapTarget.flagged);
-            break;
-
-          default:
-          // left outer join imported_code_additional_columns additional7_ on importedco6_.id=additional7_.imported_code_id and (additional7_.collection_order=1) 
-            if (s.getProperty().startsWith(ADDITIONAL_COLUMN_NAME)) {
-              final int index = Integer.parseInt(s.getProperty().substring(ADDITIONAL_COLUMN_NAME.length())) - 1;
-              final ColumnType type = additionalColumns.get(index).getType();
-              field = Arrays.asList(getSortExpression(_mapRow.sourceCode, type, index));
-            } else {
-              field = null;
-              log.warn("Unknown MapView sort field '" + s.getProperty() + "' - ignored");
-            }
-        }
-
+        final List<ComparableExpressionBase<?>> field = getSortFields(s.getProperty(), _mapRow, additionalColumns);
         if (null != field) {
           for (final ComparableExpressionBase<?> f : field) {
             if (s.isAscending()) {
@@ -875,18 +1120,144 @@ public class MapViewService {
               query = query.orderBy(f.desc());
             }
           }
+        } else {
+          log.warn("Unknown or unsupported MapView sort field '" + s.getProperty() + "' - ignored");
         }
       }
     }
     return query;
   }
 
+  /**
+   * Expressions for a sort property, usable both in ORDER BY and the keyset WHERE clause.
+   */
+  private List<ComparableExpressionBase<?>> getSortFields(String property, QMapRow _mapRow, List<AdditionalCodeColumn> additionalColumns) {
+    switch (property) {
+      case "rowId":
+        return Arrays.asList(_mapRow.id);
+      case "sourceIndex":
+        return Arrays.asList(_mapRow.sourceCode.index);
+      case "sourceCode":
+        return Arrays.asList(_mapRow.sourceCode.code);
+      case "sourceDisplay":
+        return Arrays.asList(_mapRow.sourceCode.display);
+      case "noMap":
+        return Arrays.asList(_mapRow.noMap);
+      case "targetId":
+        return Arrays.asList(mapTarget.id);
+      case "targetCode":
+        return Arrays.asList(mapTarget.targetCode);
+      case "targetDisplay":
+        return Arrays.asList(mapTarget.targetDisplay);
+      case "relationship":
+        return Arrays.asList(mapTarget.relationship);
+      case "status":
+        return Arrays.asList(_mapRow.status);
+      case "latestNote":
+        return Arrays.asList(_mapRow.latestUserNoteAt);
+      case "assignedAuthor":
+        return Arrays.asList(getUserSortComparison(_mapRow.authorTask.assignee));
+      case "assignedReconciler":
+        return Arrays.asList(getUserSortComparison(_mapRow.reconcileTask.assignee));
+      case "assignedReviewer":
+        return Arrays.asList(getUserSortComparison(_mapRow.reviewTask.assignee));
+      case "lastAuthor":
+        return Arrays.asList(getUserSortComparison(_mapRow.lastAuthor));
+      case "lastReviewer":
+        return Arrays.asList(getUserSortComparison(_mapRow.lastReviewer));
+      case "lastAuthorReviewer":
+        return Arrays.asList(
+            getUserSortComparison(_mapRow.lastAuthor),
+            getUserSortComparison(_mapRow.lastReviewer));
+      case "targetOutOfScope":
+        // it does not make sense to sort by this flag so it is not supported
+        return null;
+      case "flagged":
+        return Arrays.asList(mapTarget.flagged);
+
+      default:
+      // left outer join imported_code_additional_columns additional7_ on importedco6_.id=additional7_.imported_code_id and (additional7_.collection_order=1) 
+        if (property.startsWith(ADDITIONAL_COLUMN_NAME)) {
+          final int index = Integer.parseInt(property.substring(ADDITIONAL_COLUMN_NAME.length())) - 1;
+          final ColumnType type = additionalColumns.get(index).getType();
+          return Arrays.asList(getSortExpression(_mapRow.sourceCode, type, index));
+        }
+        return null;
+    }
+  }
+
+  /**
+   * Values of the row for the expressions returned by getSortFields/getNativeSortFields, matching the database's
+   * evaluation of them (e.g. the user name concatenation is null if any part is null).
+   */
+  private List<?> getSortValues(String property, MapRow row, MapRowTarget target, Instant latestNote,
+      List<AdditionalCodeColumn> additionalColumns) {
+    switch (property) {
+      case "rowId":
+        return Arrays.asList(row.getId());
+      case "sourceIndex":
+        return Arrays.asList(row.getSourceCode().getIndex());
+      case "sourceCode":
+        return Arrays.asList(row.getSourceCode().getCode());
+      case "sourceDisplay":
+        return Arrays.asList(row.getSourceCode().getDisplay());
+      case "noMap":
+        return Arrays.asList(row.isNoMap());
+      case "targetId":
+        return Arrays.asList(target == null ? null : target.getId());
+      case "targetCode":
+        return Arrays.asList(target == null ? null : target.getTargetCode());
+      case "targetDisplay":
+        return Arrays.asList(target == null ? null : target.getTargetDisplay());
+      case "relationship":
+        return Arrays.asList(target == null ? null : target.getRelationship());
+      case "status":
+        return Arrays.asList(row.getStatus());
+      case "latestNote":
+        return Arrays.asList(latestNote);
+      case "assignedAuthor":
+        return Arrays.asList(getUserSortValue(row.getAuthorTask() == null ? null : row.getAuthorTask().getAssignee()));
+      case "assignedReconciler":
+        return Arrays.asList(getUserSortValue(row.getReconcileTask() == null ? null : row.getReconcileTask().getAssignee()));
+      case "assignedReviewer":
+        return Arrays.asList(getUserSortValue(row.getReviewTask() == null ? null : row.getReviewTask().getAssignee()));
+      case "lastAuthor":
+        return Arrays.asList(getUserSortValue(row.getLastAuthor()));
+      case "lastReviewer":
+        return Arrays.asList(getUserSortValue(row.getLastReviewer()));
+      case "lastAuthorReviewer":
+        return Arrays.asList(getUserSortValue(row.getLastAuthor()), getUserSortValue(row.getLastReviewer()));
+      case "targetOutOfScope":
+        return null;
+      case "flagged":
+        return Arrays.asList(target == null ? null : target.isFlagged());
+
+      default:
+        if (property.startsWith(ADDITIONAL_COLUMN_NAME)) {
+          final int index = Integer.parseInt(property.substring(ADDITIONAL_COLUMN_NAME.length())) - 1;
+          final List<AdditionalCodeValue> values = row.getSourceCode().getAdditionalColumns();
+          final String value = index < values.size() ? values.get(index).getValue() : null;
+          if (value != null && ColumnType.NUMBER.equals(additionalColumns.get(index).getType())) {
+            return Arrays.asList(AdditionalCodeValue.toNumber(value));
+          }
+          return Arrays.asList(value);
+        }
+        return null;
+    }
+  }
+
+  private String getUserSortValue(User user) {
+    if (user == null || user.getGivenName() == null || user.getFamilyName() == null || user.getEmail() == null) {
+      return null;
+    }
+    return user.getGivenName() + user.getFamilyName() + user.getEmail();
+  }
+
   private ComparableExpressionBase<?> getSortExpression(QImportedCode code, ColumnType type, int index) {
-    final StringPath value = code.additionalColumns.get(index).value;
     if (ColumnType.NUMBER.equals(type)) {
-      return value.castToNum(Double.class);
+      return code.additionalColumns.get(index).numberValue;
     } else {
-      return value;
+      return code.additionalColumns.get(index).value;
     }
   }
 
@@ -898,16 +1269,18 @@ public class MapViewService {
     return stream.map(RepresentationModel::of).collect(Collectors.toList());
   }
 
-  private JPAQuery<MapView> getDualMapQueryForMap(Long mapId, Task task, MapViewFilter filter, Sort sort) {
+  /**
+   * @param flat select only the row id, target id and latest note, leaving the rest of the view to MapViewPageLoader
+   */
+  private JPAQuery<MapView> getDualMapQueryForMap(Long mapId, Task task, MapViewFilter filter, Sort sort, boolean flat) {
 
     //if (task != null) {
     
     // details / task screen .. don't display reconcile state or reconciled (mapped)
+    final Expression<Instant> latestNote = getLatestNoteExpression();
     JPAQuery<MapView> query = new JPAQuery<MapView>(entityManager)
-    .select(Projections.constructor(MapView.class, mapRow, mapTarget,
-        ExpressionUtils.as(JPAExpressions.select(note.modified.max()).from(note)
-            .where(note.mapRow.eq(mapRow).and(note.category.eq(NoteCategory.USER)).and(note.deleted.isFalse())), "latestNote"),
-            mapRow.status))
+    .select(flat ? Projections.constructor(MapView.class, mapRow.id, mapTarget.id, latestNote)
+        : Projections.constructor(MapView.class, mapRow, mapTarget, latestNote, mapRow.status))
     .from(mapRow)
     .leftJoin(mapTarget).on(mapTarget.row.eq(mapRow))
     .leftJoin(mapRow.authorTask)
@@ -958,12 +1331,19 @@ public class MapViewService {
     // }
   }
 
-  protected JPAQuery<MapView> getQueryForMap(Long mapId, Task task, MapViewFilter filter) {
+  private Expression<Instant> getLatestNoteExpression() {
+    return ExpressionUtils.as(mapRow.latestUserNoteAt, "latestNote");
+  }
+
+  /**
+   * @param flat select only the row id, target id and latest note, leaving the rest of the view to MapViewPageLoader
+   */
+  protected JPAQuery<MapView> getQueryForMap(Long mapId, Task task, MapViewFilter filter, boolean flat) {
 
+    final Expression<Instant> latestNote = getLatestNoteExpression();
     return new JPAQuery<MapView>(entityManager)
-        .select(Projections.constructor(MapView.class, mapRow, mapTarget,
-            ExpressionUtils.as(JPAExpressions.select(note.modified.max()).from(note)
-                .where(note.mapRow.eq(mapRow).and(note.category.eq(NoteCategory.USER)).and(note.deleted.isFalse())), "latestNote")))
+        .select(flat ? Projections.constructor(MapView.class, mapRow.id, mapTarget.id, latestNote)
+            : Projections.constructor(MapView.class, mapRow, mapTarget, latestNote))
         .from(mapRow)
         .leftJoin(mapTarget).on(mapTarget.row.eq(mapRow))
         .leftJoin(mapRow.authorTask)
@@ -974,25 +1354,6 @@ public class MapViewService {
         .where(mapRow.blindMapFlag.eq(false));
   }
 
-  protected JPAQuery<MappedRowDetailsDto> getQueryMappedRowDetailsForMap(Long mapId, Task task, MapViewFilter filter,
-                                                                         Pageable pageable) {
-
-    final JPAQuery<MappedRowDetailsDto> query = new JPAQuery<MapView>(entityManager)
-            .select(Projections.constructor(MappedRowDetailsDto.class, mapRow.id, mapRow.sourceCode.index, mapTarget.id))
-            .from(mapRow)
-            .leftJoin(mapTarget).on(mapTarget.row.eq(mapRow));
-    if (task != null) {
-      query.leftJoin(mapRow.authorTask)
-           .leftJoin(mapRow.reviewTask)
-           .leftJoin(mapRow.reconcileTask)
-           .leftJoin(mapRow.lastAuthor)
-           .leftJoin(mapRow.lastReviewer);
-    }
-    query.where(getWhereClause(mapId, task, filter, false));
-    query.offset(pageable.getOffset()).limit(pageable.getPageSize());
-    return query;
-  }
-
   private BooleanExpression getMapViewWhereClause(Long mapId, Task task, MapViewFilter filter) {
     BooleanExpression whereClause = mapView.mapId.eq(mapId);//mapView.mapRow.map.id.eq(mapId);
 
@@ -1080,9 +1441,7 @@ public class MapViewService {
     }
 
     JPAQuery<MapView> query = new JPAQuery<MapView>(entityManager)
-        .select(Projections.constructor(MapView.class, mapRow, mapTarget,
-            ExpressionUtils.as(JPAExpressions.select(note.modified.max()).from(note)
-                .where(note.mapRow.eq(mapRow).and(note.category.eq(NoteCategory.USER)).and(note.deleted.isFalse())), "latestNote")))
+        .select(Projections.constructor(MapView.class, mapRow, mapTarget, getLatestNoteExpression()))
         .from(mapRow)
         .leftJoin(mapTarget).on(mapTarget.row.eq(mapRow))
         .where(mapRow.map.id.eq(mapId))
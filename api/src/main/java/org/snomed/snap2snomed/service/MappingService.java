@@ -62,7 +62,9 @@ public class MappingService {
   @Autowired private AuthenticationFacade authenticationFacade;
   @Autowired private FhirService fhirService;
   @Autowired private ImportedCodeSetRepository importedCodeSetRepository;
+  @Autowired private MapChangeTracker mapChangeTracker;
   @Autowired private MapRepository mapRepository;
+  @Autowired private MapViewMaterializer mapViewMaterializer;
   @Autowired private MapRowEventHandler mapRowEventHandler;
   @Autowired private MapRowRepository mapRowRepository;
   @Autowired private MapRowTargetEventHandler mapRowTargetEventHandler;
@@ -685,6 +687,8 @@ public class MappingService {
       mapRowRepository.resetMapRowResetRowsForNewMap(createdId);
 
     }
+    mapChangeTracker.mapChanged(createdId);
+    mapViewMaterializer.mapChanged(createdId);
 
     validateMapTargets(createdId);
 
@@ -719,6 +723,7 @@ public class MappingService {
               .map(MapRowTarget::getId)
               .collect(Collectors.toList());
       mapRowTargetRepository.addOutOfScopeTag(targetIds);
+      mapChangeTracker.mapChanged(mapId);
     }
     return validationResult;
   }
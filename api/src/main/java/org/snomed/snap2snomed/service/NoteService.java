@@ -4,6 +4,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.snomed.snap2snomed.model.Note;
 import org.snomed.snap2snomed.model.User;
 import org.snomed.snap2snomed.problem.DeleteProblem;
+import org.snomed.snap2snomed.repository.MapRowRepository;
 import org.snomed.snap2snomed.repository.NoteRepository;
 import org.snomed.snap2snomed.security.AuthenticationFacade;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,6 +19,7 @@ import java.util.Optional;
 @Component
 public class NoteService {
   @Autowired private AuthenticationFacade authenticationFacade;
+  @Autowired private MapRowRepository mapRowRepository;
   @Autowired private NoteRepository noteRepository;
 
   @Transactional
@@ -32,6 +34,7 @@ public class NoteService {
       if (authenticationFacade.isAdminUser() || isNoteAuthor || isProjectOwner) {
         note.setDeleted(true);
         noteRepository.save(note);
+        mapRowRepository.updateLatestUserNote(note.getMapRow().getId());
       }
       else {
         throw new DeleteProblem("note", "Only map owners or the note author can delete a note",
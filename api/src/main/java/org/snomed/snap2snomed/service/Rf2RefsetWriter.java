@@ -0,0 +1,207 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.snomed.snap2snomed.service;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.snomed.snap2snomed.controller.dto.MapExportRow;
+import org.snomed.snap2snomed.model.enumeration.MappingRelationship;
+import org.snomed.snap2snomed.problem.BadRequestDataProblem;
+
+import lombok.Value;
+
+/**
+ * Writes a map export as an RF2 map refset snapshot, zipped in the layout of an RF2 release.
+ *
+ * Each mapped row becomes a member whose referencedComponentId is the target concept and whose mapTarget is the
+ * source code. Rows must arrive in refset order, by target code then source code, see
+ * MapExportService.streamRefsetExport - this lets repeated target and source pairs be dropped and map priorities be
+ * numbered as rows arrive. Member ids are name based UUIDs of the refset, target and source, so exporting the same
+ * map again gives the same ids.
+ */
+public class Rf2RefsetWriter implements Closeable {
+
+  public enum RefsetType {
+    /** der2_sRefset_SimpleMap */
+    SIMPLE,
+    /** der2_iisssccRefset_ExtendedMap */
+    EXTENDED
+  }
+
+  /**
+   * Identifiers and release date of the refset, which Snap2SNOMED doesn't otherwise know
+   */
+  @Value
+  public static class Options {
+    RefsetType refsetType;
+    String refsetId;
+    String moduleId;
+    /** RF2 date, yyyyMMdd */
+    String effectiveTime;
+
+    public Options(RefsetType refsetType, String refsetId, String moduleId, String effectiveTime) {
+      if (refsetId == null || !refsetId.matches(SCTID_PATTERN)) {
+        throw new BadRequestDataProblem("RF2 export requires refsetId to be an SCTID");
+      }
+      if (moduleId == null || !moduleId.matches(SCTID_PATTERN)) {
+        throw new BadRequestDataProblem("RF2 export requires moduleId to be an SCTID");
+      }
+      if (effectiveTime == null || !effectiveTime.matches("\\d{8}")) {
+        throw new BadRequestDataProblem("RF2 export requires effectiveTime as yyyyMMdd");
+      }
+      this.refsetType = refsetType == null ? RefsetType.SIMPLE : refsetType;
+      this.refsetId = refsetId;
+      this.moduleId = moduleId;
+      this.effectiveTime = effectiveTime;
+    }
+  }
+
+  private static final String SCTID_PATTERN = "\\d{6,18}";
+
+  private static final String LINE_END = "\r\n";
+
+  /** 447637006 |Map source concept is properly classified| */
+  private static final String MAP_CATEGORY_PROPERLY_CLASSIFIED = "447637006";
+
+  private final Options options;
+
+  private final ZipOutputStream zip;
+
+  private final Writer writer;
+
+  private String referencedComponentId;
+
+  private String mapTarget;
+
+  private int mapPriority;
+
+  /**
+   * @param level deflate level of the zip entry
+   */
+  public Rf2RefsetWriter(OutputStream out, Options options, int level) throws IOException {
+    this.options = options;
+    zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+    zip.setLevel(level);
+    zip.putNextEntry(new ZipEntry(getEntryName(options)));
+    writer = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8));
+    if (options.getRefsetType() == RefsetType.EXTENDED) {
+      writer.write("id\teffectiveTime\tactive\tmoduleId\trefsetId\treferencedComponentId\tmapGroup\tmapPriority\t"
+          + "mapRule\tmapAdvice\tmapTarget\tcorrelationId\tmapCategoryId" + LINE_END);
+    } else {
+      writer.write("id\teffectiveTime\tactive\tmoduleId\trefsetId\treferencedComponentId\tmapTarget" + LINE_END);
+    }
+  }
+
+  /**
+   * @return true if the row was written as a member, false if it repeats the last member or can't be represented
+   */
+  public boolean write(MapExportRow row) throws IOException {
+    final String correlationId = getCorrelationId(row.getRelationship());
+    if (options.getRefsetType() == RefsetType.EXTENDED && correlationId == null) {
+      // an extended map member needs a correlation
+      return false;
+    }
+    if (row.getTargetCode().equals(referencedComponentId)) {
+      if (row.getSourceCode().equals(mapTarget)) {
+        return false;
+      }
+      mapPriority++;
+    } else {
+      mapPriority = 1;
+    }
+    referencedComponentId = row.getTargetCode();
+    mapTarget = row.getSourceCode();
+
+    final String id = UUID.nameUUIDFromBytes(
+        String.join("\t", options.getRefsetId(), referencedComponentId, mapTarget).getBytes(StandardCharsets.UTF_8))
+        .toString();
+    writer.write(String.join("\t", id, options.getEffectiveTime(), "1", options.getModuleId(), options.getRefsetId(),
+        referencedComponentId));
+    if (options.getRefsetType() == RefsetType.EXTENDED) {
+      writer.write("\t1\t" + mapPriority + "\tTRUE\t\t" + clean(mapTarget) + "\t" + correlationId + "\t"
+          + MAP_CATEGORY_PROPERLY_CLASSIFIED + LINE_END);
+    } else {
+      writer.write("\t" + clean(mapTarget) + LINE_END);
+    }
+    return true;
+  }
+
+  /**
+   * Finishes the zip, without closing the underlying stream
+   */
+  @Override
+  public void close() throws IOException {
+    writer.flush();
+    zip.closeEntry();
+    zip.finish();
+  }
+
+  /**
+   * Path of the refset file in an RF2 release, named for the module's namespace or INT for the international edition
+   */
+  static String getEntryName(Options options) {
+    final String moduleId = options.getModuleId();
+    final boolean extension = moduleId.length() >= 10 && moduleId.charAt(moduleId.length() - 3) == '1';
+    final String namespace = extension ? moduleId.substring(moduleId.length() - 10, moduleId.length() - 3) : "INT";
+    final String file = options.getRefsetType() == RefsetType.EXTENDED
+        ? "der2_iisssccRefset_ExtendedMapSnapshot_"
+        : "der2_sRefset_SimpleMapSnapshot_";
+    return "Snapshot/Refset/Map/" + file + namespace + "_" + options.getEffectiveTime() + ".txt";
+  }
+
+  /**
+   * ISO/TR 12300 correlation of the source code to the target, the relationships being of the target to the source
+   */
+  static String getCorrelationId(MappingRelationship relationship) {
+    if (relationship == null) {
+      return null;
+    }
+    switch (relationship) {
+      case TARGET_EQUIVALENT:
+        // 447557004 |Exact match|
+        return "447557004";
+      case TARGET_BROADER:
+        // 447558009 |Narrow to broad|
+        return "447558009";
+      case TARGET_NARROWER:
+        // 447559001 |Broad to narrow|
+        return "447559001";
+      case TARGET_INEXACT:
+        // 447560006 |Partial overlap|
+        return "447560006";
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * RF2 fields can't hold tabs or line breaks
+   */
+  private static String clean(String value) {
+    return value.replaceAll("[\t\r\n]", " ");
+  }
+}
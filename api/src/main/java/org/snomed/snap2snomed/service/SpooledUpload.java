@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.snomed.snap2snomed.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * An uploaded file saved by ImportJobService, read by CodeSetImportService as it would the upload itself.
+ */
+final class SpooledUpload implements MultipartFile {
+
+  private final String name;
+  private final String originalFilename;
+  private final String contentType;
+  private final Path file;
+
+  SpooledUpload(MultipartFile upload, Path file) {
+    this.name = upload.getName();
+    this.originalFilename = upload.getOriginalFilename();
+    this.contentType = upload.getContentType();
+    this.file = file;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public String getOriginalFilename() {
+    return originalFilename;
+  }
+
+  @Override
+  public String getContentType() {
+    return contentType;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return getSize() == 0;
+  }
+
+  @Override
+  public long getSize() {
+    try {
+      return Files.size(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public byte[] getBytes() throws IOException {
+    return Files.readAllBytes(file);
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    return Files.newInputStream(file);
+  }
+
+  @Override
+  public void transferTo(File dest) throws IOException {
+    Files.copy(file, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+}
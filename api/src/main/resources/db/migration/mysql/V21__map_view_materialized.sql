@@ -0,0 +1,50 @@
+/*
+ * Copyright © 2023 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+-- Replaces the map_view view with a table maintained alongside map_row, one row per row shown in the
+-- dual map view holding the blended status and the sibling row's author task.
+CREATE TABLE map_view_materialized (
+  map_row_id bigint NOT NULL,
+  map_id bigint NOT NULL,
+  source_code_id bigint NOT NULL,
+  status int NOT NULL,
+  blind_map_flag BOOLEAN NOT NULL,
+  sibling_row_author_task_id bigint DEFAULT NULL,
+  PRIMARY KEY (map_row_id),
+  KEY idx_map_view_materialized_map_status (map_id, status),
+  KEY idx_map_view_materialized_map_source (map_id, source_code_id),
+  CONSTRAINT fk_map_view_materialized_map_row FOREIGN KEY (map_row_id) REFERENCES map_row (id) ON DELETE CASCADE
+) engine=InnoDB;
+
+INSERT IGNORE INTO map_view_materialized (map_row_id, map_id, source_code_id, status, blind_map_flag, sibling_row_author_task_id)
+    SELECT map_row.id, map_row.map_id, map_row.source_code_id, map_row.status, map_row.blind_map_flag, null
+    FROM map_row, map, project
+    WHERE map_row.blind_map_flag = false
+    AND map_row.map_id = map.id
+    AND map.project_id = project.id
+    AND project.dual_map_mode = 1
+UNION ALL
+    SELECT mr1.id, mr1.map_id, mr1.source_code_id, (CASE WHEN mr1.status != mr2.status THEN 1 ELSE mr1.status END), mr1.blind_map_flag, mr2.author_task_id
+    FROM map_row mr1, map_row mr2, map, project
+    WHERE mr1.source_code_id = mr2.source_code_id
+    AND mr1.id < mr2.id
+    AND mr1.map_id = mr2.map_id
+    AND mr1.blind_map_flag = true
+    AND mr1.map_id = map.id
+    AND map.project_id = project.id
+    AND project.dual_map_mode = 1;
+
+DROP VIEW IF EXISTS map_view;
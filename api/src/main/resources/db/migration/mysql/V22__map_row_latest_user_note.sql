@@ -0,0 +1,23 @@
+/*
+ * Copyright © 2023 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+-- Modified time of each row's latest non deleted user (category 0) note, replacing the per row subquery on note
+ALTER TABLE map_row ADD latest_user_note_at datetime(6);
+
+UPDATE map_row mr SET latest_user_note_at =
+    (SELECT max(n.modified) FROM note n WHERE n.maprow_id = mr.id AND n.category = 0 AND n.deleted = false);
+
+ALTER TABLE map_row ADD INDEX map_latest_user_note_idx (map_id, latest_user_note_at);
@@ -0,0 +1,25 @@
+/*
+ * Copyright © 2023 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+-- ngram full text indexes so display "contains" filters can be answered from an index rather than a scan.
+-- The ngram parser drops every token containing a stopword, and the default list holds single letters such as 'a',
+-- so stopwords are disabled for the session the indexes are created in.
+SET SESSION innodb_ft_enable_stopword = OFF;
+
+ALTER TABLE imported_code ADD FULLTEXT INDEX imported_code_display_ft_idx (display) WITH PARSER ngram;
+
+ALTER TABLE map_row_target ADD FULLTEXT INDEX map_row_target_display_ft_idx (target_display) WITH PARSER ngram;
@@ -0,0 +1,31 @@
+/*
+ * Copyright © 2023 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+-- Numeric value of each additional column value, so NUMBER columns sort on a stored double rather than a per row CAST.
+-- Values are read as the CAST read them, the number at the start of the value with the rest ignored and 0 if there
+-- is none, matching AdditionalCodeValue.toNumber. Only the matched number is cast, as casting the whole value would
+-- fail the update in strict mode for values with trailing text.
+ALTER TABLE imported_code_additional_columns ADD number_value double;
+ALTER TABLE imported_code_additional_columns_aud ADD number_value double;
+
+UPDATE imported_code_additional_columns SET number_value =
+    CASE WHEN value IS NOT NULL THEN COALESCE(CAST(REGEXP_SUBSTR(REGEXP_REPLACE(value, '^[[:space:]]+', ''),
+        '^[-+]?([0-9]+[.]?[0-9]*|[.][0-9]+)([eE][-+]?[0-9]+)?') AS DOUBLE), 0) END;
+
+-- the map view joins a code's values by column, reading number_value from the index
+ALTER TABLE imported_code_additional_columns
+    ADD INDEX imported_code_additional_columns_order_idx (imported_code_id, collection_order, number_value);
@@ -226,7 +226,13 @@ public class Snap2snomedRestClient {
 
   public long createProject(String user, String title, String description, Set<String> owners,
       Set<String> members, Set<String> guests) throws JsonProcessingException {
-    final long id = create(givenUser(user), createProjectJson(title, description, owners, members, guests), "/projects");
+    return createProject(user, title, description, owners, members, guests, false);
+  }
+
+  public long createProject(String user, String title, String description, Set<String> owners,
+      Set<String> members, Set<String> guests, boolean dualMapMode) throws JsonProcessingException {
+    final long id = create(givenUser(user), createProjectJson(title, description, owners, members, guests, dualMapMode),
+        "/projects");
 
     givenUser(user)
         .get("/projects/" + id)
@@ -739,10 +745,15 @@ public class Snap2snomedRestClient {
 
   public String createProjectJson(String title, String description, Set<String> owners, Set<String> members, Set<String> guests)
       throws JsonProcessingException {
+    return createProjectJson(title, description, owners, members, guests, false);
+  }
+
+  public String createProjectJson(String title, String description, Set<String> owners, Set<String> members, Set<String> guests,
+      boolean dualMapMode) throws JsonProcessingException {
     final java.util.Map<String, Object> map = new HashMap<>();
     map.put("title", title);
     map.put("description", description);
-    map.put("dualMapMode", false);
+    map.put("dualMapMode", dualMapMode);
     if (owners != null) {
       map.put("owners", owners.stream().map(o -> "/users/" + o).collect(Collectors.toList()));
     }
@@ -25,14 +25,23 @@ import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
 
 import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.poi.ss.usermodel.Cell;
@@ -40,23 +49,29 @@ import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.TestInstance.Lifecycle;
 import org.snomed.snap2snomed.config.Snap2snomedConfiguration;
 import org.snomed.snap2snomed.controller.MapViewRestController;
 import org.snomed.snap2snomed.integration.IntegrationTestBase;
+import org.snomed.snap2snomed.model.MapView;
 import org.snomed.snap2snomed.model.enumeration.MapStatus;
 import org.snomed.snap2snomed.model.enumeration.MappingRelationship;
 import org.snomed.snap2snomed.model.enumeration.TaskType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.ClassPathResource;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.io.Files;
 
 import ca.uhn.fhir.context.FhirContext;
 import io.restassured.http.ContentType;
+import io.restassured.path.json.JsonPath;
+import io.restassured.response.Response;
 import io.restassured.response.ValidatableResponse;
 import io.restassured.specification.RequestSpecification;
 
@@ -69,6 +84,9 @@ public class MapViewControllerIT extends IntegrationTestBase {
   @Autowired
   Snap2snomedConfiguration config;
 
+  @Autowired
+  EntityManagerFactory entityManagerFactory;
+
   private long taskId, task2Id;
 
   private final String user = "another-test-user";
@@ -152,6 +170,270 @@ public class MapViewControllerIT extends IntegrationTestBase {
         .body("content[20].assignedReviewer.id", is(user2));
   }
 
+  @Test
+  public void shouldReadPageInFixedNumberOfStatements() throws Exception {
+    final Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.setStatisticsEnabled(true);
+    try {
+      // warm up the cached total so each page is read the same way, with a page size that leaves the pages measured
+      // below out of the page cache
+      getMapViewPageStatements(statistics, 20);
+
+      final long smallPage = getMapViewPageStatements(statistics, 10);
+      final long largePage = getMapViewPageStatements(statistics, 30);
+      assertThat(largePage).isEqualTo(smallPage);
+    } finally {
+      statistics.setStatisticsEnabled(false);
+    }
+  }
+
+  @Test
+  public void shouldRefreshDualMapViewWhenRowIsPatched() throws Exception {
+    final long dualProjectId = restClient.createProject(DEFAULT_TEST_USER_SUBJECT, "DualMapDemo", "Dual Map Project",
+        Set.of(DEFAULT_TEST_USER_SUBJECT), Set.of(), Set.of(), true);
+    final long dualMapId = restClient.createMap("Dual Map Version", "http://snomed.info/sct/32506021000036107/version/20210531",
+        "http://map.test.toscope", dualProjectId, codesetId);
+    final long authorTaskId = restClient.createTask(DEFAULT_TEST_USER_SUBJECT, TaskType.AUTHOR, dualMapId,
+        DEFAULT_TEST_USER_SUBJECT, "1-5", false, false, "Dual map author task");
+
+    final long rowId = restClient.givenDefaultUser()
+        .queryParam("sourceCode", "map row code 3.")
+        .get("/mapView/" + dualMapId + "/" + authorTaskId)
+        .then().statusCode(200)
+        .extract().body().jsonPath().getLong("content[0].rowId");
+
+    restClient.givenDefaultUser()
+        .queryParam("sourceCode", "map row code 3.")
+        .get("/mapView/" + dualMapId)
+        .then().statusCode(200)
+        .body("content", hasSize(1))
+        .body("content[0].status", is(MapStatus.UNMAPPED.name()));
+
+    // a plain PATCH is flushed as the transaction commits, after Spring's before commit callbacks have run
+    restClient.updateStatus(DEFAULT_TEST_USER_SUBJECT, rowId, MapStatus.DRAFT);
+
+    restClient.givenDefaultUser()
+        .queryParam("sourceCode", "map row code 3.")
+        .get("/mapView/" + dualMapId)
+        .then().statusCode(200)
+        .body("content", hasSize(1))
+        .body("content[0].status", is(MapStatus.DRAFT.name()));
+  }
+
+  @Test
+  public void shouldFilterDualMapViewWithSameStatementsWhateverTheListLength() throws Exception {
+    final long dualProjectId = restClient.createProject(DEFAULT_TEST_USER_SUBJECT, "DualMapDemo", "Dual Map Project",
+        Set.of(DEFAULT_TEST_USER_SUBJECT), Set.of(), Set.of(), true);
+    final long dualMapId = restClient.createMap("Dual Map Version", "http://snomed.info/sct/32506021000036107/version/20210531",
+        "http://map.test.toscope", dualProjectId, codesetId);
+
+    final Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.setStatisticsEnabled(true);
+    try {
+      statistics.clear();
+      restClient.givenDefaultUser()
+          .queryParam("status", MapStatus.UNMAPPED.name())
+          .get("/mapView/" + dualMapId)
+          .then().statusCode(200)
+          .body("page.totalElements", is(35));
+      final Set<String> oneStatus = Set.of(statistics.getQueries());
+
+      statistics.clear();
+      restClient.givenDefaultUser()
+          .queryParam("status", MapStatus.UNMAPPED.name(), MapStatus.DRAFT.name(), MapStatus.MAPPED.name())
+          .get("/mapView/" + dualMapId)
+          .then().statusCode(200)
+          .body("page.totalElements", is(35));
+      final Set<String> threeStatuses = Set.of(statistics.getQueries());
+
+      // each list is bound as one parameter, so the statement doesn't depend on how many values it holds
+      assertThat(threeStatuses).isEqualTo(oneStatus);
+    } finally {
+      statistics.setStatisticsEnabled(false);
+    }
+  }
+
+  @Test
+  public void shouldExportOnlyRequestedColumns() throws Exception {
+    final Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.setStatisticsEnabled(true);
+    try {
+      // warm up, so both exports below find the same things cached
+      exportMapViewFile(MapViewRestController.TEXT_CSV);
+
+      statistics.clear();
+      exportMapViewFile(MapViewRestController.TEXT_CSV);
+      final long minimalStatements = statistics.getPrepareStatementCount();
+      final String minimalQueries = String.join("\n", statistics.getQueries());
+
+      statistics.clear();
+      exportMapViewFile(MapViewRestController.TEXT_CSV, Pair.of("extraColumns", "notes"),
+          Pair.of("extraColumns", "assignedAuthor"), Pair.of("extraColumns", "assignedReviewer"),
+          Pair.of("extraColumns", "lastAuthor"), Pair.of("extraColumns", "lastReviewer"));
+      final long fullStatements = statistics.getPrepareStatementCount();
+      final String fullQueries = String.join("\n", statistics.getQueries());
+
+      // only the full export reads notes, and only it joins the tasks and users
+      assertThat(fullStatements).isEqualTo(minimalStatements + 1);
+      assertThat(minimalQueries).doesNotContain("authorAssignee", "reviewAssignee", "lastAuthor", "lastReviewer",
+          "noteBy");
+      assertThat(fullQueries).contains("authorAssignee", "reviewAssignee", "lastAuthor", "lastReviewer", "noteBy");
+    } finally {
+      statistics.setStatisticsEnabled(false);
+    }
+  }
+
+  @Test
+  public void shouldRevalidateViewWithETag() throws Exception {
+    final String eTag = restClient.givenUser(user)
+        .queryParam("size", 100)
+        .queryParam("sort", "sourceIndex")
+        .get("/mapView/" + mapId)
+        .then().statusCode(200)
+        .header("ETag", notNullValue())
+        .extract().header("ETag");
+
+    restClient.givenUser(user)
+        .header("If-None-Match", eTag)
+        .queryParam("size", 100)
+        .queryParam("sort", "sourceIndex")
+        .get("/mapView/" + mapId)
+        .then().statusCode(304);
+
+    // any change to the map's rows, targets, notes or tasks makes the tag stale
+    restClient.createNote(DEFAULT_TEST_USER_SUBJECT, restClient.getMapRowId(mapId, "map row code 34."), "ETag test note");
+
+    final String changedETag = restClient.givenUser(user)
+        .header("If-None-Match", eTag)
+        .queryParam("size", 100)
+        .queryParam("sort", "sourceIndex")
+        .get("/mapView/" + mapId)
+        .then().statusCode(200)
+        .body("content[34].latestNote", notNullValue())
+        .extract().header("ETag");
+    assertThat(changedETag).isNotEqualTo(eTag);
+  }
+
+  @Test
+  public void shouldGetViewColumnar() throws Exception {
+    final JsonPath body = restClient.givenUser(user)
+        .accept(MapViewRestController.COLUMNAR_JSON)
+        .queryParam("size", 100)
+        .queryParam("sort", "sourceIndex")
+        .get("/mapView/" + mapId)
+        .then().statusCode(200)
+        .contentType(MapViewRestController.COLUMNAR_JSON)
+        .body("content", nullValue())
+        .body("page.totalElements", is(35))
+        .body("rowId", hasSize(35))
+        .body("sourceCode[4]", is("map row code 4."))
+        .body("targetCode[4]", is("broader"))
+        .extract().jsonPath();
+
+    assertThat(body.getList("relationships", String.class).get(body.getInt("relationship[4]")))
+        .isEqualTo(MappingRelationship.TARGET_BROADER.name());
+    assertThat(body.getList("statuses", String.class).get(body.getInt("status[4]")))
+        .isEqualTo(MapStatus.DRAFT.name());
+    assertThat(body.getString("users[" + body.getInt("assignedAuthor[20][0]") + "].id")).isEqualTo(user);
+    assertThat(body.getString("users[" + body.getInt("assignedReviewer[20]") + "].id")).isEqualTo(user2);
+    assertThat(body.getList("users.id")).doesNotHaveDuplicates();
+    assertThat(body.getString("relationship[20]")).isNull();
+
+    // every MapView field has a column, additional column values being split into a column each
+    final java.util.Map<String, Object> columns = body.getMap("$");
+    for (final Field field : MapView.class.getDeclaredFields()) {
+      if (!Modifier.isStatic(field.getModifiers())) {
+        if (field.getName().equals("additionalColumns")) {
+          // one list per additional column of the source, which this map's source has none of
+          assertThat(columns).containsKey("additionalColumnValues");
+        } else {
+          assertThat(columns).as("column for MapView." + field.getName()).containsKey(field.getName());
+          assertThat(body.getList(field.getName())).as("column for MapView." + field.getName()).hasSize(35);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldStreamViewAsNdjson() throws Exception {
+    assertStreamMatchesPage(null);
+    assertStreamMatchesPage("map row code 1");
+  }
+
+  private void assertStreamMatchesPage(String sourceCode) throws Exception {
+    RequestSpecification pageRequest = restClient.givenUser(user)
+        .queryParam("size", 100)
+        .queryParam("sort", "sourceIndex");
+    RequestSpecification streamRequest = restClient.givenUser(user)
+        .accept(MapViewRestController.APPLICATION_NDJSON)
+        .queryParam("sort", "sourceIndex");
+    if (sourceCode != null) {
+      pageRequest = pageRequest.queryParam("sourceCode", sourceCode);
+      streamRequest = streamRequest.queryParam("sourceCode", sourceCode);
+    }
+    final JsonPath page = pageRequest.get("/mapView/" + mapId).then().statusCode(200).extract().jsonPath();
+    final String stream = streamRequest.get("/mapView/" + mapId)
+        .then().statusCode(200)
+        .contentType(MapViewRestController.APPLICATION_NDJSON)
+        .extract().asString();
+
+    final ObjectMapper mapper = new ObjectMapper();
+    final List<String> lines = stream.lines().collect(Collectors.toList());
+    assertThat(lines).hasSize(page.getList("content").size());
+    for (int i = 0; i < lines.size(); i++) {
+      final JsonNode line = mapper.readTree(lines.get(i));
+      assertThat(line.get("rowId").asLong()).isEqualTo(page.getLong("content[" + i + "].rowId"));
+      assertThat(line.get("sourceCode").asText()).isEqualTo(page.getString("content[" + i + "].sourceCode"));
+      assertThat(line.get("status").asText()).isEqualTo(page.getString("content[" + i + "].status"));
+    }
+  }
+
+  private long getMapViewPageStatements(Statistics statistics, int size) {
+    statistics.clear();
+    restClient.givenUser(user)
+        .queryParam("size", size)
+        .queryParam("sort", "sourceIndex")
+        .get("/mapView/" + mapId)
+        .then().statusCode(200)
+        .body("content", hasSize(size));
+    return statistics.getPrepareStatementCount();
+  }
+
+  @Test
+  public void shouldReturnSourceDetailsOfPageRows() throws Exception {
+    // the page size doesn't divide the rows, so the targets of map row code 1 and the last page are both covered
+    for (int page = 0; page < 4; page++) {
+      assertSourceDetailsMatchContent(restClient.givenUser(user)
+          .queryParam("size", 10)
+          .queryParam("page", page)
+          .queryParam("sort", "sourceIndex")
+          .get("/mapView/" + mapId));
+    }
+    assertSourceDetailsMatchContent(restClient.givenUser(user)
+        .queryParam("size", 5)
+        .queryParam("page", 1)
+        .queryParam("sort", "sourceIndex")
+        .queryParam("sourceCode", "map row code 1")
+        .get("/mapView/" + mapId));
+    assertSourceDetailsMatchContent(restClient.givenUser(user)
+        .queryParam("size", 5)
+        .queryParam("page", 1)
+        .queryParam("sort", "sourceIndex")
+        .get("/mapView/task/" + taskId));
+  }
+
+  private void assertSourceDetailsMatchContent(Response response) {
+    response.then().statusCode(200);
+    final JsonPath body = response.jsonPath();
+    final List<Integer> rowIds = body.getList("content.rowId", Integer.class);
+    assertThat(rowIds).isNotEmpty();
+    assertThat(body.getList("sourceDetails.mapRowId", Integer.class)).isEqualTo(rowIds);
+    assertThat(body.getList("sourceDetails.sourceIndex", Integer.class))
+        .isEqualTo(body.getList("content.sourceIndex", Integer.class));
+    assertThat(body.getList("sourceDetails.mapRowTargetId", Integer.class))
+        .isEqualTo(body.getList("content.targetId", Integer.class));
+  }
+
   private ValidatableResponse getMapView(int size, int expectedStatusCode, String sortColumn, Pair<String, Object>... qs) {
     final RequestSpecification request = restClient.givenUser(user)
         .queryParam("size", 100)
@@ -249,6 +531,77 @@ public class MapViewControllerIT extends IntegrationTestBase {
         .body("content[0].sourceDisplay", is("map row display 10"));
   }
 
+  @Test
+  public void shouldFilterDisplaysAsLikeWithFullTextIndex() throws Exception {
+    // terms shorter than the ngram size, of several words and with punctuation are matched exactly as LIKE would
+    for (final String term : List.of("y", "4", "row display 1", "DISPLAY 3", "display-1", "row, display")) {
+      assertDisplayFilterMatchesLike(user, mapId, "sourceDisplay", term);
+    }
+    for (final String term : List.of("x", "D E F", "has a tab", "xyz", "broad-er")) {
+      assertDisplayFilterMatchesLike(user, mapId, "targetDisplay", term);
+    }
+  }
+
+  @Test
+  public void shouldFilterDualMapDisplaysAsLikeWithFullTextIndex() throws Exception {
+    final long dualProjectId = restClient.createProject(DEFAULT_TEST_USER_SUBJECT, "DualMapDemo", "Dual Map Project",
+        Set.of(DEFAULT_TEST_USER_SUBJECT), Set.of(), Set.of(), true);
+    final long dualMapId = restClient.createMap("Dual Map Version", "http://snomed.info/sct/32506021000036107/version/20210531",
+        "http://map.test.toscope", dualProjectId, codesetId);
+
+    for (final String term : List.of("y", "4", "row display 1", "DISPLAY 3", "display-1", "row, display")) {
+      assertDisplayFilterMatchesLike(DEFAULT_TEST_USER_SUBJECT, dualMapId, "sourceDisplay", term);
+    }
+  }
+
+  @Test
+  public void shouldAnswerDisplayMatchFromFullTextIndex() throws Exception {
+    // the plan rather than a timing, the test maps are far too small for the difference to show
+    final EntityManager entityManager = entityManagerFactory.createEntityManager();
+    try {
+      final List<?> plan = entityManager.createNativeQuery("EXPLAIN SELECT id FROM imported_code"
+              + " WHERE MATCH(display) AGAINST (:query IN BOOLEAN MODE) AND display LIKE :like")
+          .setParameter("query", "+\"row\" +\"display\"")
+          .setParameter("like", "%row display%")
+          .getResultList();
+      assertThat(plan).hasSize(1);
+      final Object[] row = (Object[]) plan.get(0);
+      assertThat(row[4]).isEqualTo("fulltext");
+      assertThat(row[6]).isEqualTo("imported_code_display_ft_idx");
+    } finally {
+      entityManager.close();
+    }
+  }
+
+  /**
+   * Checks the view filtered on the display returns the rows whose display contains the term ignoring case, the
+   * semantics of the LIKE the full text match narrows the rows for
+   */
+  private void assertDisplayFilterMatchesLike(String subject, long viewMapId, String display, String term) {
+    final List<java.util.Map<String, Object>> all = restClient.givenUser(subject)
+        .queryParam("size", 100)
+        .queryParam("sort", "sourceIndex")
+        .get("/mapView/" + viewMapId)
+        .then().statusCode(200)
+        .extract().jsonPath().getList("content");
+    final List<String> expected = all.stream()
+        .filter(view -> view.get(display) != null
+            && ((String) view.get(display)).toLowerCase().contains(term.toLowerCase()))
+        .map(view -> view.get("rowId") + "/" + view.get("targetId"))
+        .collect(Collectors.toList());
+
+    final List<java.util.Map<String, Object>> filtered = restClient.givenUser(subject)
+        .queryParam("size", 100)
+        .queryParam("sort", "sourceIndex")
+        .queryParam(display, term)
+        .get("/mapView/" + viewMapId)
+        .then().statusCode(200)
+        .extract().jsonPath().getList("content");
+    assertThat(filtered.stream().map(view -> view.get("rowId") + "/" + view.get("targetId")))
+        .as("%s containing '%s'", display, term)
+        .containsExactlyInAnyOrderElementsOf(expected);
+  }
+
   @Test
   public void shouldGetViewTargetCodeFilter() throws Exception {
     getMapView(1, 200, "sourceIndex", Pair.of("targetCode", "tabby"))
@@ -649,6 +1002,54 @@ public class MapViewControllerIT extends IntegrationTestBase {
     assertXlsxContent(result);
   }
 
+  @Test
+  public void testExportJobCsv() throws Exception {
+    final String location = restClient.givenUser(user)
+        .queryParam("format", MapViewRestController.TEXT_CSV)
+        .post("/mapView/" + mapId + "/$export")
+        .then().statusCode(202)
+        .body("status", notNullValue())
+        .extract().header("Location");
+
+    String status = null;
+    for (int i = 0; i < 100 && !"COMPLETED".equals(status); i++) {
+      Thread.sleep(100);
+      status = restClient.givenUser(user).get(location).then().statusCode(200).extract().path("status");
+      assertThat(status).isNotEqualTo("FAILED");
+    }
+    restClient.givenUser(user).get(location).then().statusCode(200)
+        .body("status", is("COMPLETED"))
+        .body("estimatedTotal", is(35))
+        .body("rowsWritten", is(35));
+
+    final byte[] result = restClient.givenUser(user, "application/json", MapViewRestController.TEXT_CSV)
+        .get(location + "/file")
+        .then().statusCode(200)
+        .contentType(MapViewRestController.TEXT_CSV)
+        .extract().body().asByteArray();
+    assertCsvContent(result);
+
+    // resuming an interrupted download
+    final byte[] rest = restClient.givenUser(user, "application/json", MapViewRestController.TEXT_CSV)
+        .header("Range", "bytes=10-")
+        .get(location + "/file")
+        .then().statusCode(206)
+        .extract().body().asByteArray();
+    assertThat(rest).isEqualTo(Arrays.copyOfRange(result, 10, result.length));
+  }
+
+  @Test
+  public void testExportJobTakesCachedCount() throws Exception {
+    restClient.givenUser(user).get("/mapView/" + mapId + "/$count").then().statusCode(200);
+
+    // the view's count is already known, so the job has its estimate before it starts
+    restClient.givenUser(user)
+        .queryParam("format", MapViewRestController.TEXT_TSV)
+        .post("/mapView/" + mapId + "/$export")
+        .then().statusCode(202)
+        .body("estimatedTotal", is(35));
+  }
+
   // @Test
   // public void testExportXlsxExtended() throws Exception {
   //   byte[] result = exportMapViewFile(MapViewRestController.APPLICATION_XSLX, Pair.of("extraColumns", "notes"), Pair.of("extraColumns", "author"), Pair.of("extraColumns", "reviewer"));
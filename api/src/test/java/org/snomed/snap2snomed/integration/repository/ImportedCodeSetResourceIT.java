@@ -31,7 +31,9 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.csv.CSVFormat;
@@ -40,13 +42,18 @@ import org.apache.commons.csv.CSVRecord;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.snomed.snap2snomed.config.Snap2snomedConfiguration;
 import org.snomed.snap2snomed.integration.IntegrationTestBase;
 import org.snomed.snap2snomed.model.ImportedCode;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.restassured.http.ContentType;
 
 @TestInstance(Lifecycle.PER_CLASS)
 public class ImportedCodeSetResourceIT extends IntegrationTestBase {
@@ -59,6 +66,7 @@ public class ImportedCodeSetResourceIT extends IntegrationTestBase {
   private static final String CODE_SIZE_PROBLEM_URI = "http://snap2snomed.app/problem/codeset-import/code-size";
   private static final String DISPLAY_SIZE_PROBLEM_URI = "http://snap2snomed.app/problem/codeset-import/display-size";
   private static final String DELIMITER_PROBLEM_URI = "http://snap2snomed.app/problem/codeset-import/invalid-delimiter";
+  private static final String INVALID_CHARACTERS_PROBLEM_URI = "http://snap2snomed.app/problem/codeset-import/invalid-characters";
   private static final String ADDITIONAL_COLUMN_LENGTH_PROBLEM_URI = "http://snap2snomed.app/problem/codeset-import/additional-column-size";
 
   private static final String CONSTRAINT_VALIDATION_PROBLEM_URI = "https://zalando.github.io/problem/constraint-violation";
@@ -119,6 +127,9 @@ public class ImportedCodeSetResourceIT extends IntegrationTestBase {
   private static final String[] AAA_CSV_COLUMN_2_LIST = {"14:22:27", "22:33:20", "16:23:11", "09:32:09", "04:30:43", "01:36:55", "14:28:43",
       "01:12:19", "00:50:48", "22:20:59", "08:41:29", "14:33:46", "23:53:46"};
 
+  @Autowired
+  Snap2snomedConfiguration config;
+
   private static final String ANOTHER_USER = "another-user";
   private static final String PROJECT_USER = "project-user";
 
@@ -152,6 +163,86 @@ public class ImportedCodeSetResourceIT extends IntegrationTestBase {
         AAA_TSV_CODE_LIST, AAA_TSV_COLUMN_2_LIST);
   }
 
+  /**
+   * Tests additional columns are imported with their codes when the import is written in several batches
+   */
+  @Test
+  public void shouldCreateEntityInBatches() throws Exception {
+    final int importBatchSize = config.getImportBatchSize();
+    config.setImportBatchSize(4);
+    try {
+      final String[] indexes = { "3", "4" };
+      final String[] types = { "NUMBER", "TEXT" };
+      verifyCreatedImportedCodeSet("AAA Tabs Batches", "1.0", 0, 2, true,
+          indexes, types,
+          "\t", new ClassPathResource("AAA-extra-columns.tsv").getFile(), "text/tsv",
+          AAA_TSV_CODE_LIST, AAA_TSV_COLUMN_2_LIST);
+    } finally {
+      config.setImportBatchSize(importBatchSize);
+    }
+  }
+
+  /**
+   * Tests codes and their additional columns loaded with LOAD DATA LOCAL INFILE are the same as those inserted
+   */
+  @Test
+  public void shouldCreateEntityWithLocalInfile() throws Exception {
+    final int importBatchSize = config.getImportBatchSize();
+    config.setImportBatchSize(4);
+    config.setImportLocalInfile(true);
+    try {
+      final String[] indexes = { "3", "4" };
+      final String[] types = { "NUMBER", "TEXT" };
+      verifyCreatedImportedCodeSet("AAA Tabs Local Infile", "1.0", 0, 2, true,
+          indexes, types,
+          "\t", new ClassPathResource("AAA-extra-columns.tsv").getFile(), "text/tsv",
+          AAA_TSV_CODE_LIST, AAA_TSV_COLUMN_2_LIST);
+    } finally {
+      config.setImportBatchSize(importBatchSize);
+      config.setImportLocalInfile(false);
+    }
+  }
+
+  /**
+   * Tests a code set imported by a job, which can no longer be cancelled once it has completed
+   */
+  @Test
+  public void shouldCreateEntityWithImportJob() throws Exception {
+    final Map<String, Object> importDetails = new HashMap<>();
+    importDetails.put("name", "AAA Tabs Job");
+    importDetails.put("version", "1.0");
+    importDetails.put("codeColumnIndex", 0);
+    importDetails.put("displayColumnIndex", 2);
+    importDetails.put("hasHeader", true);
+    importDetails.put("delimiter", "\t");
+
+    final String location = restClient.givenUser(DEFAULT_TEST_USER_SUBJECT, ContentType.MULTIPART.getContentTypeStrings()[0], ContentType.JSON)
+        .multiPart("file", new ClassPathResource("AAA.tsv").getFile(), "text/tsv")
+        .multiPart("importDetails", new ObjectMapper().writeValueAsString(importDetails), "application/json")
+        .post("/importedCodeSets/$import")
+        .then().statusCode(202)
+        .body("type", is("CODE_SET"))
+        .extract().header("Location");
+
+    String status = null;
+    for (int i = 0; i < 100 && !"COMPLETED".equals(status); i++) {
+      Thread.sleep(100);
+      status = restClient.givenDefaultUser().get(location).then().statusCode(200).extract().path("status");
+      assertThat(status).isNotIn("FAILED", "CANCELLED");
+    }
+    final int id = restClient.givenDefaultUser().get(location).then().statusCode(200)
+        .body("status", is("COMPLETED"))
+        .body("recordsRead", is(AAA_TSV_CODE_LIST.length))
+        .body("rowsInserted", is(AAA_TSV_CODE_LIST.length))
+        .extract().path("importedCodeSetId");
+
+    restClient.givenDefaultUser().get("/importedCodeSets/search/byIdForOwner?id=" + id)
+        .then().statusCode(200)
+        .body("name", is("AAA Tabs Job"));
+
+    restClient.givenDefaultUser().delete(location).then().statusCode(409);
+  }
+
   /**
    * Tests invalid metadata - no version
    */
@@ -228,6 +319,15 @@ public class ImportedCodeSetResourceIT extends IntegrationTestBase {
         "text/csv", 400, null);
   }
 
+  /**
+   * Test a file that is not UTF-8 beyond the part read to detect its format
+   */
+  @Test
+  public void failCreateEntityInvalidUtf8() throws Exception {
+    restClient.expectCreateImportedCodeSetFail("badAAA", "2", 0, 1, true, null, null, "\t",
+        new ClassPathResource("AAA_invalid_utf8.tsv").getFile(), "text/tsv", 400, INVALID_CHARACTERS_PROBLEM_URI);
+  }
+
   /**
    * Test invalid CSV format file (e.g. messed up delimiters/quotes) to text/csv
    */
@@ -313,6 +413,36 @@ public class ImportedCodeSetResourceIT extends IntegrationTestBase {
         "text/csv", 400, DUPLICATE_CODE_PROBLEM_URI);
   }
 
+  /**
+   * Test duplicate code values in different batches of the import - expect failure
+   */
+  @Test
+  public void failCreateEntityDuplicateCodeInEarlierBatch() throws Exception {
+    final int importBatchSize = config.getImportBatchSize();
+    config.setImportBatchSize(4);
+    try {
+      restClient.expectCreateImportedCodeSetFail("badAAA", "2", 0, 2, true, null, null, ",", new ClassPathResource("AAA_duplicate_code.csv").getFile(),
+          "text/csv", 400, DUPLICATE_CODE_PROBLEM_URI);
+    } finally {
+      config.setImportBatchSize(importBatchSize);
+    }
+  }
+
+  /**
+   * Test a duplicate of a code in an earlier batch is reported ahead of a later problem in the same batch
+   */
+  @Test
+  public void failCreateEntityDuplicateCodeBeforeBlankDisplay() throws Exception {
+    final int importBatchSize = config.getImportBatchSize();
+    config.setImportBatchSize(4);
+    try {
+      restClient.expectCreateImportedCodeSetFail("badAAA", "2", 0, 2, true, null, null, ",",
+          new ClassPathResource("AAA_duplicate_code_before_blank_display.csv").getFile(), "text/csv", 400, DUPLICATE_CODE_PROBLEM_URI);
+    } finally {
+      config.setImportBatchSize(importBatchSize);
+    }
+  }
+
   /**
    * Test code value null/blank
    */
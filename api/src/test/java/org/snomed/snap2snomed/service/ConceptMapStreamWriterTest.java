@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.snomed.snap2snomed.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import org.hl7.fhir.r4.model.ConceptMap;
+import org.hl7.fhir.r4.model.ConceptMap.ConceptMapGroupComponent;
+import org.hl7.fhir.r4.model.ConceptMap.SourceElementComponent;
+import org.hl7.fhir.r4.model.ConceptMap.TargetElementComponent;
+import org.hl7.fhir.r4.model.Enumerations.ConceptMapEquivalence;
+import org.hl7.fhir.r4.model.Enumerations.PublicationStatus;
+import org.junit.jupiter.api.Test;
+import org.snomed.snap2snomed.controller.dto.MapExportRow;
+import org.snomed.snap2snomed.model.enumeration.MappingRelationship;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+
+class ConceptMapStreamWriterTest {
+
+  private final IParser parser = FhirContext.forR4().newJsonParser();
+
+  @Test
+  void matchesEncodedResource() throws IOException {
+    final List<MapExportRow> rows = List.of(
+        row(1L, "A", "Source \"a\" é", "123", "Target 1", MappingRelationship.TARGET_BROADER, false),
+        row(1L, "A", "Source \"a\" é", "456", null, MappingRelationship.TARGET_INEXACT, false),
+        row(2L, "B", "Source b", null, null, null, true),
+        row(3L, "C", "Source c", null, null, null, false),
+        row(4L, "D", "Source d", "789", "Target 2", null, false));
+
+    final ConceptMap expected = getHeader();
+    final ConceptMapGroupComponent group = expected.getGroupFirstRep();
+    SourceElementComponent element = null;
+    Long index = null;
+    for (final MapExportRow row : rows) {
+      if (!row.getSourceIndex().equals(index)) {
+        element = group.addElement().setCode(row.getSourceCode()).setDisplay(row.getSourceDisplay());
+        index = row.getSourceIndex();
+      }
+      final TargetElementComponent target = element.addTarget();
+      if (row.getNoMap()) {
+        target.setEquivalence(ConceptMapEquivalence.UNMATCHED);
+      } else {
+        target.setCode(row.getTargetCode()).setDisplay(row.getTargetDisplay());
+        if (row.getRelationship() == MappingRelationship.TARGET_BROADER) {
+          target.setEquivalence(ConceptMapEquivalence.WIDER);
+        } else if (row.getRelationship() == MappingRelationship.TARGET_INEXACT) {
+          target.setEquivalence(ConceptMapEquivalence.RELATEDTO);
+        }
+      }
+    }
+
+    assertThat(write(rows)).isEqualTo(parser.encodeResourceToString(expected));
+  }
+
+  @Test
+  void writesHeaderOnlyWithoutRows() throws IOException {
+    assertThat(write(List.of())).isEqualTo(parser.encodeResourceToString(getHeader()));
+  }
+
+  private String write(List<MapExportRow> rows) throws IOException {
+    final StringWriter out = new StringWriter();
+    try (ConceptMapStreamWriter writer = new ConceptMapStreamWriter(out, parser, getHeader())) {
+      for (final MapExportRow row : rows) {
+        writer.write(row);
+      }
+    }
+    return out.toString();
+  }
+
+  private ConceptMap getHeader() {
+    final ConceptMap conceptMap = new ConceptMap();
+    conceptMap.setStatus(PublicationStatus.UNKNOWN);
+    conceptMap.setTitle("Test map");
+    conceptMap.addGroup().setSourceVersion("1.0").setTarget("http://snomed.info/sct");
+    return conceptMap;
+  }
+
+  private MapExportRow row(Long index, String code, String display, String targetCode, String targetDisplay,
+      MappingRelationship relationship, boolean noMap) {
+    final MapExportRow row = new MapExportRow();
+    row.setSourceIndex(index);
+    row.setSourceCode(code);
+    row.setSourceDisplay(display);
+    row.setTargetCode(targetCode);
+    row.setTargetDisplay(targetDisplay);
+    row.setRelationship(relationship);
+    row.setNoMap(noMap);
+    return row;
+  }
+}
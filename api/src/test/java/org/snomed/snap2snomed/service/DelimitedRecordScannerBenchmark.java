@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.snomed.snap2snomed.service;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares reading a code set upload with DelimitedRecordScanner to reading it as CodeSetImportService did before,
+ * with CSVParser over a strict UTF-8 reader and a control character check of each value. Both read every field of
+ * every record, as an import with additional columns does.
+ *
+ * Not a test, run it with main() from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DelimitedRecordScannerBenchmark {
+
+  @Param({"100000"})
+  int rows;
+
+  /** Whether displays are quoted, with delimiters and doubled quotes in them */
+  @Param({"false", "true"})
+  boolean quoted;
+
+  private byte[] content;
+
+  @Setup
+  public void setUp() {
+    final StringBuilder file = new StringBuilder("code,display,system,version\n");
+    for (int i = 0; i < rows; i++) {
+      file.append("C").append(i).append(',');
+      if (quoted) {
+        file.append("\"Display of code ").append(i).append(", the \"\"").append(i % 7).append("\"\" kind\"");
+      } else {
+        file.append("Display of code ").append(i).append(" the ").append(i % 7).append(" kind");
+      }
+      file.append(i % 10 == 0 ? ",Classification internationale \u00e9dition" : ",Local codes")
+          .append(',').append(i % 3).append('\n');
+    }
+    content = file.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public void csvParser(Blackhole blackhole) throws IOException {
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content),
+        StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT)));
+        CSVParser parser = CSVFormat.DEFAULT.builder()
+            .setHeader()
+            .setSkipHeaderRecord(true)
+            .setAllowMissingColumnNames(true)
+            .setAllowDuplicateHeaderNames(true)
+            .build()
+            .parse(reader)) {
+      for (final CSVRecord csvRecord : parser) {
+        for (final String value : csvRecord) {
+          if (containsControlCharacter(value)) {
+            throw new IllegalStateException("Control character in record " + csvRecord.getRecordNumber());
+          }
+          blackhole.consume(value);
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public void scanner(Blackhole blackhole) throws IOException {
+    try (DelimitedRecordScanner scanner = new DelimitedRecordScanner(new ByteArrayInputStream(content), ',')) {
+      scanner.peekFirstLine();
+      scanner.next();
+      blackhole.consume(scanner.values());
+      while (scanner.next()) {
+        for (int i = 0; i < scanner.size(); i++) {
+          blackhole.consume(scanner.get(i));
+        }
+      }
+    }
+  }
+
+  private static boolean containsControlCharacter(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      final char chr = value.charAt(i);
+      if (chr < 32 && chr != 9) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(DelimitedRecordScannerBenchmark.class.getSimpleName()).build()).run();
+  }
+}
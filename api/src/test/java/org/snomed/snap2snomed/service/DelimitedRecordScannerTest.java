@@ -0,0 +1,173 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.snomed.snap2snomed.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class DelimitedRecordScannerTest {
+
+  /** Small enough that records span refills of the buffer, and grow it */
+  private static final int BUFFER_SIZE = 4;
+
+  @ParameterizedTest
+  @ValueSource(strings = {
+      "code,display\n1,one\n2,two\n",
+      "code,display\r\n1,one\r\n2,two",
+      "code,display\r1,one\r\r\n\n2,two\n\n",
+      "a,\n,b\n,\n",
+      "\"a\",\"b,c\"\n\"d\"\"e\",\"\"\n",
+      "a\"b,\"c\"\" \"\"d\"\n",
+      "\"a\"  ,\"b\" \t\n\"c\" \u2003,d\n",
+      "x,\u00e9t\u00e9,\u4e2d\u6587,\ud83d\ude00\n\"\u00e9\"\"\ud83d\ude00\",\u007f\n",
+      "  ,\t\n \n"
+  })
+  void splitsRecordsAsCsvParser(String content) throws IOException {
+    assertThat(scan(content, ',')).isEqualTo(parse(content, ','));
+  }
+
+  @Test
+  void splitsOnAnyAsciiDelimiter() throws IOException {
+    final String content = "code\tdisplay\n1\t\"one\ttwo\"\n2,3\t;\n";
+    assertThat(scan(content, '\t')).isEqualTo(parse(content, '\t'));
+    assertThat(scan("a;b,c\n", ';')).isEqualTo(parse("a;b,c\n", ';'));
+  }
+
+  @Test
+  void readsLinesWithoutDelimiter() throws IOException {
+    final String content = "one, two\tthree\n\n\"quoted, \"\"display\"\"\"\n";
+    assertThat(scan(content, null)).isEqualTo(parse(content, '\0'));
+  }
+
+  @Test
+  void countsRecordsAsCsvParser() throws IOException {
+    try (DelimitedRecordScanner scanner = scanner("\n\nh1,h2\n\na,b\r\nc,d", ',')) {
+      assertTrue(scanner.next());
+      assertThat(scanner.values()).containsExactly("h1", "h2");
+      assertThat(scanner.getRecordNumber()).isEqualTo(1);
+      assertTrue(scanner.next());
+      assertThat(scanner.getRecordNumber()).isEqualTo(2);
+      assertTrue(scanner.next());
+      assertThat(scanner.getRecordNumber()).isEqualTo(3);
+      assertFalse(scanner.next());
+      assertThat(scanner.getRecordNumber()).isEqualTo(3);
+    }
+  }
+
+  @Test
+  void failsOnMissingField() throws IOException {
+    try (DelimitedRecordScanner scanner = scanner("a,b\n", ',')) {
+      assertTrue(scanner.next());
+      assertThrows(IndexOutOfBoundsException.class, () -> scanner.get(2));
+    }
+  }
+
+  @Test
+  void failsOnQuotingAsCsvParser() {
+    assertThrows(IOException.class, () -> scan("a,\"b\"c\n", ','));
+    assertThrows(IOException.class, () -> scan("a,\"b", ','));
+    assertThrows(IOException.class, () -> scan("a,\"b\"\"", ','));
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {
+      // control characters, including line breaks in a quoted value
+      "a,b\u0000\n", "a\u0001,b\n", "a,\"b\nc\"\n", "a,\"b\rc\"\n", "\"a\"\f,b\n",
+      // continuation byte without a lead, overlong encodings, surrogates, beyond U+10FFFF
+      "a,\u0080\n", "a,\u00c0\u00af\n", "a,\u00e0\u0080\u00af\n", "a,\u00ed\u00a0\u0080\n", "a,\u00f4\u0090\u0080\u0080\n",
+      // truncated sequences
+      "a,\u00e4\u00b8\n", "a,\u00f0\u009f\u0098"
+  })
+  void failsOnInvalidCharacters(String latin1) {
+    // each char of the string stands for a byte
+    final byte[] bytes = latin1.getBytes(StandardCharsets.ISO_8859_1);
+    assertThrows(DelimitedRecordScanner.InvalidCharacterException.class, () -> scan(bytes, ','));
+  }
+
+  @Test
+  void checksFirstLine() throws IOException {
+    try (DelimitedRecordScanner scanner = scanner("", ',')) {
+      assertFalse(scanner.peekFirstLine());
+    }
+    try (DelimitedRecordScanner scanner = scanner("code display\n1,one\n", ',')) {
+      assertTrue(scanner.peekFirstLine());
+      assertFalse(scanner.firstLineHasDelimiter());
+    }
+    try (DelimitedRecordScanner scanner = scanner("code,display\n1,one\n", ',')) {
+      assertTrue(scanner.peekFirstLine());
+      assertTrue(scanner.firstLineHasDelimiter());
+      assertTrue(scanner.next());
+      assertThat(scanner.values()).containsExactly("code", "display");
+    }
+    try (DelimitedRecordScanner scanner = scanner("code\u0007,display\n", ',')) {
+      assertThrows(DelimitedRecordScanner.InvalidCharacterException.class, scanner::peekFirstLine);
+    }
+  }
+
+  @Test
+  void rejectsDelimitersItCannotSplitOn() {
+    assertThrows(IllegalArgumentException.class, () -> scanner("", '"'));
+    assertThrows(IllegalArgumentException.class, () -> scanner("", '\n'));
+    assertThrows(IllegalArgumentException.class, () -> scanner("", '\u00a7'));
+  }
+
+  private static DelimitedRecordScanner scanner(String content, Character delimiter) {
+    return new DelimitedRecordScanner(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), delimiter,
+        BUFFER_SIZE);
+  }
+
+  private static List<List<String>> scan(String content, Character delimiter) throws IOException {
+    return scan(content.getBytes(StandardCharsets.UTF_8), delimiter);
+  }
+
+  private static List<List<String>> scan(byte[] content, Character delimiter) throws IOException {
+    final List<List<String>> records = new ArrayList<>();
+    try (DelimitedRecordScanner scanner = new DelimitedRecordScanner(new ByteArrayInputStream(content), delimiter,
+        BUFFER_SIZE)) {
+      while (scanner.next()) {
+        records.add(scanner.values());
+      }
+    }
+    return records;
+  }
+
+  private static List<List<String>> parse(String content, char delimiter) throws IOException {
+    final List<List<String>> records = new ArrayList<>();
+    try (CSVParser parser = CSVFormat.DEFAULT.withDelimiter(delimiter).parse(new StringReader(content))) {
+      for (final CSVRecord csvRecord : parser) {
+        records.add(csvRecord.toList());
+      }
+    }
+    return records;
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.snomed.snap2snomed.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class DualMapViewJoinPlannerTest {
+
+  @Test
+  void joinsOnlyTargetsWhenNothingElseIsReferenced() {
+    final String from = new DualMapViewJoinPlanner(2).getFromClause(" WHERE map_view.map_id = :mapId ");
+
+    assertThat(from).startsWith("FROM map_view_materialized map_view ");
+    assertThat(from).contains(" map_row_target maprowtarg1_ ");
+    assertThat(from).doesNotContain(" map_row ", " task ", " `user` ", " imported_code ", " imported_code_additional_columns ");
+  }
+
+  @Test
+  void joinsDependenciesOnceInOrder() {
+    final String from = new DualMapViewJoinPlanner(0).getFromClause(
+        "select maprow15_.latest_user_note_at ",
+        " WHERE map_view.map_id = :mapId AND ( FIND_IN_SET(task3_.assignee_id, :filter0) > 0 ) ",
+        " ORDER BY CONCAT(assigned_author_user.given_name, assigned_author_user.family_name) ASC");
+
+    assertThat(from.split(" map_row ", -1)).hasSize(2);
+    assertThat(from.split(" task ", -1)).hasSize(2);
+    assertThat(from.indexOf(" map_row maprow15_ ")).isLessThan(from.indexOf(" task task3_ "));
+    assertThat(from.indexOf(" task task3_ ")).isLessThan(from.indexOf(" `user` assigned_author_user "));
+    assertThat(from).doesNotContain("task5_", "task7_", "user9_", "user11_", "importedco14_");
+  }
+
+  @Test
+  void additionalColumnsJoinedOnSourceCode() {
+    final String from = new DualMapViewJoinPlanner(10).getFromClause(" ORDER BY additionalColumn10.value ASC");
+
+    assertThat(from).contains("imported_code_additional_columns additionalColumn10 on (map_view.source_code_id");
+    assertThat(from).doesNotContain("additionalColumn1 ", "importedco14_");
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.snomed.snap2snomed.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.snomed.snap2snomed.config.Snap2snomedConfiguration;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+class ExportCompressionTest {
+
+  private final ExportCompression compression = new ExportCompression();
+
+  ExportCompressionTest() {
+    compression.configuration = new Snap2snomedConfiguration();
+  }
+
+  @ParameterizedTest
+  @CsvSource(delimiter = '|', value = {
+      "gzip, deflate, br|gzip",
+      "gzip, deflate, br, zstd|zstd",
+      "zstd;q=0.5, gzip|gzip",
+      "gzip;q=0.8, zstd;q=0.8|zstd",
+      "zstd;q=0, gzip;q=0|",
+      "deflate, br|",
+      "identity|",
+      "*|gzip",
+      "|"})
+  void negotiate(String acceptEncoding, String expected) {
+    assertThat(compression.negotiate(acceptEncoding)).isEqualTo(expected);
+  }
+
+  @Test
+  void roundTrip() throws IOException {
+    final byte[] content = "Source code,Source display\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+    assertThat(decompress(ExportCompression.GZIP, compress(ExportCompression.GZIP, content))).isEqualTo(content);
+    assertThat(decompress(ExportCompression.ZSTD, compress(ExportCompression.ZSTD, content))).isEqualTo(content);
+  }
+
+  private byte[] compress(String encoding, byte[] content) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (OutputStream out = compression.compress(bytes, encoding)) {
+      out.write(content);
+    }
+    assertThat(bytes.size()).isLessThan(content.length / 10);
+    return bytes.toByteArray();
+  }
+
+  private byte[] decompress(String encoding, byte[] compressed) throws IOException {
+    final InputStream bytes = new ByteArrayInputStream(compressed);
+    try (InputStream in = ExportCompression.GZIP.equals(encoding) ? new GZIPInputStream(bytes) : new ZstdInputStream(bytes)) {
+      return in.readAllBytes();
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.snomed.snap2snomed.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.snomed.snap2snomed.problem.CodeSetImportProblem;
+
+class ImportPipelineTest {
+
+  private ExecutorService executor;
+
+  @BeforeEach
+  void setUp() {
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void writesBatchesInOrder() throws IOException {
+    final List<Integer> written = new ArrayList<>();
+
+    ImportPipeline.run(executor, sink -> {
+      for (int i = 0; i < 10; i++) {
+        sink.put(List.of(i * 2, i * 2 + 1));
+      }
+    }, written::addAll);
+
+    assertThat(written).hasSize(20).isSorted();
+  }
+
+  @Test
+  void rethrowsReadingFailure() {
+    final CodeSetImportProblem problem = new CodeSetImportProblem("code-blank", "Code in the import file is blank");
+    final List<Integer> written = new ArrayList<>();
+
+    final CodeSetImportProblem thrown = assertThrows(CodeSetImportProblem.class,
+        () -> ImportPipeline.run(executor, sink -> {
+          sink.put(List.of(1));
+          throw problem;
+        }, written::addAll));
+
+    assertSame(problem, thrown);
+  }
+
+  @Test
+  void writingFailureStopsReading() throws InterruptedException {
+    final CountDownLatch stopped = new CountDownLatch(1);
+
+    assertThrows(IllegalStateException.class, () -> ImportPipeline.run(executor, sink -> {
+      try {
+        while (true) {
+          sink.put(List.of(1));
+        }
+      } catch (final InterruptedIOException e) {
+        stopped.countDown();
+        throw e;
+      }
+    }, batch -> {
+      throw new IllegalStateException("Insert failed");
+    }));
+
+    assertTrue(stopped.await(10, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.snomed.snap2snomed.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.snomed.snap2snomed.model.enumeration.MapStatus;
+import org.snomed.snap2snomed.problem.BadRequestDataProblem;
+
+class MapViewCursorTest {
+
+  @Test
+  void roundTrip() {
+    final Instant note = Instant.parse("2023-04-01T10:15:30.123Z");
+    final MapViewCursor cursor = new MapViewCursor(Arrays.asList(MapViewCursor.toCursorValue(MapStatus.DRAFT),
+        MapViewCursor.toCursorValue(note), null, 12L), 1234L, null);
+
+    final MapViewCursor decoded = MapViewCursor.decode(cursor.encode());
+
+    assertThat(decoded.getRowId()).isEqualTo(1234L);
+    assertThat(decoded.getTargetId()).isNull();
+    assertThat(MapViewCursor.fromCursorValue(decoded.getValues().get(0), MapStatus.class)).isEqualTo(MapStatus.DRAFT);
+    assertThat(MapViewCursor.fromCursorValue(decoded.getValues().get(1), Instant.class)).isEqualTo(note);
+    assertThat(decoded.getValues().get(2)).isNull();
+    assertThat(MapViewCursor.fromCursorValue(decoded.getValues().get(3), Long.class)).isEqualTo(12L);
+  }
+
+  @ParameterizedTest()
+  @ValueSource(strings = {"x", "e30", "not base64!", "eyJ2YWx1ZXMiOltdfQ"})
+  void invalidToken(String token) {
+    assertThrows(BadRequestDataProblem.class, () -> MapViewCursor.decode(token));
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.snomed.snap2snomed.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class MapViewServiceDisplayMatchTest {
+
+  @Test
+  void requiresEachWordAsAPhrase() {
+    assertThat(MapViewService.getDisplayMatchQuery("map row display")).isEqualTo("+\"map\" +\"row\" +\"display\"");
+  }
+
+  @Test
+  void leavesOutTermsShorterThanTheNgramSize() {
+    assertThat(MapViewService.getDisplayMatchQuery("a")).isNull();
+    assertThat(MapViewService.getDisplayMatchQuery("D E F")).isNull();
+    assertThat(MapViewService.getDisplayMatchQuery("row 1")).isEqualTo("+\"row\"");
+  }
+
+  @Test
+  void splitsOnPunctuationAndDropsOperators() {
+    assertThat(MapViewService.getDisplayMatchQuery("row-display")).isEqualTo("+\"row\" +\"display\"");
+    assertThat(MapViewService.getDisplayMatchQuery("+tab* -\"has\" (a)")).isEqualTo("+\"tab\" +\"has\"");
+    assertThat(MapViewService.getDisplayMatchQuery("o'brien")).isEqualTo("+\"brien\"");
+  }
+
+  @Test
+  void countsCodePointsRatherThanChars() {
+    // a single letter outside the basic multilingual plane is two chars but only one ngram character
+    assertThat(MapViewService.getDisplayMatchQuery("\uD835\uDC9C")).isNull();
+    assertThat(MapViewService.getDisplayMatchQuery("\uD835\uDC9C\uD835\uDC9E")).isEqualTo("+\"\uD835\uDC9C\uD835\uDC9E\"");
+    assertThat(MapViewService.getDisplayMatchQuery("\u00E9")).isNull();
+    assertThat(MapViewService.getDisplayMatchQuery("caf\u00E9 \u5FC3\u81D3")).isEqualTo("+\"caf\u00E9\" +\"\u5FC3\u81D3\"");
+  }
+
+  @Test
+  void noQueryForTermsOfOnlySeparators() {
+    assertThat(MapViewService.getDisplayMatchQuery("")).isNull();
+    assertThat(MapViewService.getDisplayMatchQuery("   ")).isNull();
+    assertThat(MapViewService.getDisplayMatchQuery(" -, ./\t")).isNull();
+    assertThat(MapViewService.getDisplayMatchQuery("\"\"")).isNull();
+  }
+}
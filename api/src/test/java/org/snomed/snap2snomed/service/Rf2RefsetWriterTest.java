@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2022 SNOMED International
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.snomed.snap2snomed.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.snomed.snap2snomed.controller.dto.MapExportRow;
+import org.snomed.snap2snomed.model.enumeration.MappingRelationship;
+import org.snomed.snap2snomed.problem.BadRequestDataProblem;
+import org.snomed.snap2snomed.service.Rf2RefsetWriter.Options;
+import org.snomed.snap2snomed.service.Rf2RefsetWriter.RefsetType;
+
+class Rf2RefsetWriterTest {
+
+  private static final List<MapExportRow> ROWS = List.of(
+      row("123", "A", MappingRelationship.TARGET_EQUIVALENT),
+      row("123", "A", MappingRelationship.TARGET_EQUIVALENT),
+      row("123", "B", MappingRelationship.TARGET_BROADER),
+      row("456", "C", null),
+      row("456", "D", MappingRelationship.TARGET_INEXACT));
+
+  @Test
+  void writesSimpleMap() throws IOException {
+    final Options options = new Options(null, "1234567000", "900000000000207008", "20240131");
+    final String[] lines = write(options, "Snapshot/Refset/Map/der2_sRefset_SimpleMapSnapshot_INT_20240131.txt");
+
+    assertThat(lines).hasSize(5);
+    assertThat(lines[0]).isEqualTo("id\teffectiveTime\tactive\tmoduleId\trefsetId\treferencedComponentId\tmapTarget");
+    assertThat(lines[1]).endsWith("\t20240131\t1\t900000000000207008\t1234567000\t123\tA");
+    assertThat(lines[2]).endsWith("\t123\tB");
+    assertThat(lines[3]).endsWith("\t456\tC");
+    assertThat(lines[4]).endsWith("\t456\tD");
+
+    // ids are the same however often the map is exported
+    assertThat(write(options, null)).isEqualTo(lines);
+    assertThat(lines[1].split("\t")[0]).isNotEqualTo(lines[2].split("\t")[0]);
+  }
+
+  @Test
+  void writesExtendedMap() throws IOException {
+    final Options options = new Options(RefsetType.EXTENDED, "1234567000", "11000168105", "20240131");
+    final String[] lines = write(options,
+        "Snapshot/Refset/Map/der2_iisssccRefset_ExtendedMapSnapshot_1000168_20240131.txt");
+
+    assertThat(lines).hasSize(4);
+    assertThat(lines[1]).endsWith("\t123\t1\t1\tTRUE\t\tA\t447557004\t447637006");
+    assertThat(lines[2]).endsWith("\t123\t1\t2\tTRUE\t\tB\t447558009\t447637006");
+    // no correlation for C
+    assertThat(lines[3]).endsWith("\t456\t1\t1\tTRUE\t\tD\t447560006\t447637006");
+  }
+
+  @Test
+  void requiresIdentifiers() {
+    assertThrows(BadRequestDataProblem.class, () -> new Options(null, null, "1234567101", "20240131"));
+    assertThrows(BadRequestDataProblem.class, () -> new Options(null, "1234567000", "abc", "20240131"));
+    assertThrows(BadRequestDataProblem.class, () -> new Options(null, "1234567000", "1234567101", "2024-01-31"));
+  }
+
+  private String[] write(Options options, String expectedEntry) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (Rf2RefsetWriter writer = new Rf2RefsetWriter(out, options, 6)) {
+      for (MapExportRow row : ROWS) {
+        writer.write(row);
+      }
+    }
+
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+      final ZipEntry entry = zip.getNextEntry();
+      if (expectedEntry != null) {
+        assertThat(entry.getName()).isEqualTo(expectedEntry);
+      }
+      final String content = new String(zip.readAllBytes(), StandardCharsets.UTF_8);
+      assertThat(zip.getNextEntry()).isNull();
+      assertThat(content).endsWith("\r\n");
+      return content.split("\r\n");
+    }
+  }
+
+  private static MapExportRow row(String targetCode, String sourceCode, MappingRelationship relationship) {
+    final MapExportRow row = new MapExportRow();
+    row.setSourceCode(sourceCode);
+    row.setTargetCode(targetCode);
+    row.setRelationship(relationship);
+    row.setNoMap(false);
+    return row;
+  }
+}